@@ -0,0 +1,89 @@
+package neubert.tobias.benchmarks;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSession;
+import neubert.tobias.spring.tls.watcher.JsseProvider;
+import nl.altindag.ssl.SSLFactory;
+import nl.altindag.ssl.util.PemUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static neubert.tobias.benchmarks.TlsFixtures.TOBIAS_CERTIFICATE;
+
+
+/**
+ * Handshakes in memory against the {@code SslContextFactory.Server} that {@code JettySslUtils.forServer} creates
+ * for the Jetty connector, so neither sockets nor the thread pool distort the costs of TLS itself. Server and
+ * client run on the same JSSE provider.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class HandshakeBenchmark {
+  private static final String PEER_HOST = "localhost";
+  private static final int PEER_PORT = 8443;
+
+  @Param({"SunJSSE", "Conscrypt"})
+  public String provider;
+
+  private Path directory;
+  private JettyTlsFixture server;
+  private SSLContext clientContext;
+
+  @Setup
+  public void setUp() throws Exception {
+    directory = Files.createTempDirectory("handshake-benchmark");
+    JsseProvider jsseProvider = TlsFixtures.jsseProvider(provider);
+    server = new JettyTlsFixture(directory, Duration.ofMillis(250), jsseProvider);
+    clientContext = jsseProvider.configure(SSLFactory.builder())
+      .withTrustMaterial(PemUtils.loadTrustMaterial(new ByteArrayInputStream(TlsFixtures.resource(TOBIAS_CERTIFICATE))))
+      .build()
+      .getSslContext();
+
+    // fills the session caches of both sides, so all measured handshakes with the peer are resumed
+    resumedHandshake();
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    server.close();
+    TlsFixtures.deleteRecursively(directory);
+  }
+
+  /**
+   * Without a peer host the client does not look for a cached session.
+   */
+  @Benchmark
+  public SSLSession fullHandshake() throws Exception {
+    return handshake(clientContext.createSSLEngine());
+  }
+
+  @Benchmark
+  public SSLSession resumedHandshake() throws Exception {
+    return handshake(clientContext.createSSLEngine(PEER_HOST, PEER_PORT));
+  }
+
+  private SSLSession handshake(SSLEngine clientEngine) throws Exception {
+    SSLEngine serverEngine = server.sslContextFactory.newSSLEngine();
+    serverEngine.setUseClientMode(false);
+    clientEngine.setUseClientMode(true);
+
+    TlsFixtures.handshake(clientEngine, serverEngine);
+
+    return clientEngine.getSession();
+  }
+}
@@ -0,0 +1,91 @@
+package neubert.tobias.benchmarks;
+
+import javax.net.ssl.SSLSessionContext;
+import neubert.tobias.jetty.tls.CachingClientTrustManager;
+import neubert.tobias.jetty.tls.ClientAuthProperties;
+import neubert.tobias.jetty.tls.FileBasedTlsUpdateService;
+import neubert.tobias.jetty.tls.Http2Properties;
+import neubert.tobias.jetty.tls.SecureJettyConfig;
+import neubert.tobias.jetty.tls.SniKeyManager;
+import neubert.tobias.jetty.tls.TlsJettyProperties;
+import neubert.tobias.jetty.tls.TlsRotationListener;
+import neubert.tobias.spring.tls.watcher.JsseProvider;
+import neubert.tobias.spring.tls.watcher.TlsMaterialWatcher;
+import nl.altindag.ssl.SSLFactory;
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.core.io.FileSystemResource;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static neubert.tobias.benchmarks.TlsFixtures.TOBIAS_CERTIFICATE;
+import static neubert.tobias.benchmarks.TlsFixtures.TOBIAS_PRIVATE_KEY;
+import static neubert.tobias.benchmarks.TlsFixtures.copyResource;
+
+
+/**
+ * The TLS side of the Jetty server, wired by the bean methods of {@link SecureJettyConfig} exactly like in an
+ * application, with the tobias identity in the given directory and the SSL context on the given provider.
+ */
+final class JettyTlsFixture implements AutoCloseable {
+  final Path identityCertPath;
+  final Path identityKeyPath;
+  final Path trustPath;
+  final TlsMaterialWatcher tlsMaterialWatcher;
+  final SniKeyManager keyManager;
+  final SSLSessionContext serverSessionContext;
+  final SslContextFactory.Server sslContextFactory;
+  final FileBasedTlsUpdateService tlsUpdateService;
+
+  JettyTlsFixture(Path directory, Duration debounce) throws Exception {
+    this(directory, debounce, JsseProvider.of(JsseProvider.DEFAULT));
+  }
+
+  JettyTlsFixture(Path directory, Duration debounce, JsseProvider jsseProvider) throws Exception {
+    this.identityCertPath = copyResource(TOBIAS_CERTIFICATE, directory);
+    this.identityKeyPath = copyResource(TOBIAS_PRIVATE_KEY, directory);
+    this.trustPath = directory.resolve("trust.pem");
+    TlsFixtures.write(trustPath, TlsFixtures.resource(TOBIAS_CERTIFICATE));
+    this.tlsMaterialWatcher = new TlsMaterialWatcher(debounce, Duration.ofSeconds(10));
+
+    SecureJettyConfig config = new SecureJettyConfig();
+    TlsJettyProperties tlsProperties = new TlsJettyProperties(
+      new FileSystemResource(identityCertPath),
+      new FileSystemResource(identityKeyPath),
+      null,
+      null,
+      null,
+      new FileSystemResource(trustPath),
+      20480,
+      Duration.ofHours(24),
+      10);
+    ClientAuthProperties clientAuthProperties =
+      new ClientAuthProperties(ClientAuthProperties.Mode.NONE, 1000, Duration.ofMinutes(10));
+    this.keyManager = config.keyManager(tlsProperties, tlsMaterialWatcher);
+    CachingClientTrustManager trustManager = config.trustManager(tlsProperties, clientAuthProperties, tlsMaterialWatcher);
+    SSLFactory sslFactory =
+      config.sslFactory(keyManager, trustManager, tlsProperties, clientAuthProperties, jsseProvider);
+
+    this.serverSessionContext = config.serverSessionContext(sslFactory, tlsProperties);
+    this.sslContextFactory =
+      config.sslContextFactory(sslFactory, new Http2Properties(false, 128, 1048576, 524288), clientAuthProperties);
+    this.tlsUpdateService = new FileBasedTlsUpdateService(
+      serverSessionContext,
+      keyManager,
+      trustManager,
+      tlsProperties,
+      tlsMaterialWatcher,
+      jsseProvider,
+      new StaticListableBeanFactory().getBeanProvider(TlsRotationListener.class));
+
+    sslContextFactory.start();
+  }
+
+  @Override
+  public void close() throws Exception {
+    sslContextFactory.stop();
+    tlsUpdateService.stop();
+    tlsMaterialWatcher.stop();
+  }
+}
@@ -0,0 +1,55 @@
+package neubert.tobias.benchmarks;
+
+import javax.net.ssl.X509ExtendedKeyManager;
+import javax.net.ssl.X509ExtendedTrustManager;
+import nl.altindag.ssl.util.PemUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+import static neubert.tobias.benchmarks.TlsFixtures.TOBIAS_CERTIFICATE;
+import static neubert.tobias.benchmarks.TlsFixtures.TOBIAS_PRIVATE_KEY;
+
+
+/**
+ * Parsing the PEM files like the {@code TlsMaterialWatcher} does for {@code SecureJettyConfig.sslFactory}, once
+ * with a single trusted certificate and once with a bundle of hundreds of CAs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PemLoadingBenchmark {
+  @Param({"1", "400"})
+  public int trustedCertificates;
+
+  private byte[] trustBundle;
+  private byte[] identityCert;
+  private byte[] identityKey;
+
+  @Setup
+  public void setUp() throws Exception {
+    trustBundle = trustedCertificates == 1
+      ? TlsFixtures.resource(TOBIAS_CERTIFICATE)
+      : TlsFixtures.caBundle(trustedCertificates);
+    identityCert = TlsFixtures.resource(TOBIAS_CERTIFICATE);
+    identityKey = TlsFixtures.resource(TOBIAS_PRIVATE_KEY);
+  }
+
+  @Benchmark
+  public X509ExtendedTrustManager loadTrustMaterial() {
+    return PemUtils.loadTrustMaterial(new ByteArrayInputStream(trustBundle));
+  }
+
+  @Benchmark
+  public X509ExtendedKeyManager loadIdentityMaterial() {
+    return PemUtils.loadIdentityMaterial(new ByteArrayInputStream(identityCert), new ByteArrayInputStream(identityKey));
+  }
+}
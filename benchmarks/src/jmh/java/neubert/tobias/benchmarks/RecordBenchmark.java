@@ -0,0 +1,105 @@
+package neubert.tobias.benchmarks;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import neubert.tobias.spring.tls.watcher.JsseProvider;
+import nl.altindag.ssl.SSLFactory;
+import nl.altindag.ssl.util.PemUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static neubert.tobias.benchmarks.TlsFixtures.TOBIAS_CERTIFICATE;
+
+
+/**
+ * Encrypts and decrypts application data over an established connection, in memory like the
+ * {@link HandshakeBenchmark}. With TLS 1.3 and AES-GCM this is the cost of every byte that the server sends or
+ * receives once the handshake is done.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class RecordBenchmark {
+  @Param({"SunJSSE", "Conscrypt"})
+  public String provider;
+
+  @Param({"1024", "16384"})
+  public int payloadSize;
+
+  private Path directory;
+  private JettyTlsFixture server;
+  private SSLEngine serverEngine;
+  private SSLEngine clientEngine;
+  private ByteBuffer payload;
+  private ByteBuffer packet;
+  private ByteBuffer received;
+
+  @Setup
+  public void setUp() throws Exception {
+    directory = Files.createTempDirectory("record-benchmark");
+    JsseProvider jsseProvider = TlsFixtures.jsseProvider(provider);
+    server = new JettyTlsFixture(directory, Duration.ofMillis(250), jsseProvider);
+    clientEngine = jsseProvider.configure(SSLFactory.builder())
+      .withTrustMaterial(PemUtils.loadTrustMaterial(new ByteArrayInputStream(TlsFixtures.resource(TOBIAS_CERTIFICATE))))
+      .build()
+      .getSslContext()
+      .createSSLEngine();
+    clientEngine.setUseClientMode(true);
+    serverEngine = server.sslContextFactory.newSSLEngine();
+    serverEngine.setUseClientMode(false);
+    TlsFixtures.handshake(clientEngine, serverEngine);
+
+    byte[] data = new byte[payloadSize];
+    ThreadLocalRandom.current().nextBytes(data);
+    payload = ByteBuffer.wrap(data);
+    packet = ByteBuffer.allocate(serverEngine.getSession().getPacketBufferSize() * 2);
+    received = ByteBuffer.allocate(clientEngine.getSession().getApplicationBufferSize() * 2);
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    server.close();
+    TlsFixtures.deleteRecursively(directory);
+  }
+
+  /**
+   * A payload of 16 KB fills one record completely.
+   */
+  @Benchmark
+  public int serverToClient() throws Exception {
+    payload.clear();
+    packet.clear();
+    received.clear();
+
+    while (payload.hasRemaining()) {
+      check(serverEngine.wrap(payload, packet));
+    }
+    packet.flip();
+    while (packet.hasRemaining()) {
+      check(clientEngine.unwrap(packet, received));
+    }
+
+    return received.position();
+  }
+
+  private static void check(SSLEngineResult result) {
+    if (result.getStatus() != SSLEngineResult.Status.OK) {
+      throw new IllegalStateException("Unexpected result " + result);
+    }
+  }
+}
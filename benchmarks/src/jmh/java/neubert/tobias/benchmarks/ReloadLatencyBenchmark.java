@@ -0,0 +1,77 @@
+package neubert.tobias.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.cert.Certificate;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static neubert.tobias.benchmarks.TlsFixtures.FLYING_DESKS_CERTIFICATE;
+import static neubert.tobias.benchmarks.TlsFixtures.FLYING_DESKS_PRIVATE_KEY;
+import static neubert.tobias.benchmarks.TlsFixtures.TOBIAS_CERTIFICATE;
+import static neubert.tobias.benchmarks.TlsFixtures.TOBIAS_PRIVATE_KEY;
+
+
+/**
+ * The time from writing a new identity until the {@code FileBasedTlsUpdateService} serves it. Every invocation
+ * rotates between two identities, the key is written before the certificate as the README demands. The result
+ * contains the debounce window of the watcher, so it is measured with a short and with the default window.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ReloadLatencyBenchmark {
+  private static final long TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+  @Param({"20", "250"})
+  public int debounceMillis;
+
+  private Path directory;
+  private JettyTlsFixture server;
+  private Certificate tobias;
+  private Certificate flyingDesks;
+  private boolean servingTobias = true;
+
+  @Setup
+  public void setUp() throws Exception {
+    directory = Files.createTempDirectory("reload-benchmark");
+    server = new JettyTlsFixture(directory, Duration.ofMillis(debounceMillis));
+    tobias = TlsFixtures.certificate(TOBIAS_CERTIFICATE);
+    flyingDesks = TlsFixtures.certificate(FLYING_DESKS_CERTIFICATE);
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    server.close();
+    TlsFixtures.deleteRecursively(directory);
+  }
+
+  @Benchmark
+  public Certificate rotateIdentity() throws Exception {
+    Certificate expected = servingTobias ? flyingDesks : tobias;
+    TlsFixtures.write(server.identityKeyPath, TlsFixtures.resource(servingTobias ? FLYING_DESKS_PRIVATE_KEY : TOBIAS_PRIVATE_KEY));
+    TlsFixtures.write(server.identityCertPath, TlsFixtures.resource(servingTobias ? FLYING_DESKS_CERTIFICATE : TOBIAS_CERTIFICATE));
+
+    long deadline = System.nanoTime() + TIMEOUT_NANOS;
+    while (!expected.equals(TlsFixtures.servedCertificate(server.keyManager))) {
+      if (System.nanoTime() > deadline) {
+        throw new IllegalStateException("The new identity has not been served within 30s");
+      }
+      LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+    }
+    servingTobias = !servingTobias;
+
+    return expected;
+  }
+}
@@ -0,0 +1,171 @@
+package neubert.tobias.benchmarks;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import neubert.tobias.spring.rest.tls.DynamicTlsRestTemplate;
+import neubert.tobias.spring.rest.tls.TlsClientProperties;
+import neubert.tobias.spring.tls.watcher.JsseProvider;
+import neubert.tobias.spring.tls.watcher.TlsMaterialWatcher;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.http.ResponseEntity;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static neubert.tobias.benchmarks.TlsFixtures.FLYING_DESKS_CERTIFICATE;
+import static neubert.tobias.benchmarks.TlsFixtures.TOBIAS_CERTIFICATE;
+
+
+/**
+ * The latency of a {@link DynamicTlsRestTemplate} request in the steady state compared with the first request
+ * after a trust swap. The swapped trust still accepts the server, so ideally both are the same. Server and
+ * client run on the same JSSE provider.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RestTemplateTrustSwapBenchmark {
+  @State(Scope.Benchmark)
+  public static class Client {
+    @Param({"SunJSSE", "Conscrypt"})
+    public String provider;
+
+    private Path directory;
+    private JettyTlsFixture serverTls;
+    private Server server;
+    private TlsMaterialWatcher clientWatcher;
+    private DynamicTlsRestTemplate restTemplate;
+    private TlsMaterialWatcher.Subscription swapListener;
+    private final Semaphore swapped = new Semaphore(0);
+    private Path trustPath;
+    private String url;
+    private boolean bundled;
+
+    @Setup
+    public void setUp() throws Exception {
+      directory = Files.createTempDirectory("rest-template-benchmark");
+      JsseProvider jsseProvider = TlsFixtures.jsseProvider(provider);
+      serverTls = new JettyTlsFixture(
+        Files.createDirectory(directory.resolve("server")),
+        Duration.ofMillis(250),
+        jsseProvider);
+
+      server = new Server();
+      ServerConnector connector = new ServerConnector(server, serverTls.sslContextFactory);
+      connector.setPort(0);
+      server.addConnector(connector);
+      server.setHandler(new PongHandler());
+      server.start();
+      url = "https://localhost:" + connector.getLocalPort() + "/ping";
+
+      trustPath = Files.createDirectory(directory.resolve("client")).resolve("trust.pem");
+      TlsFixtures.write(trustPath, TlsFixtures.resource(TOBIAS_CERTIFICATE));
+      clientWatcher = new TlsMaterialWatcher(Duration.ofMillis(20), Duration.ofSeconds(10));
+      restTemplate = new DynamicTlsRestTemplate(
+        new FileSystemResource(trustPath),
+        new TlsClientProperties(
+          100,
+          20,
+          Duration.ofMinutes(5),
+          Duration.ofSeconds(30),
+          Duration.ofSeconds(5),
+          Duration.ofSeconds(2),
+          Duration.ofSeconds(5),
+          Duration.ofSeconds(5),
+          Duration.ofSeconds(30),
+          List.of(),
+          0),
+        clientWatcher,
+        jsseProvider);
+      // subscribers are notified in order, so this one runs after the rest template has swapped its trust
+      swapListener = clientWatcher.subscribe("benchmark", List.of(trustPath), swapped::release);
+    }
+
+    /**
+     * Alternates between trusting the server only and trusting a bundle that contains it, and waits until the
+     * rest template has swapped its trust manager.
+     */
+    void swapTrust() throws Exception {
+      bundled = !bundled;
+      byte[] trust = bundled ? bundle() : TlsFixtures.resource(TOBIAS_CERTIFICATE);
+      TlsFixtures.write(trustPath, trust);
+
+      if (!swapped.tryAcquire(30, TimeUnit.SECONDS)) {
+        throw new IllegalStateException("The trust has not been swapped within 30s");
+      }
+    }
+
+    private static byte[] bundle() throws IOException {
+      ByteArrayOutputStream bundle = new ByteArrayOutputStream();
+      bundle.write(TlsFixtures.resource(TOBIAS_CERTIFICATE));
+      bundle.write(TlsFixtures.resource(FLYING_DESKS_CERTIFICATE));
+
+      return bundle.toByteArray();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+      swapListener.cancel();
+      restTemplate.destroy();
+      clientWatcher.stop();
+      server.stop();
+      serverTls.close();
+      TlsFixtures.deleteRecursively(directory);
+    }
+  }
+
+  /**
+   * Swaps the trust before every measured request. The setup is not part of the measured time.
+   */
+  @State(Scope.Thread)
+  public static class TrustSwap {
+    @Setup(Level.Invocation)
+    public void swap(Client client) throws Exception {
+      client.swapTrust();
+    }
+  }
+
+  @Benchmark
+  public ResponseEntity<String> steadyState(Client client) {
+    return client.restTemplate.getForEntity(client.url, String.class);
+  }
+
+  @Benchmark
+  public ResponseEntity<String> afterTrustSwap(Client client, TrustSwap trustSwap) {
+    return client.restTemplate.getForEntity(client.url, String.class);
+  }
+
+  private static class PongHandler extends AbstractHandler {
+    @Override
+    public void handle(
+      String target,
+      Request baseRequest,
+      HttpServletRequest request,
+      HttpServletResponse response) throws IOException
+    {
+      response.setContentType("text/plain");
+      response.getOutputStream().write("pong".getBytes(StandardCharsets.UTF_8));
+      baseRequest.setHandled(true);
+    }
+  }
+}
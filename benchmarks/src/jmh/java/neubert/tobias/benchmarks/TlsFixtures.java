@@ -0,0 +1,186 @@
+package neubert.tobias.benchmarks;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.X509KeyManager;
+import neubert.tobias.spring.tls.watcher.JsseProvider;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateFactory;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Stream;
+
+
+/**
+ * The TLS material of the benchmarks and the plumbing to handshake two {@link SSLEngine}s in memory.
+ */
+final class TlsFixtures {
+  static final String TOBIAS_CERTIFICATE = "tobias-certificate.pem";
+  static final String TOBIAS_PRIVATE_KEY = "tobias-private.key";
+  static final String FLYING_DESKS_CERTIFICATE = "flying-desks-certificate.pem";
+  static final String FLYING_DESKS_PRIVATE_KEY = "flying-desks-private.key";
+
+  private static final int MAX_HANDSHAKE_ROUNDS = 100;
+
+  private TlsFixtures() {
+  }
+
+  /**
+   * Unlike the application the benchmarks do not fall back to the default provider, a result labeled with a
+   * provider has to be measured on it.
+   */
+  static JsseProvider jsseProvider(String name) {
+    JsseProvider jsseProvider = JsseProvider.of(name);
+    if (!jsseProvider.name().equalsIgnoreCase(name)) {
+      throw new IllegalStateException("The JSSE provider " + name + " is not available");
+    }
+
+    return jsseProvider;
+  }
+
+  static byte[] resource(String name) {
+    try (InputStream in = TlsFixtures.class.getResourceAsStream("/tls/" + name)) {
+      return Objects.requireNonNull(in, name).readAllBytes();
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  static Path copyResource(String name, Path directory) throws IOException {
+    return write(directory.resolve(name), resource(name));
+  }
+
+  /**
+   * Replaces the file at once, the way a secret store or kubernetes would do it.
+   */
+  static Path write(Path path, byte[] content) throws IOException {
+    Path temp = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+    Files.write(temp, content);
+
+    return Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  static void deleteRecursively(Path directory) throws IOException {
+    try (Stream<Path> paths = Files.walk(directory)) {
+      paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+    }
+  }
+
+  static Certificate certificate(String name) {
+    try {
+      return CertificateFactory.getInstance("X.509").generateCertificate(new ByteArrayInputStream(resource(name)));
+    }
+    catch (GeneralSecurityException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * @return a PEM bundle with at least the given number of certificates, made of the CAs of the JDK
+   */
+  static byte[] caBundle(int minCertificates) throws IOException, GeneralSecurityException {
+    KeyStore cacerts = KeyStore.getInstance(KeyStore.getDefaultType());
+    try (InputStream in = Files.newInputStream(Path.of(System.getProperty("java.home"), "lib", "security", "cacerts"))) {
+      cacerts.load(in, null);
+    }
+
+    List<Certificate> certificates = new ArrayList<>();
+    for (String alias : Collections.list(cacerts.aliases())) {
+      certificates.add(cacerts.getCertificate(alias));
+    }
+
+    Base64.Encoder encoder = Base64.getMimeEncoder(64, "\n".getBytes(StandardCharsets.US_ASCII));
+    StringBuilder bundle = new StringBuilder();
+    for (int i = 0; i < Math.max(minCertificates, 1); i++) {
+      Certificate certificate = certificates.get(i % certificates.size());
+      bundle.append("-----BEGIN CERTIFICATE-----\n")
+        .append(encoder.encodeToString(certificate.getEncoded()))
+        .append("\n-----END CERTIFICATE-----\n");
+    }
+
+    return bundle.toString().getBytes(StandardCharsets.US_ASCII);
+  }
+
+  static Certificate servedCertificate(X509KeyManager keyManager) {
+    String[] aliases = keyManager.getServerAliases("RSA", null);
+    if (aliases == null || aliases.length == 0) {
+      return null;
+    }
+    Certificate[] chain = keyManager.getCertificateChain(aliases[0]);
+
+    return chain == null || chain.length == 0 ? null : chain[0];
+  }
+
+  /**
+   * Runs a complete handshake between the two engines, including the session tickets that a TLS 1.3 server sends
+   * after the handshake.
+   */
+  static void handshake(SSLEngine client, SSLEngine server) throws SSLException {
+    int applicationBufferSize = Math.max(
+      client.getSession().getApplicationBufferSize(),
+      server.getSession().getApplicationBufferSize());
+    int packetBufferSize = Math.max(client.getSession().getPacketBufferSize(), server.getSession().getPacketBufferSize());
+
+    ByteBuffer empty = ByteBuffer.allocate(0);
+    ByteBuffer clientApplication = ByteBuffer.allocate(applicationBufferSize);
+    ByteBuffer serverApplication = ByteBuffer.allocate(applicationBufferSize);
+    ByteBuffer clientToServer = ByteBuffer.allocate(packetBufferSize);
+    ByteBuffer serverToClient = ByteBuffer.allocate(packetBufferSize);
+
+    client.beginHandshake();
+    server.beginHandshake();
+
+    for (int round = 0; round < MAX_HANDSHAKE_ROUNDS; round++) {
+      runDelegatedTasks(client, client.wrap(empty, clientToServer));
+      runDelegatedTasks(server, server.wrap(empty, serverToClient));
+
+      clientToServer.flip();
+      serverToClient.flip();
+      runDelegatedTasks(client, client.unwrap(serverToClient, clientApplication));
+      runDelegatedTasks(server, server.unwrap(clientToServer, serverApplication));
+      clientToServer.compact();
+      serverToClient.compact();
+
+      if (isHandshakeDone(client) && isHandshakeDone(server)
+        && clientToServer.position() == 0 && serverToClient.position() == 0)
+      {
+        return;
+      }
+    }
+
+    throw new IllegalStateException("Handshake did not finish within " + MAX_HANDSHAKE_ROUNDS + " rounds");
+  }
+
+  private static void runDelegatedTasks(SSLEngine engine, SSLEngineResult result) {
+    if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+      Runnable task;
+      while ((task = engine.getDelegatedTask()) != null) {
+        task.run();
+      }
+    }
+  }
+
+  private static boolean isHandshakeDone(SSLEngine engine) {
+    SSLEngineResult.HandshakeStatus status = engine.getHandshakeStatus();
+    return status == SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING
+      || status == SSLEngineResult.HandshakeStatus.FINISHED;
+  }
+}
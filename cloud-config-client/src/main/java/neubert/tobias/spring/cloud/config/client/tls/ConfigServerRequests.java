@@ -0,0 +1,58 @@
+package neubert.tobias.spring.cloud.config.client.tls;
+
+import org.springframework.cloud.config.client.ConfigClientProperties;
+import org.springframework.cloud.config.client.ConfigClientProperties.Credentials;
+import org.springframework.cloud.config.environment.Environment;
+import org.springframework.core.env.CompositePropertySource;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.util.StringUtils;
+
+import java.util.Map;
+
+
+/**
+ * The parts of a request to the config server and of its response that all locators of this module share.
+ */
+final class ConfigServerRequests {
+  private ConfigServerRequests() {
+  }
+
+  static String path(String uri, ConfigClientProperties properties) {
+    return StringUtils.hasText(properties.getLabel())
+      ? uri + "/{name}/{profile}/{label}"
+      : uri + "/{name}/{profile}";
+  }
+
+  static String label(ConfigClientProperties properties) {
+    return StringUtils.hasText(properties.getLabel()) ? properties.getLabel().replace("/", "(_)") : null;
+  }
+
+  static void headers(HttpHeaders headers, ConfigClientProperties properties) {
+    headers(headers, properties, properties.getCredentials(0));
+  }
+
+  /**
+   * The user has a default name, so like spring cloud config basic authentication is only used if there is a
+   * password.
+   *
+   * @param credentials the uri the request goes to and its user, which may be part of the uri
+   */
+  static void headers(HttpHeaders headers, ConfigClientProperties properties, Credentials credentials) {
+    properties.getHeaders().forEach(headers::add);
+    if (credentials.getPassword() != null && !headers.containsKey(HttpHeaders.AUTHORIZATION)) {
+      headers.setBasicAuth(credentials.getUsername(), credentials.getPassword());
+    }
+  }
+
+  static CompositePropertySource propertySource(Environment environment) {
+    CompositePropertySource composite = new CompositePropertySource("configService");
+    for (org.springframework.cloud.config.environment.PropertySource source : environment.getPropertySources()) {
+      @SuppressWarnings("unchecked")
+      Map<String, Object> map = (Map<String, Object>) source.getSource();
+      composite.addPropertySource(new MapPropertySource("configserver:" + source.getName(), map));
+    }
+
+    return composite;
+  }
+}
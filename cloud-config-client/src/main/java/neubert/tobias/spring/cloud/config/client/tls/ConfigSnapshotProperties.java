@@ -0,0 +1,17 @@
+package neubert.tobias.spring.cloud.config.client.tls;
+
+import java.nio.file.Path;
+
+
+/**
+ * @param snapshotFile the file of the last fetched configuration, no snapshot is kept if missing
+ * @param backgroundRefresh starts from the snapshot right away and fetches the configuration in the background
+ */
+public record ConfigSnapshotProperties(
+  Path snapshotFile,
+  boolean backgroundRefresh)
+{
+  public boolean hasSnapshotFile() {
+    return snapshotFile != null;
+  }
+}
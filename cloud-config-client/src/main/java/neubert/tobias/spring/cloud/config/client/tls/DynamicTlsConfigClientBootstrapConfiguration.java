@@ -1,24 +1,104 @@
 package neubert.tobias.spring.cloud.config.client.tls;
 
 import neubert.tobias.spring.rest.tls.DynamicTlsRestTemplate;
+import neubert.tobias.spring.tls.watcher.TlsMaterialWatcher;
+import neubert.tobias.spring.web.tls.DynamicTlsClientHttpConnector;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
 import org.springframework.cloud.config.client.ConfigClientProperties;
 import org.springframework.cloud.config.client.ConfigServicePropertySourceLocator;
+import org.springframework.context.ApplicationContextInitializer;
+import org.springframework.context.ConfigurableApplicationContext;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.Ordered;
 import org.springframework.core.annotation.Order;
+import org.springframework.core.io.Resource;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
 
 
 @Configuration
 @Order(Ordered.HIGHEST_PRECEDENCE)
 public class DynamicTlsConfigClientBootstrapConfiguration {
+  @Bean
+  public ConfigSnapshotProperties configSnapshotProperties(
+    @Value("${neubert.tobias.tls.config-client.snapshot-file:#{null}}") Path snapshotFile,
+    @Value("${neubert.tobias.tls.config-client.background-refresh:true}") boolean backgroundRefresh)
+  {
+    return new ConfigSnapshotProperties(snapshotFile, backgroundRefresh);
+  }
+
   @Bean
   public ConfigServicePropertySourceLocator configServicePropertySourceLocator(
     ConfigClientProperties clientProperties,
+    ConfigSnapshotProperties snapshotProperties,
     DynamicTlsRestTemplate restTemplate)
   {
+    if (snapshotProperties.hasSnapshotFile()) {
+      return new SnapshotConfigServicePropertySourceLocator(clientProperties, restTemplate, snapshotProperties);
+    }
+
     ConfigServicePropertySourceLocator configServicePropertySourceLocator = new ConfigServicePropertySourceLocator(clientProperties);
     configServicePropertySourceLocator.setRestTemplate(restTemplate);
     return configServicePropertySourceLocator;
   }
-}
\ No newline at end of file
+
+  /**
+   * The bootstrap context hands its initializers to the application, which publishes the changes found by the
+   * background refresh of the snapshot once it is ready.
+   */
+  @Bean
+  public ApplicationContextInitializer<ConfigurableApplicationContext> configSnapshotChangesInitializer(
+    ObjectProvider<ConfigServicePropertySourceLocator> configServicePropertySourceLocator)
+  {
+    return applicationContext -> configServicePropertySourceLocator.ifUnique(locator -> {
+      if (locator instanceof SnapshotConfigServicePropertySourceLocator snapshotLocator) {
+        applicationContext.addApplicationListener(event -> {
+          if (event instanceof ApplicationReadyEvent) {
+            snapshotLocator.publishChangesTo(applicationContext);
+          }
+        });
+      }
+    });
+  }
+
+  /**
+   * The push needs the {@code WebClient} of the {@code web-client} module, which the application has to add itself.
+   */
+  @Configuration(proxyBeanMethods = false)
+  @ConditionalOnClass({WebClient.class, DynamicTlsClientHttpConnector.class})
+  @ConditionalOnProperty(name = "neubert.tobias.tls.push.enabled", havingValue = "true")
+  static class PushConfig {
+    @Bean
+    public TlsPushProperties tlsPushProperties(
+      @Value("${neubert.tobias.tls.push.bundle:${spring.application.name:application}}") String bundle,
+      @Value("${neubert.tobias.tls.push.directory-resource}") Resource directoryResource,
+      @Value("${neubert.tobias.tls.push.reconnect-delay:1s}") Duration reconnectDelay,
+      @Value("${neubert.tobias.tls.push.max-reconnect-delay:1m}") Duration maxReconnectDelay) throws IOException
+    {
+      return new TlsPushProperties(
+        bundle,
+        TlsMaterialWatcher.pathOf(directoryResource),
+        reconnectDelay,
+        maxReconnectDelay);
+    }
+
+    @Bean
+    public TlsBundleSubscriber tlsBundleSubscriber(
+      ConfigClientProperties clientProperties,
+      TlsPushProperties pushProperties,
+      @Qualifier("dynamicTlsWebClient") WebClient webClient,
+      TlsMaterialWatcher tlsMaterialWatcher)
+    {
+      return new TlsBundleSubscriber(webClient, clientProperties, pushProperties, tlsMaterialWatcher);
+    }
+  }
+}
@@ -0,0 +1,292 @@
+package neubert.tobias.spring.cloud.config.client.tls;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cloud.config.client.ConfigClientProperties;
+import org.springframework.cloud.config.client.ConfigClientProperties.Credentials;
+import org.springframework.cloud.config.client.ConfigServicePropertySourceLocator;
+import org.springframework.cloud.context.environment.EnvironmentChangeEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.env.EnumerablePropertySource;
+import org.springframework.core.env.Environment;
+import org.springframework.core.env.PropertySource;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+
+
+/**
+ * Fetches the configuration with conditional requests and keeps the last fetched environment in a local snapshot
+ * file. As long as the ETag of the snapshot is current, the config server answers with {@code 304 Not Modified},
+ * so a restart of the whole fleet does not transfer every environment again. If the config server cannot be
+ * reached, the application starts with the snapshot.
+ * <p>
+ * With the background refresh the application starts from the snapshot right away while the configuration is
+ * fetched in parallel. A changed configuration replaces the properties of the snapshot in the environment and is
+ * announced with an {@link EnvironmentChangeEvent} once the application is ready, which rebinds the
+ * {@code @ConfigurationProperties} beans. Other beans keep their values until the context is refreshed.
+ * <p>
+ * The configured uris are tried in order, the next one only if the previous cannot be reached. Retries are left to
+ * spring cloud config.
+ */
+public class SnapshotConfigServicePropertySourceLocator extends ConfigServicePropertySourceLocator {
+  private static final Logger LOGGER = LoggerFactory.getLogger(SnapshotConfigServicePropertySourceLocator.class);
+
+  private final ConfigClientProperties defaultProperties;
+  private final RestTemplate restTemplate;
+  private final ConfigSnapshotProperties snapshotProperties;
+  private final ObjectMapper objectMapper = new ObjectMapper();
+  private final CompletableFuture<ApplicationEventPublisher> eventPublisher = new CompletableFuture<>();
+
+  public SnapshotConfigServicePropertySourceLocator(
+    ConfigClientProperties defaultProperties,
+    RestTemplate restTemplate,
+    ConfigSnapshotProperties snapshotProperties)
+  {
+    super(defaultProperties);
+    setRestTemplate(restTemplate);
+    this.defaultProperties = defaultProperties;
+    this.restTemplate = restTemplate;
+    this.snapshotProperties = snapshotProperties;
+  }
+
+  /**
+   * The changes found by the background refresh are published to the given application context, which is expected
+   * to be ready. Changes found before are published right away.
+   */
+  public void publishChangesTo(ApplicationEventPublisher applicationContext) {
+    eventPublisher.complete(applicationContext);
+  }
+
+  @Override
+  public PropertySource<?> locate(Environment environment) {
+    ConfigClientProperties properties = defaultProperties.override(environment);
+    String uri = String.join(",", uris(properties));
+    String key = String.join("/", uri, properties.getName(), properties.getProfile(), properties.getLabel());
+    Snapshot snapshot = readSnapshot(key);
+
+    if (snapshot != null && snapshotProperties.backgroundRefresh()) {
+      SnapshotPropertySource propertySource = new SnapshotPropertySource(snapshot);
+      Thread refresh = new Thread(() -> refresh(uri, properties, propertySource), "config-snapshot-refresh");
+      refresh.setDaemon(true);
+      refresh.start();
+      LOGGER.info(
+        "Starting with the snapshot of {}, refreshing it in the background",
+        snapshot.environment().getName());
+
+      return propertySource;
+    }
+
+    try {
+      return new SnapshotPropertySource(fetch(properties, key, snapshot));
+    }
+    catch (RuntimeException e) {
+      if (snapshot != null) {
+        LOGGER.warn("Could not locate the configuration at {}, starting with the snapshot: {}", uri, e.getMessage());
+        return new SnapshotPropertySource(snapshot);
+      }
+      if (properties.isFailFast()) {
+        throw new IllegalStateException("Could not locate the configuration at " + uri, e);
+      }
+      LOGGER.warn("Could not locate the configuration at {}: {}", uri, e.getMessage());
+
+      return null;
+    }
+  }
+
+  private void refresh(String uri, ConfigClientProperties properties, SnapshotPropertySource propertySource) {
+    try {
+      Snapshot snapshot = propertySource.snapshot;
+      Snapshot newSnapshot = fetch(properties, snapshot.key(), snapshot);
+      if (newSnapshot != snapshot) {
+        Set<String> changedKeys = propertySource.update(newSnapshot);
+        LOGGER.info("{} properties at {} changed since the snapshot", changedKeys.size(), uri);
+        eventPublisher.thenAccept(publisher -> publisher.publishEvent(new EnvironmentChangeEvent(changedKeys)));
+      }
+    }
+    catch (RuntimeException e) {
+      LOGGER.warn("Could not refresh the snapshot of the configuration at {}: {}", uri, e.getMessage());
+    }
+  }
+
+  /**
+   * Like spring cloud config, the next uri is only tried if the previous one cannot be reached. A config server
+   * that answers with an error is not skipped.
+   *
+   * @return the given snapshot if the configuration did not change
+   */
+  private Snapshot fetch(ConfigClientProperties properties, String key, Snapshot snapshot) {
+    int uriCount = properties.getUri().length;
+    for (int i = 0; ; i++) {
+      Credentials credentials = properties.getCredentials(i);
+      try {
+        return fetch(credentials, properties, key, snapshot);
+      }
+      catch (ResourceAccessException e) {
+        if (i == uriCount - 1) {
+          throw e;
+        }
+        LOGGER.info("Cannot reach the config server {}, trying the next one: {}", credentials.getUri(), e.getMessage());
+      }
+    }
+  }
+
+  private Snapshot fetch(Credentials credentials, ConfigClientProperties properties, String key, Snapshot snapshot) {
+    String uri = credentials.getUri();
+    HttpHeaders headers = new HttpHeaders();
+    ConfigServerRequests.headers(headers, properties, credentials);
+    if (snapshot != null && snapshot.etag() != null) {
+      headers.setIfNoneMatch(snapshot.etag());
+    }
+
+    ResponseEntity<org.springframework.cloud.config.environment.Environment> response = restTemplate.exchange(
+      ConfigServerRequests.path(uri, properties),
+      HttpMethod.GET,
+      new HttpEntity<>(headers),
+      org.springframework.cloud.config.environment.Environment.class,
+      properties.getName(),
+      properties.getProfile(),
+      ConfigServerRequests.label(properties));
+
+    if (snapshot != null && response.getStatusCode() == HttpStatus.NOT_MODIFIED) {
+      LOGGER.info("The configuration at {} did not change since the snapshot", uri);
+      return snapshot;
+    }
+    if (response.getBody() == null) {
+      throw new IllegalStateException("Empty response of the config server " + uri);
+    }
+
+    Snapshot newSnapshot = new Snapshot(key, response.getHeaders().getETag(), response.getBody());
+    writeSnapshot(newSnapshot);
+    LOGGER.info("Located environment {} at {}", newSnapshot.environment().getName(), uri);
+
+    return newSnapshot;
+  }
+
+  /**
+   * @return the configured uris without the users that may be part of them
+   */
+  private static List<String> uris(ConfigClientProperties properties) {
+    List<String> uris = new ArrayList<>();
+    for (int i = 0; i < properties.getUri().length; i++) {
+      uris.add(properties.getCredentials(i).getUri());
+    }
+
+    return uris;
+  }
+
+  private Snapshot readSnapshot(String key) {
+    Path snapshotFile = snapshotProperties.snapshotFile();
+    if (!Files.isRegularFile(snapshotFile)) {
+      return null;
+    }
+
+    try {
+      Snapshot snapshot = objectMapper.readValue(snapshotFile.toFile(), Snapshot.class);
+      if (!key.equals(snapshot.key())) {
+        LOGGER.info("The snapshot {} belongs to {}, it is ignored", snapshotFile, snapshot.key());
+        return null;
+      }
+
+      return snapshot;
+    }
+    catch (IOException e) {
+      LOGGER.warn("Cannot read the snapshot {}, it is ignored: {}", snapshotFile, e.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * The snapshot may contain secrets, so it is only readable by its owner. It is replaced atomically, a crash while
+   * writing leaves the previous snapshot.
+   */
+  private void writeSnapshot(Snapshot snapshot) {
+    Path snapshotFile = snapshotProperties.snapshotFile().toAbsolutePath();
+    Path tempFile = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+    try {
+      Files.createDirectories(snapshotFile.getParent());
+      Files.deleteIfExists(tempFile);
+      if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+        Files.createFile(tempFile, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+      }
+      Files.write(tempFile, objectMapper.writeValueAsBytes(snapshot));
+      Files.move(tempFile, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    catch (IOException e) {
+      LOGGER.warn("Cannot write the snapshot {}: {}", snapshotFile, e.getMessage());
+    }
+  }
+
+  /**
+   * @param key the uris, name, profile and label the environment has been fetched for
+   */
+  private record Snapshot(
+    String key,
+    String etag,
+    org.springframework.cloud.config.environment.Environment environment)
+  {
+  }
+
+  /**
+   * Delegates to the property sources of the current snapshot, which is replaced by the background refresh.
+   */
+  private static final class SnapshotPropertySource extends EnumerablePropertySource<Object> {
+    private volatile Snapshot snapshot;
+    private volatile EnumerablePropertySource<?> delegate;
+
+    private SnapshotPropertySource(Snapshot snapshot) {
+      super("configService");
+      update(snapshot);
+    }
+
+    /**
+     * @return the names of the properties that have been added, removed or changed
+     */
+    Set<String> update(Snapshot newSnapshot) {
+      EnumerablePropertySource<?> newDelegate = ConfigServerRequests.propertySource(newSnapshot.environment());
+      Set<String> changedKeys = new TreeSet<>();
+      if (delegate != null) {
+        Set<String> names = new HashSet<>(List.of(delegate.getPropertyNames()));
+        names.addAll(List.of(newDelegate.getPropertyNames()));
+        for (String name : names) {
+          if (!Objects.equals(delegate.getProperty(name), newDelegate.getProperty(name))) {
+            changedKeys.add(name);
+          }
+        }
+      }
+      delegate = newDelegate;
+      snapshot = newSnapshot;
+
+      return changedKeys;
+    }
+
+    @Override
+    public Object getProperty(String name) {
+      return delegate.getProperty(name);
+    }
+
+    @Override
+    public String[] getPropertyNames() {
+      return delegate.getPropertyNames();
+    }
+  }
+}
@@ -0,0 +1,94 @@
+package neubert.tobias.spring.cloud.config.client.tls;
+
+import neubert.tobias.spring.tls.watcher.TlsBundle;
+import neubert.tobias.spring.tls.watcher.TlsMaterialWatcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.cloud.config.client.ConfigClientProperties;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.util.retry.Retry;
+
+
+/**
+ * Subscribes to the TLS bundle of the application at the config server and publishes every version to the
+ * {@link TlsMaterialWatcher}, as the content of the files of the bundle in the push directory. The watcher swaps the material of all subscribers, like the Jetty server, the
+ * {@code DynamicTlsRestTemplate} and the {@code WebClient}, without writing a file.
+ * <p>
+ * After a disconnect the stream is resumed with the last received version, so the server only sends a bundle
+ * that the client does not have yet.
+ */
+public class TlsBundleSubscriber implements DisposableBean {
+  private static final Logger LOGGER = LoggerFactory.getLogger(TlsBundleSubscriber.class);
+  private static final ParameterizedTypeReference<ServerSentEvent<TlsBundle>> BUNDLE_EVENTS =
+    new ParameterizedTypeReference<>() {};
+
+  private final TlsMaterialWatcher tlsMaterialWatcher;
+  private final TlsPushProperties pushProperties;
+  private final Disposable subscription;
+
+  private volatile String lastVersion;
+
+  public TlsBundleSubscriber(
+    WebClient webClient,
+    ConfigClientProperties clientProperties,
+    TlsPushProperties pushProperties,
+    TlsMaterialWatcher tlsMaterialWatcher)
+  {
+    this.tlsMaterialWatcher = tlsMaterialWatcher;
+    this.pushProperties = pushProperties;
+
+    String uri = clientProperties.getUri()[0] + "/tls/bundles/{name}";
+    LOGGER.info("Subscribing to the TLS bundle {} at {}", pushProperties.bundle(), clientProperties.getUri()[0]);
+    this.subscription = Flux.defer(() -> webClient.get()
+        .uri(uri, pushProperties.bundle())
+        .headers(headers -> {
+          ConfigServerRequests.headers(headers, clientProperties);
+          if (lastVersion != null) {
+            headers.set("Last-Event-ID", lastVersion);
+          }
+        })
+        .retrieve()
+        .bodyToFlux(BUNDLE_EVENTS))
+      .repeatWhen(completed -> completed.delayElements(pushProperties.reconnectDelay()))
+      .retryWhen(
+        Retry.backoff(Long.MAX_VALUE, pushProperties.reconnectDelay())
+          .maxBackoff(pushProperties.maxReconnectDelay())
+          .transientErrors(true)
+          .doBeforeRetry(signal -> LOGGER.warn(
+            "The stream of the TLS bundle {} failed, reconnecting: {}",
+            pushProperties.bundle(),
+            signal.failure().getMessage())))
+      .subscribe(this::publish);
+  }
+
+  private void publish(ServerSentEvent<TlsBundle> event) {
+    TlsBundle bundle = event.data();
+    if (bundle == null) {
+      return;
+    }
+
+    try {
+      LOGGER.info("Received version {} of the TLS bundle", bundle.version());
+      tlsMaterialWatcher.publish(bundle, pushProperties.directory());
+      lastVersion = bundle.version();
+    }
+    catch (RuntimeException e) {
+      LOGGER.error("Cannot publish version {} of the TLS bundle", bundle.version(), e);
+    }
+  }
+
+  public void stop() {
+    LOGGER.info("Stopping to subscribe to the TLS bundle");
+    subscription.dispose();
+  }
+
+  @Override
+  public void destroy() throws Exception {
+    stop();
+  }
+}
@@ -0,0 +1,19 @@
+package neubert.tobias.spring.cloud.config.client.tls;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+
+/**
+ * @param bundle the name of the TLS bundle at the config server
+ * @param directory every file of the bundle replaces the file with the same name in this directory
+ * @param reconnectDelay the delay before the first reconnect after the stream has been closed or has failed
+ * @param maxReconnectDelay the delay of consecutive failed reconnects grows up to this limit
+ */
+public record TlsPushProperties(
+  String bundle,
+  Path directory,
+  Duration reconnectDelay,
+  Duration maxReconnectDelay)
+{
+}
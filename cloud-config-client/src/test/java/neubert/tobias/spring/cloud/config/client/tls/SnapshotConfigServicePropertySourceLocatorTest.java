@@ -0,0 +1,151 @@
+package neubert.tobias.spring.cloud.config.client.tls;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockserver.integration.ClientAndServer;
+import org.mockserver.socket.PortFactory;
+import org.mockserver.verify.VerificationTimes;
+import org.springframework.cloud.config.client.ConfigClientProperties;
+import org.springframework.cloud.context.environment.EnvironmentChangeEvent;
+import org.springframework.core.env.PropertySource;
+import org.springframework.core.env.StandardEnvironment;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.String.format;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockserver.model.HttpRequest.request;
+import static org.mockserver.model.HttpResponse.response;
+
+
+class SnapshotConfigServicePropertySourceLocatorTest {
+  private static final String ENVIRONMENT = """
+    {
+      "name": "application",
+      "profiles": ["default"],
+      "propertySources": [{"name": "application.yml", "source": {"message": "%s"}}]
+    }""";
+
+  private final StandardEnvironment environment = new StandardEnvironment();
+
+  private ClientAndServer mockServer;
+  private Path snapshotDirectory;
+  private Path snapshotFile;
+
+  @BeforeEach
+  void setup() throws IOException {
+    mockServer = ClientAndServer.startClientAndServer(PortFactory.findFreePort());
+    snapshotDirectory = Files.createTempDirectory("config-snapshot");
+    snapshotFile = snapshotDirectory.resolve("snapshot.json");
+  }
+
+  @AfterEach
+  void stopMockServer() throws IOException {
+    mockServer.stop();
+    Files.deleteIfExists(snapshotFile);
+    Files.deleteIfExists(snapshotDirectory);
+  }
+
+  @Test
+  void asksForChangesSinceTheSnapshot() {
+    serve("hello", "\"v1\"");
+    assertThat(locator(false, configServerUri()).locate(environment).getProperty("message")).isEqualTo("hello");
+
+    mockServer.reset();
+    mockServer
+      .when(request().withPath("/application/default").withHeader("If-None-Match", "\"v1\""))
+      .respond(response().withStatusCode(304));
+
+    assertThat(locator(false, configServerUri()).locate(environment).getProperty("message")).isEqualTo("hello");
+    mockServer.verify(request().withHeader("If-None-Match", "\"v1\""), VerificationTimes.once());
+  }
+
+  @Test
+  void replacesTheSnapshotWithAFileOnlyItsOwnerCanRead() throws IOException {
+    serve("hello", "\"v1\"");
+    locator(false, configServerUri()).locate(environment);
+    mockServer.reset();
+    serve("goodbye", "\"v2\"");
+
+    locator(false, configServerUri()).locate(environment);
+
+    assertThat(Files.readString(snapshotFile)).contains("goodbye").doesNotContain("hello");
+    assertThat(snapshotDirectory.resolve("snapshot.json.tmp")).doesNotExist();
+    assertThat(PosixFilePermissions.toString(Files.getPosixFilePermissions(snapshotFile))).isEqualTo("rw-------");
+  }
+
+  @Test
+  void startsFromTheSnapshotIfTheConfigServerIsDown() {
+    serve("hello", "\"v1\"");
+    locator(false, configServerUri()).locate(environment);
+
+    mockServer.stop();
+
+    assertThat(locator(false, configServerUri()).locate(environment).getProperty("message")).isEqualTo("hello");
+  }
+
+  @Test
+  void triesTheNextUriIfTheFirstCannotBeReached() {
+    serve("hello", "\"v1\"");
+
+    PropertySource<?> propertySource = locator(false, unreachableUri(), configServerUri()).locate(environment);
+
+    assertThat(propertySource.getProperty("message")).isEqualTo("hello");
+  }
+
+  @Test
+  void publishesTheChangesOfTheBackgroundRefresh() throws InterruptedException {
+    serve("hello", "\"v1\"");
+    locator(false, configServerUri()).locate(environment);
+    mockServer.reset();
+    serve("goodbye", "\"v2\"");
+
+    BlockingQueue<Object> events = new LinkedBlockingQueue<>();
+    SnapshotConfigServicePropertySourceLocator locator = locator(true, configServerUri());
+    PropertySource<?> propertySource = locator.locate(environment);
+    assertThat(propertySource.getProperty("message")).isEqualTo("hello");
+    locator.publishChangesTo(events::add);
+
+    Object event = events.poll(10, TimeUnit.SECONDS);
+    assertThat(event).isInstanceOfSatisfying(
+      EnvironmentChangeEvent.class,
+      changes -> assertThat(changes.getKeys()).containsExactly("message"));
+    assertThat(propertySource.getProperty("message")).isEqualTo("goodbye");
+  }
+
+  private void serve(String message, String etag) {
+    mockServer
+      .when(request().withMethod("GET").withPath("/application/default"))
+      .respond(response()
+        .withStatusCode(200)
+        .withHeader("Content-Type", "application/json")
+        .withHeader("ETag", etag)
+        .withBody(format(ENVIRONMENT, message)));
+  }
+
+  private SnapshotConfigServicePropertySourceLocator locator(boolean backgroundRefresh, String... uris) {
+    ConfigClientProperties clientProperties = new ConfigClientProperties(new StandardEnvironment());
+    clientProperties.setUri(uris);
+
+    return new SnapshotConfigServicePropertySourceLocator(
+      clientProperties,
+      new RestTemplate(),
+      new ConfigSnapshotProperties(snapshotFile, backgroundRefresh));
+  }
+
+  private String configServerUri() {
+    return format("http://localhost:%d", mockServer.getPort());
+  }
+
+  private static String unreachableUri() {
+    return format("http://localhost:%d", PortFactory.findFreePort());
+  }
+}
@@ -3,7 +3,10 @@ package neubert.tobias.cloud.config;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.cloud.config.server.EnableConfigServer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.web.filter.ShallowEtagHeaderFilter;
 
 
 @SpringBootApplication
@@ -12,4 +15,15 @@ public class CloudConfigServer {
   public static void main(String[] args) {
     SpringApplication.run(CloudConfigServer.class, args);
   }
+
+  /**
+   * Answers conditional requests of the config clients for an unchanged environment with {@code 304 Not Modified}
+   * if the {@link EnvironmentCacheFilter} is switched off. Streamed responses, like the TLS bundles, are not
+   * buffered by the filter.
+   */
+  @Bean
+  @ConditionalOnProperty(name = "neubert.tobias.tls.config-server.cache.enabled", havingValue = "false")
+  public ShallowEtagHeaderFilter shallowEtagHeaderFilter() {
+    return new ShallowEtagHeaderFilter();
+  }
 }
@@ -0,0 +1,38 @@
+package neubert.tobias.cloud.config;
+
+import neubert.tobias.spring.tls.watcher.TlsMaterialWatcher;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.io.Resource;
+import org.springframework.web.servlet.handler.HandlerMappingIntrospector;
+
+import java.io.IOException;
+import java.time.Duration;
+
+
+@Configuration
+@ConditionalOnProperty(
+  name = "neubert.tobias.tls.config-server.cache.enabled",
+  havingValue = "true",
+  matchIfMissing = true)
+public class EnvironmentCacheConfig {
+  @Bean
+  public EnvironmentCacheProperties environmentCacheProperties(
+    @Value("${spring.cloud.config.server.native.search-locations:}") Resource[] searchLocations,
+    @Value("${neubert.tobias.tls.config-server.cache.time-to-live:10m}") Duration timeToLive,
+    @Value("${neubert.tobias.tls.config-server.cache.max-entries:1000}") int maxEntries)
+  {
+    return new EnvironmentCacheProperties(searchLocations, timeToLive, maxEntries);
+  }
+
+  @Bean
+  public EnvironmentCacheFilter environmentCacheFilter(
+    EnvironmentCacheProperties cacheProperties,
+    HandlerMappingIntrospector handlerMappingIntrospector,
+    TlsMaterialWatcher tlsMaterialWatcher) throws IOException
+  {
+    return new EnvironmentCacheFilter(cacheProperties, handlerMappingIntrospector, tlsMaterialWatcher);
+  }
+}
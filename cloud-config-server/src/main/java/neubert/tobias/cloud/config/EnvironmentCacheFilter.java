@@ -0,0 +1,328 @@
+package neubert.tobias.cloud.config;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import neubert.tobias.spring.tls.watcher.TlsMaterialWatcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cloud.config.server.environment.EnvironmentController;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerExecutionChain;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.servlet.handler.HandlerMappingIntrospector;
+import org.springframework.web.util.ContentCachingResponseWrapper;
+import org.springframework.web.util.ServletRequestPathUtils;
+import org.springframework.web.util.UrlPathHelper;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+
+/**
+ * Caches the rendered environments of the config server, keyed by the path, that is application, profile and
+ * label, the query and the accepted media types. Only requests for {@code /{application}/{profile}[/{label}]} that
+ * the handler mappings pass to the {@link EnvironmentController} are cached, so neither the actuator nor streams
+ * like the TLS bundles are ever buffered. Concurrent requests for an environment that is not cached wait
+ * for the one request that renders it. The ETag of every environment is computed once, so a conditional request of
+ * a config client for an unchanged environment is answered with {@code 304 Not Modified} without any rendering.
+ * <p>
+ * All files of the search locations are watched by the {@link TlsMaterialWatcher}, any change evicts all
+ * environments. The files are listed once at startup, environments are evicted after the time to live anyway.
+ * Environments that are not cached, since the cache is full, are rendered on every request but get an ETag as well.
+ */
+public class EnvironmentCacheFilter extends OncePerRequestFilter {
+  private static final Logger LOGGER = LoggerFactory.getLogger(EnvironmentCacheFilter.class);
+
+  private final EnvironmentCacheProperties cacheProperties;
+  private final HandlerMappingIntrospector handlerMappingIntrospector;
+  private final Map<String, CompletableFuture<Rendered>> environments = new ConcurrentHashMap<>();
+  private final AtomicLong generation = new AtomicLong();
+  private final UrlPathHelper urlPathHelper = new UrlPathHelper();
+
+  public EnvironmentCacheFilter(
+    EnvironmentCacheProperties cacheProperties,
+    HandlerMappingIntrospector handlerMappingIntrospector,
+    TlsMaterialWatcher tlsMaterialWatcher) throws IOException
+  {
+    this.cacheProperties = cacheProperties;
+    this.handlerMappingIntrospector = handlerMappingIntrospector;
+
+    List<Path> files = filesOf(cacheProperties.searchLocations());
+    if (!files.isEmpty()) {
+      tlsMaterialWatcher.subscribe("config-environments", files, this::evictAll);
+    }
+    LOGGER.info("Caching the rendered environments, watching {} file(s) of the search locations", files.size());
+  }
+
+  public void evictAll() {
+    generation.incrementAndGet();
+    int evicted = environments.size();
+    environments.clear();
+    LOGGER.info("The search locations changed, evicted {} rendered environment(s)", evicted);
+  }
+
+  @Override
+  protected boolean shouldNotFilter(HttpServletRequest request) {
+    if (!HttpMethod.GET.matches(request.getMethod())) {
+      return true;
+    }
+
+    String[] segments = urlPathHelper.getPathWithinApplication(request).substring(1).split("/", -1);
+    return segments.length < 2 || segments.length > 3 || Arrays.asList(segments).contains("");
+  }
+
+  @Override
+  protected void doFilterInternal(
+    HttpServletRequest request,
+    HttpServletResponse response,
+    FilterChain filterChain) throws ServletException, IOException
+  {
+    String key = urlPathHelper.getPathWithinApplication(request)
+      + "?" + request.getQueryString()
+      + " " + request.getHeader(HttpHeaders.ACCEPT);
+
+    Rendered rendered = null;
+    while (rendered == null) {
+      CompletableFuture<Rendered> cached = environments.get(key);
+      if (cached == null) {
+        if (isEnvironmentRequest(request)) {
+          renderAndCache(key, request, response, filterChain);
+        }
+        else {
+          filterChain.doFilter(request, response);
+        }
+        return;
+      }
+
+      rendered = cached.exceptionally(e -> null).join();
+      if (rendered == null) {
+        renderUncached(request, response, filterChain);
+        return;
+      }
+      if (rendered.isExpired()) {
+        environments.remove(key, cached);
+        rendered = null;
+      }
+    }
+
+    write(rendered, request, response);
+  }
+
+  /**
+   * Asks the handler mappings in the order of the dispatcher servlet which handler serves the request. Only
+   * environments that have not been cached yet are looked up, the attributes of the lookup are discarded.
+   */
+  private boolean isEnvironmentRequest(HttpServletRequest request) {
+    HttpServletRequest lookupRequest = new LookupRequest(request);
+    ServletRequestPathUtils.parseAndCache(lookupRequest);
+    try {
+      for (HandlerMapping handlerMapping : handlerMappingIntrospector.getHandlerMappings()) {
+        HandlerExecutionChain handler = handlerMapping.getHandler(lookupRequest);
+        if (handler != null) {
+          return handler.getHandler() instanceof HandlerMethod handlerMethod
+            && EnvironmentController.class.isAssignableFrom(handlerMethod.getBeanType());
+        }
+      }
+    }
+    catch (Exception e) {
+      LOGGER.debug("No handler found for {}, the response is not cached", request.getRequestURI(), e);
+    }
+
+    return false;
+  }
+
+  /**
+   * Renders the environment unless another request has started to render it in the meantime. The rendered
+   * environment is only kept if it has been rendered successfully and no file changed while rendering.
+   */
+  private void renderAndCache(
+    String key,
+    HttpServletRequest request,
+    HttpServletResponse response,
+    FilterChain filterChain) throws ServletException, IOException
+  {
+    if (environments.size() >= cacheProperties.maxEntries()) {
+      evictExpired();
+    }
+    if (environments.size() >= cacheProperties.maxEntries()) {
+      renderUncached(request, response, filterChain);
+      return;
+    }
+    CompletableFuture<Rendered> rendering = new CompletableFuture<>();
+    if (environments.putIfAbsent(key, rendering) != null) {
+      doFilterInternal(request, response, filterChain);
+      return;
+    }
+
+    long renderedGeneration = generation.get();
+    ContentCachingResponseWrapper responseWrapper = new ContentCachingResponseWrapper(response);
+    try {
+      filterChain.doFilter(request, responseWrapper);
+    }
+    catch (IOException | ServletException | RuntimeException e) {
+      environments.remove(key, rendering);
+      rendering.complete(null);
+      throw e;
+    }
+
+    if (responseWrapper.getStatus() != HttpServletResponse.SC_OK || request.isAsyncStarted()) {
+      environments.remove(key, rendering);
+      rendering.complete(null);
+      responseWrapper.copyBodyToResponse();
+      return;
+    }
+
+    Rendered rendered = rendered(responseWrapper);
+    rendering.complete(rendered);
+    if (generation.get() != renderedGeneration) {
+      environments.remove(key, rendering);
+    }
+
+    responseWrapper.resetBuffer();
+    write(rendered, request, responseWrapper);
+    responseWrapper.copyBodyToResponse();
+  }
+
+  private void renderUncached(
+    HttpServletRequest request,
+    HttpServletResponse response,
+    FilterChain filterChain) throws ServletException, IOException
+  {
+    ContentCachingResponseWrapper responseWrapper = new ContentCachingResponseWrapper(response);
+    filterChain.doFilter(request, responseWrapper);
+
+    if (responseWrapper.getStatus() == HttpServletResponse.SC_OK && !request.isAsyncStarted()) {
+      Rendered rendered = rendered(responseWrapper);
+      responseWrapper.resetBuffer();
+      write(rendered, request, responseWrapper);
+    }
+    responseWrapper.copyBodyToResponse();
+  }
+
+  /**
+   * Expired environments are only replaced when they are requested again, so they are swept out once the cache
+   * is full.
+   */
+  private void evictExpired() {
+    environments.values().removeIf(rendering -> {
+      Rendered rendered = rendering.getNow(null);
+      return rendered != null && rendered.isExpired();
+    });
+  }
+
+  private Rendered rendered(ContentCachingResponseWrapper responseWrapper) {
+    byte[] body = responseWrapper.getContentAsByteArray();
+    HttpHeaders headers = new HttpHeaders();
+    for (String name : responseWrapper.getHeaderNames()) {
+      if (!HttpHeaders.CONTENT_TYPE.equalsIgnoreCase(name)
+        && !HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(name)
+        && !headers.containsKey(name))
+      {
+        headers.addAll(name, List.copyOf(responseWrapper.getHeaders(name)));
+      }
+    }
+
+    return new Rendered(
+      responseWrapper.getContentType(),
+      headers,
+      body,
+      etag(body),
+      System.nanoTime() + cacheProperties.timeToLive().toNanos());
+  }
+
+  private static void write(
+    Rendered rendered,
+    HttpServletRequest request,
+    HttpServletResponse response) throws IOException
+  {
+    rendered.headers().forEach((name, values) -> {
+      response.setHeader(name, values.get(0));
+      values.stream().skip(1).forEach(value -> response.addHeader(name, value));
+    });
+    if (new ServletWebRequest(request, response).checkNotModified(rendered.etag())) {
+      return;
+    }
+
+    response.setContentType(rendered.contentType());
+    response.setContentLength(rendered.body().length);
+    response.getOutputStream().write(rendered.body());
+  }
+
+  private static String etag(byte[] body) {
+    try {
+      return "\"" + HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(body), 0, 16) + "\"";
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static List<Path> filesOf(Resource[] searchLocations) {
+    List<Path> files = new ArrayList<>();
+    for (Resource searchLocation : searchLocations) {
+      try (Stream<Path> paths = Files.walk(TlsMaterialWatcher.pathOf(searchLocation))) {
+        paths.filter(Files::isRegularFile).sorted().forEach(files::add);
+      }
+      catch (IOException e) {
+        LOGGER.warn(
+          "Cannot watch the search location {}, its environments are evicted after the time to live",
+          searchLocation);
+      }
+    }
+
+    return files;
+  }
+
+  private record Rendered(String contentType, HttpHeaders headers, byte[] body, String etag, long expiresAt) {
+    boolean isExpired() {
+      return System.nanoTime() - expiresAt >= 0;
+    }
+  }
+
+  /**
+   * Keeps the attributes that the handler mappings set during the lookup away from the request.
+   */
+  private static final class LookupRequest extends HttpServletRequestWrapper {
+    private final Map<String, Object> attributes = new HashMap<>();
+
+    private LookupRequest(HttpServletRequest request) {
+      super(request);
+    }
+
+    @Override
+    public Object getAttribute(String name) {
+      return attributes.containsKey(name) ? attributes.get(name) : super.getAttribute(name);
+    }
+
+    @Override
+    public void setAttribute(String name, Object value) {
+      attributes.put(name, value);
+    }
+
+    @Override
+    public void removeAttribute(String name) {
+      attributes.put(name, null);
+    }
+  }
+}
@@ -0,0 +1,19 @@
+package neubert.tobias.cloud.config;
+
+import org.springframework.core.io.Resource;
+
+import java.time.Duration;
+
+
+/**
+ * @param searchLocations the files of these locations are watched, a change evicts all cached environments
+ * @param timeToLive evicts an environment in any case, since files that are added to the search locations are
+ *                   not watched
+ * @param maxEntries environments beyond this number are rendered on every request
+ */
+public record EnvironmentCacheProperties(
+  Resource[] searchLocations,
+  Duration timeToLive,
+  int maxEntries)
+{
+}
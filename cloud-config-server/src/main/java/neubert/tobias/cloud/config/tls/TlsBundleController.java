@@ -0,0 +1,67 @@
+package neubert.tobias.cloud.config.tls;
+
+import javax.servlet.http.HttpServletRequest;
+import neubert.tobias.spring.tls.watcher.CertificateNames;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.security.cert.X509Certificate;
+import java.util.Locale;
+
+
+/**
+ * Not a {@code @Controller}, which would be picked up by the component scan, it is only set up by the
+ * {@link TlsDistributionConfig}.
+ */
+@RequestMapping("/tls/bundles")
+public class TlsBundleController {
+  private static final Logger LOGGER = LoggerFactory.getLogger(TlsBundleController.class);
+  private static final String PEER_CERTIFICATES = "javax.servlet.request.X509Certificate";
+
+  private final TlsBundlePublisher tlsBundlePublisher;
+
+  public TlsBundleController(TlsBundlePublisher tlsBundlePublisher) {
+    this.tlsBundlePublisher = tlsBundlePublisher;
+  }
+
+  /**
+   * Streams every version of the bundle as a server-sent event. The current version is sent right away, unless
+   * the client reconnects with the version it already has as {@code Last-Event-ID}.
+   * <p>
+   * A bundle contains private keys, so it is only streamed to a client whose certificate is issued for the name of
+   * the bundle. Every other client gets {@code 403 Forbidden}.
+   */
+  @GetMapping(path = "/{name}", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+  public ResponseEntity<SseEmitter> bundle(
+    @PathVariable String name,
+    @RequestHeader(name = "Last-Event-ID", required = false) String lastVersion,
+    HttpServletRequest request)
+  {
+    X509Certificate[] peerCertificates = (X509Certificate[]) request.getAttribute(PEER_CERTIFICATES);
+    if (!isIssuedFor(peerCertificates, name)) {
+      LOGGER.warn("A client of {} is not allowed to subscribe to the TLS bundle {}", request.getRemoteAddr(), name);
+      return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+    }
+
+    return tlsBundlePublisher.subscribe(name, lastVersion)
+      .map(ResponseEntity::ok)
+      .orElseGet(() -> ResponseEntity.notFound().build());
+  }
+
+  /**
+   * @return true if the DNS names of the leaf or, if it has none, its common name contain the name of the bundle
+   */
+  private static boolean isIssuedFor(X509Certificate[] peerCertificates, String bundle) {
+    return peerCertificates != null
+      && peerCertificates.length > 0
+      && CertificateNames.of(peerCertificates[0]).contains(bundle.toLowerCase(Locale.ROOT));
+  }
+}
@@ -0,0 +1,195 @@
+package neubert.tobias.cloud.config.tls;
+
+import neubert.tobias.spring.tls.watcher.TlsBundle;
+import neubert.tobias.spring.tls.watcher.TlsMaterialWatcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static neubert.tobias.spring.tls.watcher.TlsMaterialWatcher.pathOf;
+
+
+/**
+ * Publishes the files of every subdirectory of the distribution directory as a {@link TlsBundle} to the
+ * subscribed clients. The files are watched by the {@link TlsMaterialWatcher}, so a rotation reaches every
+ * connected client as soon as it is written here, instead of being copied to every node and waiting for the
+ * watcher of every node.
+ * <p>
+ * The directory is read once at startup, adding or removing a bundle or a file of a bundle needs a restart.
+ */
+public class TlsBundlePublisher implements DisposableBean {
+  private static final Logger LOGGER = LoggerFactory.getLogger(TlsBundlePublisher.class);
+  private static final String EVENT_NAME = "tls-bundle";
+
+  private final TlsMaterialWatcher tlsMaterialWatcher;
+  private final TlsDistributionProperties distributionProperties;
+  private final Map<String, PublishedBundle> bundles = new TreeMap<>();
+  private final List<TlsMaterialWatcher.Subscription> subscriptions = new ArrayList<>();
+  private final ScheduledExecutorService heartbeat;
+
+  public TlsBundlePublisher(
+    TlsDistributionProperties distributionProperties,
+    TlsMaterialWatcher tlsMaterialWatcher) throws IOException
+  {
+    this.distributionProperties = distributionProperties;
+    this.tlsMaterialWatcher = tlsMaterialWatcher;
+
+    for (Path directory : bundleDirectories(pathOf(distributionProperties.directoryResource()))) {
+      List<Path> files = filesOf(directory);
+      if (files.isEmpty()) {
+        LOGGER.warn("The TLS bundle {} has no files, it is ignored", directory.getFileName());
+        continue;
+      }
+
+      PublishedBundle bundle = new PublishedBundle(String.valueOf(directory.getFileName()), files);
+      bundle.current = bundleOf(files);
+      subscriptions.add(
+        tlsMaterialWatcher.subscribe("tls-bundle-" + bundle.name, files, () -> updateBundle(bundle)));
+      bundles.put(bundle.name, bundle);
+      LOGGER.info("Publishing the TLS bundle {} in version {}", bundle.name, bundle.current.version());
+    }
+
+    this.heartbeat = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "tls-bundle-heartbeat");
+      thread.setDaemon(true);
+      return thread;
+    });
+    long interval = distributionProperties.heartbeatInterval().toMillis();
+    heartbeat.scheduleWithFixedDelay(this::sendHeartbeats, interval, interval, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * @param lastVersion the version the client already has, if any
+   * @return a stream of the bundle, empty if there is no bundle with the given name
+   */
+  public Optional<SseEmitter> subscribe(String name, String lastVersion) {
+    PublishedBundle bundle = bundles.get(name);
+    if (bundle == null) {
+      return Optional.empty();
+    }
+
+    SseEmitter emitter = new SseEmitter(distributionProperties.streamTimeout().toMillis());
+    emitter.onCompletion(() -> bundle.emitters.remove(emitter));
+    emitter.onTimeout(emitter::complete);
+    emitter.onError(e -> bundle.emitters.remove(emitter));
+
+    synchronized (bundle) {
+      bundle.emitters.add(emitter);
+      if (!bundle.current.version().equals(lastVersion)) {
+        send(emitter, bundle.current);
+      }
+    }
+
+    return Optional.of(emitter);
+  }
+
+  public void stop() {
+    LOGGER.info("Stopping to publish the TLS bundles");
+    subscriptions.forEach(TlsMaterialWatcher.Subscription::cancel);
+    heartbeat.shutdownNow();
+    bundles.values().forEach(bundle -> bundle.emitters.forEach(SseEmitter::complete));
+  }
+
+  @Override
+  public void destroy() throws Exception {
+    stop();
+  }
+
+  /**
+   * Sending under the lock of the bundle makes sure that no client receives an older version after a newer one.
+   */
+  private void updateBundle(PublishedBundle bundle) {
+    TlsBundle newBundle = bundleOf(bundle.files);
+    int subscribers;
+    synchronized (bundle) {
+      if (newBundle.version().equals(bundle.current.version())) {
+        return;
+      }
+      bundle.current = newBundle;
+      bundle.emitters.removeIf(emitter -> !send(emitter, newBundle));
+      subscribers = bundle.emitters.size();
+    }
+
+    LOGGER.info(
+      "Pushed version {} of the TLS bundle {} to {} client(s)",
+      newBundle.version(),
+      bundle.name,
+      subscribers);
+  }
+
+  private void sendHeartbeats() {
+    for (PublishedBundle bundle : bundles.values()) {
+      synchronized (bundle) {
+        bundle.emitters.removeIf(emitter -> !send(emitter, SseEmitter.event().comment("heartbeat")));
+      }
+    }
+  }
+
+  private TlsBundle bundleOf(List<Path> files) {
+    Map<String, byte[]> contents = new LinkedHashMap<>();
+    for (Path file : files) {
+      contents.put(String.valueOf(file.getFileName()), tlsMaterialWatcher.rawMaterial(file));
+    }
+
+    return TlsBundle.of(contents);
+  }
+
+  private static boolean send(SseEmitter emitter, TlsBundle bundle) {
+    return send(
+      emitter,
+      SseEmitter.event().id(bundle.version()).name(EVENT_NAME).data(bundle, MediaType.APPLICATION_JSON));
+  }
+
+  private static boolean send(SseEmitter emitter, SseEmitter.SseEventBuilder event) {
+    try {
+      emitter.send(event);
+      return true;
+    }
+    catch (IOException | IllegalStateException e) {
+      LOGGER.debug("Cannot send to a client of the TLS bundles: {}", e.getMessage());
+      emitter.completeWithError(e);
+      return false;
+    }
+  }
+
+  private static List<Path> bundleDirectories(Path directory) throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files.filter(Files::isDirectory).sorted().toList();
+    }
+  }
+
+  private static List<Path> filesOf(Path directory) throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files.filter(Files::isRegularFile).sorted().toList();
+    }
+  }
+
+  private static final class PublishedBundle {
+    private final String name;
+    private final List<Path> files;
+    private final List<SseEmitter> emitters = new CopyOnWriteArrayList<>();
+    private volatile TlsBundle current;
+
+    private PublishedBundle(String name, List<Path> files) {
+      this.name = name;
+      this.files = files;
+    }
+  }
+}
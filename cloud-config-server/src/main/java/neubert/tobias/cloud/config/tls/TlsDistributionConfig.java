@@ -0,0 +1,50 @@
+package neubert.tobias.cloud.config.tls;
+
+import neubert.tobias.jetty.tls.ClientAuthProperties;
+import neubert.tobias.spring.tls.watcher.TlsMaterialWatcher;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.io.Resource;
+
+import java.io.IOException;
+import java.time.Duration;
+
+
+@Configuration
+@ConditionalOnProperty("neubert.tobias.tls.distribution.directory-resource")
+public class TlsDistributionConfig {
+  @Bean
+  public TlsDistributionProperties tlsDistributionProperties(
+    @Value("${neubert.tobias.tls.distribution.directory-resource}") Resource directoryResource,
+    @Value("${neubert.tobias.tls.distribution.stream-timeout:30m}") Duration streamTimeout,
+    @Value("${neubert.tobias.tls.distribution.heartbeat-interval:15s}") Duration heartbeatInterval)
+  {
+    return new TlsDistributionProperties(directoryResource, streamTimeout, heartbeatInterval);
+  }
+
+  /**
+   * The bundles contain private keys, so they are only published if every client has to authenticate with its
+   * certificate.
+   */
+  @Bean
+  public TlsBundlePublisher tlsBundlePublisher(
+    TlsDistributionProperties distributionProperties,
+    ClientAuthProperties clientAuthProperties,
+    TlsMaterialWatcher tlsMaterialWatcher) throws IOException
+  {
+    if (clientAuthProperties.mode() != ClientAuthProperties.Mode.NEED) {
+      throw new IllegalStateException(
+        "The TLS bundles are only published with neubert.tobias.tls.client-auth.mode=need, not with " +
+        clientAuthProperties.mode().name().toLowerCase());
+    }
+
+    return new TlsBundlePublisher(distributionProperties, tlsMaterialWatcher);
+  }
+
+  @Bean
+  public TlsBundleController tlsBundleController(TlsBundlePublisher tlsBundlePublisher) {
+    return new TlsBundleController(tlsBundlePublisher);
+  }
+}
@@ -0,0 +1,18 @@
+package neubert.tobias.cloud.config.tls;
+
+import org.springframework.core.io.Resource;
+
+import java.time.Duration;
+
+
+/**
+ * @param directoryResource every subdirectory is a bundle named like the directory
+ * @param streamTimeout after this time a stream is closed and the client reconnects
+ * @param heartbeatInterval the interval of the comments that keep idle streams open
+ */
+public record TlsDistributionProperties(
+  Resource directoryResource,
+  Duration streamTimeout,
+  Duration heartbeatInterval)
+{
+}
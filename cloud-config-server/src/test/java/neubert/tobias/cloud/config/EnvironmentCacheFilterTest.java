@@ -0,0 +1,211 @@
+package neubert.tobias.cloud.config;
+
+import javax.servlet.FilterChain;
+import javax.servlet.http.HttpServletResponse;
+import neubert.tobias.spring.tls.watcher.TlsMaterialWatcher;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.config.server.environment.EnvironmentController;
+import org.springframework.cloud.config.server.environment.EnvironmentRepository;
+import org.springframework.context.support.StaticApplicationContext;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerExecutionChain;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.servlet.handler.HandlerMappingIntrospector;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+
+class EnvironmentCacheFilterTest {
+  private final AtomicInteger renders = new AtomicInteger();
+  private final FilterChain renderingChain = (request, response) -> {
+    renders.incrementAndGet();
+    ((HttpServletResponse) response).addHeader("X-Environment-Version", "1");
+    response.setContentType("application/json");
+    response.getWriter().write("{\"name\":\"" + ((MockHttpServletRequest) request).getRequestURI() + "\"}");
+  };
+
+  private TlsMaterialWatcher watcher;
+  private HandlerMappingIntrospector handlerMappingIntrospector;
+
+  @BeforeEach
+  void startWatcher() throws Exception {
+    watcher = new TlsMaterialWatcher(Duration.ofMillis(50), Duration.ofSeconds(10));
+    handlerMappingIntrospector = handlerMappingIntrospector();
+  }
+
+  @AfterEach
+  void stopWatcher() {
+    watcher.stop();
+  }
+
+  @Test
+  void servesACachedEnvironmentWithItsEtag() throws Exception {
+    EnvironmentCacheFilter filter = filter(Duration.ofMinutes(10), 10);
+
+    MockHttpServletResponse first = get(filter, "/hello-world/default", null, renderingChain);
+    MockHttpServletResponse second = get(filter, "/hello-world/default", null, renderingChain);
+
+    assertThat(renders).hasValue(1);
+    assertThat(second.getStatus()).isEqualTo(200);
+    assertThat(second.getContentAsString()).isEqualTo(first.getContentAsString()).contains("hello-world");
+    assertThat(second.getHeader(HttpHeaders.ETAG)).isNotBlank().isEqualTo(first.getHeader(HttpHeaders.ETAG));
+    assertThat(second.getHeader("X-Environment-Version")).isEqualTo("1");
+  }
+
+  @Test
+  void passesEverythingButEnvironmentsThrough() throws Exception {
+    EnvironmentCacheFilter filter = filter(Duration.ofMinutes(10), 10);
+
+    for (String uri : List.of("/actuator/health", "/hello-world", "/hello-world/default/main/application.yml")) {
+      assertThat(get(filter, uri, null, renderingChain).getHeader(HttpHeaders.ETAG)).isNull();
+      assertThat(get(filter, uri, null, renderingChain).getHeader(HttpHeaders.ETAG)).isNull();
+    }
+
+    assertThat(renders).hasValue(6);
+  }
+
+  @Test
+  void answersAnUnchangedEnvironmentWithNotModified() throws Exception {
+    EnvironmentCacheFilter filter = filter(Duration.ofMinutes(10), 10);
+    String etag = get(filter, "/hello-world/default", null, renderingChain).getHeader(HttpHeaders.ETAG);
+
+    MockHttpServletResponse response = get(filter, "/hello-world/default", etag, renderingChain);
+
+    assertThat(renders).hasValue(1);
+    assertThat(response.getStatus()).isEqualTo(304);
+    assertThat(response.getContentAsByteArray()).isEmpty();
+  }
+
+  @Test
+  void rendersConcurrentMissesOnce() throws Exception {
+    EnvironmentCacheFilter filter = filter(Duration.ofMinutes(10), 10);
+    CountDownLatch renderingStarted = new CountDownLatch(1);
+    CountDownLatch renderingReleased = new CountDownLatch(1);
+    FilterChain slowChain = (request, response) -> {
+      renderingStarted.countDown();
+      try {
+        renderingReleased.await(5, TimeUnit.SECONDS);
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      renderingChain.doFilter(request, response);
+    };
+
+    CompletableFuture<MockHttpServletResponse> first =
+      CompletableFuture.supplyAsync(() -> getUnchecked(filter, "/hello-world/default", slowChain));
+    assertThat(renderingStarted.await(5, TimeUnit.SECONDS)).isTrue();
+    CompletableFuture<MockHttpServletResponse> second =
+      CompletableFuture.supplyAsync(() -> getUnchecked(filter, "/hello-world/default", slowChain));
+    Thread.sleep(100);
+    renderingReleased.countDown();
+
+    assertThat(second.get(5, TimeUnit.SECONDS).getContentAsString())
+      .isEqualTo(first.get(5, TimeUnit.SECONDS).getContentAsString());
+    assertThat(renders).hasValue(1);
+  }
+
+  @Test
+  void rendersAgainAfterAChangeOfTheSearchLocations() throws Exception {
+    EnvironmentCacheFilter filter = filter(Duration.ofMinutes(10), 10);
+    get(filter, "/hello-world/default", null, renderingChain);
+
+    filter.evictAll();
+    get(filter, "/hello-world/default", null, renderingChain);
+
+    assertThat(renders).hasValue(2);
+  }
+
+  @Test
+  void keepsTheEtagOfEnvironmentsThatDoNotFitIntoTheCache() throws Exception {
+    EnvironmentCacheFilter filter = filter(Duration.ofMinutes(10), 1);
+    get(filter, "/hello-world/default", null, renderingChain);
+
+    String etag = get(filter, "/message-service/default", null, renderingChain).getHeader(HttpHeaders.ETAG);
+    MockHttpServletResponse response = get(filter, "/message-service/default", etag, renderingChain);
+
+    assertThat(etag).isNotBlank();
+    assertThat(response.getStatus()).isEqualTo(304);
+    assertThat(renders).hasValue(3);
+  }
+
+  @Test
+  void sweepsExpiredEnvironmentsOutOfAFullCache() throws Exception {
+    EnvironmentCacheFilter filter = filter(Duration.ofMillis(50), 1);
+    get(filter, "/hello-world/default", null, renderingChain);
+    Thread.sleep(100);
+
+    get(filter, "/message-service/default", null, renderingChain);
+    get(filter, "/message-service/default", null, renderingChain);
+
+    assertThat(renders).hasValue(2);
+  }
+
+  private EnvironmentCacheFilter filter(Duration timeToLive, int maxEntries) throws Exception {
+    return new EnvironmentCacheFilter(
+      new EnvironmentCacheProperties(new Resource[0], timeToLive, maxEntries),
+      handlerMappingIntrospector,
+      watcher);
+  }
+
+  /**
+   * Like the actuator, the handler mapping for {@code /actuator/**} comes before the {@link EnvironmentController}.
+   */
+  private static HandlerMappingIntrospector handlerMappingIntrospector() throws Exception {
+    HandlerMethod environmentHandler = new HandlerMethod(
+      new EnvironmentController(mock(EnvironmentRepository.class)),
+      EnvironmentController.class.getMethod("defaultLabel", String.class, String.class));
+    StaticApplicationContext context = new StaticApplicationContext();
+    context.registerBean(
+      HandlerMapping.class,
+      () -> request -> new HandlerExecutionChain(
+        request.getRequestURI().startsWith("/actuator/") ? new Object() : environmentHandler));
+    context.refresh();
+
+    HandlerMappingIntrospector handlerMappingIntrospector = new HandlerMappingIntrospector();
+    handlerMappingIntrospector.setApplicationContext(context);
+    handlerMappingIntrospector.afterPropertiesSet();
+
+    return handlerMappingIntrospector;
+  }
+
+  private static MockHttpServletResponse getUnchecked(EnvironmentCacheFilter filter, String uri, FilterChain chain) {
+    try {
+      return get(filter, uri, null, chain);
+    }
+    catch (Exception e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static MockHttpServletResponse get(
+    EnvironmentCacheFilter filter,
+    String uri,
+    String ifNoneMatch,
+    FilterChain chain) throws Exception
+  {
+    MockHttpServletRequest request = new MockHttpServletRequest("GET", uri);
+    request.addHeader(HttpHeaders.ACCEPT, "application/json");
+    if (ifNoneMatch != null) {
+      request.addHeader(HttpHeaders.IF_NONE_MATCH, ifNoneMatch);
+    }
+    MockHttpServletResponse response = new MockHttpServletResponse();
+    filter.doFilter(request, response, chain);
+
+    return response;
+  }
+}
@@ -0,0 +1,168 @@
+package neubert.tobias.cloud.config.tls;
+
+import javax.net.ssl.X509ExtendedTrustManager;
+import neubert.tobias.cloud.config.CloudConfigServer;
+import neubert.tobias.spring.cloud.config.client.tls.TlsBundleSubscriber;
+import neubert.tobias.spring.cloud.config.client.tls.TlsPushProperties;
+import neubert.tobias.spring.tls.watcher.JsseProvider;
+import neubert.tobias.spring.tls.watcher.TlsMaterialWatcher;
+import neubert.tobias.spring.web.tls.DynamicTlsClientHttpConnector;
+import neubert.tobias.spring.web.tls.TlsWebClientProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.cloud.config.client.ConfigClientProperties;
+import org.springframework.core.env.StandardEnvironment;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.Resource;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+
+/**
+ * The config server publishes the bundle {@code hello-world}, which contains a trust file. The client
+ * authenticates with a certificate that is issued for {@code hello-world} and receives the bundle into its push
+ * directory, so its watcher swaps the trust without a file being written on the client.
+ */
+@SpringBootTest(
+  classes = CloudConfigServer.class,
+  webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+  properties = {
+    "neubert.tobias.tls.client-auth.mode=need",
+    "neubert.tobias.tls.trust-resource=classpath:tls/clients-trust.pem",
+    "neubert.tobias.tls.watcher.debounce=50ms"
+  })
+class TlsBundleDistributionTest {
+  private static final Duration TIMEOUT = Duration.ofSeconds(10);
+  private static final Path SERVER_CERTIFICATE = pathOf(new ClassPathResource("tls/certificate.pem"));
+  private static final Path HELLO_WORLD_CERTIFICATE = pathOf(new ClassPathResource("tls/hello-world-certificate.pem"));
+  private static final Path OTHER_CERTIFICATE = pathOf(new ClassPathResource("tls/other-certificate.pem"));
+
+  private static Path bundleDirectory;
+
+  @LocalServerPort
+  private int port;
+
+  private Path pushDirectory;
+  private TlsMaterialWatcher clientWatcher;
+
+  @DynamicPropertySource
+  static void distributionDirectory(DynamicPropertyRegistry registry) throws IOException {
+    Path distributionDirectory = Files.createTempDirectory("tls-distribution");
+    bundleDirectory = Files.createDirectory(distributionDirectory.resolve("hello-world"));
+    Files.copy(SERVER_CERTIFICATE, bundleDirectory.resolve("trust.pem"));
+
+    registry.add(
+      "neubert.tobias.tls.distribution.directory-resource",
+      () -> distributionDirectory.toUri().toString());
+  }
+
+  @BeforeEach
+  void startClientWatcher() throws IOException {
+    Files.copy(SERVER_CERTIFICATE, bundleDirectory.resolve("trust.pem"), REPLACE_EXISTING);
+    pushDirectory = Files.createTempDirectory("tls-push");
+    Files.copy(HELLO_WORLD_CERTIFICATE, pushDirectory.resolve("trust.pem"));
+    clientWatcher = new TlsMaterialWatcher(Duration.ofMillis(50), Duration.ofSeconds(10));
+  }
+
+  @AfterEach
+  void stopClientWatcher() {
+    clientWatcher.stop();
+  }
+
+  @Test
+  void pushesEveryVersionOfTheBundleToTheClient() throws Exception {
+    Path pushedTrust = pushDirectory.resolve("trust.pem");
+    AtomicInteger swaps = new AtomicInteger();
+    clientWatcher.subscribe("test", clientWatcher.trustPaths(pushedTrust), swaps::incrementAndGet);
+
+    TlsBundleSubscriber subscriber = new TlsBundleSubscriber(
+      webClient("hello-world"),
+      configClientProperties(),
+      new TlsPushProperties("hello-world", pushDirectory, Duration.ofMillis(100), Duration.ofSeconds(1)),
+      clientWatcher);
+    try {
+      awaitTrust(pushedTrust, SERVER_CERTIFICATE);
+      assertThat(Files.readString(pushedTrust)).isEqualTo(Files.readString(HELLO_WORLD_CERTIFICATE));
+
+      Files.copy(OTHER_CERTIFICATE, bundleDirectory.resolve("trust.pem"), REPLACE_EXISTING);
+
+      awaitTrust(pushedTrust, OTHER_CERTIFICATE);
+      assertThat(swaps).hasValue(2);
+    }
+    finally {
+      subscriber.stop();
+    }
+  }
+
+  @Test
+  void refusesTheBundleToAClientWithAnotherCertificate() throws Exception {
+    WebClient webClient = webClient("other");
+
+    assertThatThrownBy(() -> webClient.get()
+        .uri("https://localhost:{port}/tls/bundles/{name}", port, "hello-world")
+        .retrieve()
+        .toBodilessEntity()
+        .block(TIMEOUT))
+      .isInstanceOf(WebClientResponseException.Forbidden.class);
+  }
+
+  private void awaitTrust(Path trustPath, Path expectedCertificate) throws Exception {
+    X509Certificate expected = trustedCertificate(expectedCertificate, clientWatcher);
+    long deadline = System.nanoTime() + TIMEOUT.toNanos();
+    while (!expected.equals(trustedCertificate(trustPath, clientWatcher))) {
+      assertThat(System.nanoTime()).as("trust of %s swapped in time", trustPath).isLessThan(deadline);
+      Thread.sleep(50);
+    }
+  }
+
+  private WebClient webClient(String identity) throws IOException {
+    DynamicTlsClientHttpConnector connector = new DynamicTlsClientHttpConnector(
+      new ClassPathResource("tls/certificate.pem"),
+      new ClassPathResource("tls/" + identity + "-certificate.pem"),
+      new ClassPathResource("tls/" + identity + "-private.key"),
+      new TlsWebClientProperties(4, Duration.ofMinutes(5), Duration.ofSeconds(30), Duration.ofSeconds(5)),
+      clientWatcher,
+      JsseProvider.of(JsseProvider.DEFAULT));
+
+    return WebClient.builder().clientConnector(connector).build();
+  }
+
+  private ConfigClientProperties configClientProperties() {
+    ConfigClientProperties clientProperties = new ConfigClientProperties(new StandardEnvironment());
+    clientProperties.setUri(new String[] {"https://localhost:" + port});
+
+    return clientProperties;
+  }
+
+  private static X509Certificate trustedCertificate(Path trustPath, TlsMaterialWatcher watcher) {
+    X509ExtendedTrustManager trustManager = watcher.trustMaterial(trustPath);
+    assertThat(trustManager.getAcceptedIssuers()).hasSize(1);
+
+    return trustManager.getAcceptedIssuers()[0];
+  }
+
+  private static Path pathOf(Resource resource) {
+    try {
+      return TlsMaterialWatcher.pathOf(resource);
+    }
+    catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -0,0 +1,46 @@
+package neubert.tobias.cloud.config.tls;
+
+import neubert.tobias.jetty.tls.ClientAuthProperties;
+import neubert.tobias.spring.tls.watcher.TlsMaterialWatcher;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.convert.ApplicationConversionService;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import org.springframework.core.convert.ConversionService;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+
+class TlsDistributionConfigTest {
+  @TempDir
+  Path distributionDirectory;
+
+  @Test
+  void publishesNoBundleWithoutMandatoryClientAuthentication() {
+    contextRunner(ClientAuthProperties.Mode.WANT).run(context -> assertThat(context)
+      .hasFailed()
+      .getFailure()
+      .hasRootCauseInstanceOf(IllegalStateException.class)
+      .hasStackTraceContaining("neubert.tobias.tls.client-auth.mode=need"));
+  }
+
+  @Test
+  void publishesTheBundlesWithMandatoryClientAuthentication() {
+    contextRunner(ClientAuthProperties.Mode.NEED).run(context -> assertThat(context)
+      .hasNotFailed()
+      .hasSingleBean(TlsBundlePublisher.class));
+  }
+
+  private ApplicationContextRunner contextRunner(ClientAuthProperties.Mode mode) {
+    return new ApplicationContextRunner()
+      .withUserConfiguration(TlsDistributionConfig.class)
+      .withBean("conversionService", ConversionService.class, ApplicationConversionService::getSharedInstance)
+      .withBean(ClientAuthProperties.class, () -> new ClientAuthProperties(mode, 1000, Duration.ofMinutes(10)))
+      .withBean(TlsMaterialWatcher.class, () -> mock(TlsMaterialWatcher.class))
+      .withPropertyValues("neubert.tobias.tls.distribution.directory-resource=" + distributionDirectory.toUri());
+  }
+}
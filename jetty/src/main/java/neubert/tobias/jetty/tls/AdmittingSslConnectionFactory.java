@@ -0,0 +1,155 @@
+package neubert.tobias.jetty.tls;
+
+import javax.net.ssl.SSLEngine;
+import org.eclipse.jetty.io.ByteBufferPool;
+import org.eclipse.jetty.io.EndPoint;
+import org.eclipse.jetty.io.ssl.SslConnection;
+import org.eclipse.jetty.io.ssl.SslHandshakeListener;
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.SslConnectionFactory;
+import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+
+
+/**
+ * Starts the TLS handshake of a connection only after the {@link HandshakeAdmission} has admitted it. The
+ * ClientHello is read before, to find out whether the client offers a session to resume. It is handed to the
+ * {@link SslConnection} once the handshake is admitted. A rejected connection is closed without any answer.
+ */
+public class AdmittingSslConnectionFactory extends SslConnectionFactory {
+  private static final Logger LOGGER = LoggerFactory.getLogger(AdmittingSslConnectionFactory.class);
+
+  private final HandshakeAdmission handshakeAdmission;
+
+  public AdmittingSslConnectionFactory(
+    SslContextFactory.Server sslContextFactory,
+    String nextProtocol,
+    HandshakeAdmission handshakeAdmission)
+  {
+    super(sslContextFactory, nextProtocol);
+    this.handshakeAdmission = handshakeAdmission;
+  }
+
+  @Override
+  protected SslConnection newSslConnection(Connector connector, EndPoint endPoint, SSLEngine engine) {
+    return new AdmittedSslConnection(
+      connector.getByteBufferPool(),
+      connector.getExecutor(),
+      endPoint,
+      engine,
+      isDirectBuffersForEncryption(),
+      isDirectBuffersForDecryption(),
+      handshakeAdmission);
+  }
+
+  private static final class AdmittedSslConnection extends SslConnection implements SslHandshakeListener {
+    private final HandshakeAdmission handshakeAdmission;
+
+    private ByteBuffer clientHello = BufferUtil.allocate(ClientHellos.MAX_RECORD_LENGTH);
+    private volatile HandshakeAdmission.Ticket ticket;
+    private volatile boolean admitted;
+    private long admittedAt;
+
+    private AdmittedSslConnection(
+      ByteBufferPool byteBufferPool,
+      Executor executor,
+      EndPoint endPoint,
+      SSLEngine sslEngine,
+      boolean useDirectBuffersForEncryption,
+      boolean useDirectBuffersForDecryption,
+      HandshakeAdmission handshakeAdmission)
+    {
+      super(
+        byteBufferPool,
+        executor,
+        endPoint,
+        sslEngine,
+        useDirectBuffersForEncryption,
+        useDirectBuffersForDecryption);
+      this.handshakeAdmission = handshakeAdmission;
+      addHandshakeListener(this);
+    }
+
+    /**
+     * Until the handshake is admitted the connection only reads the ClientHello. While it waits for admission
+     * nothing is read at all.
+     */
+    @Override
+    public void onFillable() {
+      if (admitted) {
+        super.onFillable();
+        return;
+      }
+
+      try {
+        if (getEndPoint().fill(clientHello) < 0) {
+          getEndPoint().close();
+          return;
+        }
+      }
+      catch (IOException e) {
+        LOGGER.debug("Cannot read the ClientHello: {}", e.getMessage());
+        getEndPoint().close();
+        return;
+      }
+
+      if (!ClientHellos.isComplete(clientHello) && BufferUtil.space(clientHello) > 0) {
+        fillInterested();
+        return;
+      }
+      ticket = handshakeAdmission.newTicket(ClientHellos.offersResumption(clientHello), this::admit, this::reject);
+      ticket.request();
+    }
+
+    @Override
+    public void onClose() {
+      releaseTicket();
+      super.onClose();
+    }
+
+    /**
+     * A resumed session keeps the creation time of the session it resumes, a new one has been created during the
+     * handshake.
+     */
+    @Override
+    public void handshakeSucceeded(Event event) {
+      HandshakeAdmission.Ticket currentTicket = ticket;
+      if (currentTicket != null && event.getSSLEngine().getSession().getCreationTime() >= admittedAt) {
+        currentTicket.fullHandshakeDone();
+      }
+      releaseTicket();
+    }
+
+    @Override
+    public void handshakeFailed(Event event, Throwable failure) {
+      releaseTicket();
+    }
+
+    private void admit() {
+      admittedAt = System.currentTimeMillis();
+      admitted = true;
+      onUpgradeTo(clientHello);
+      clientHello = null;
+      getExecutor().execute(super::onFillable);
+    }
+
+    private void reject() {
+      LOGGER.debug("Rejected the TLS handshake of {}", getEndPoint().getRemoteAddress());
+      clientHello = null;
+      getEndPoint().close();
+    }
+
+    private void releaseTicket() {
+      HandshakeAdmission.Ticket currentTicket = ticket;
+      if (currentTicket != null) {
+        currentTicket.release();
+      }
+    }
+  }
+}
@@ -0,0 +1,162 @@
+package neubert.tobias.jetty.tls;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.X509ExtendedTrustManager;
+import javax.net.ssl.X509TrustManager;
+import nl.altindag.ssl.util.TrustManagerUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.Socket;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Remembers the client certificates whose chains passed the PKIX validation of the current trust manager, keyed
+ * by the SHA-256 fingerprint of the leaf, so the same clients are not validated on every handshake. An entry
+ * expires after the ttl or with the leaf, whatever comes first, and at most {@code maxSize} entries are kept.
+ * <p>
+ * New trust has to be installed by {@link #swapTrustManager(X509TrustManager)}. The trust manager and its cache are
+ * published together, so a chain is never accepted from a cache that was filled by another trust, and a validation
+ * that still runs against the old trust ends up in the old cache, which is not read anymore. Server certificates
+ * are never cached.
+ */
+public class CachingClientTrustManager extends X509ExtendedTrustManager {
+  private static final Logger LOGGER = LoggerFactory.getLogger(CachingClientTrustManager.class);
+
+  private final int maxSize;
+  private final long ttlMillis;
+
+  private volatile Trust trust;
+
+  public CachingClientTrustManager(X509TrustManager trustManager, int maxSize, Duration ttl) {
+    this.trust = new Trust(trustManager);
+    this.maxSize = maxSize;
+    this.ttlMillis = ttl.toMillis();
+  }
+
+  public void swapTrustManager(X509TrustManager newTrustManager) {
+    trust = new Trust(newTrustManager);
+    LOGGER.debug("Trust swapped, the cache of validated client chains is cleared");
+  }
+
+  @Override
+  public void checkClientTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+    Trust current = trust;
+    String fingerprint = fingerprint(chain);
+    if (!isCached(current.validatedChains, fingerprint)) {
+      current.trustManager.checkClientTrusted(chain, authType);
+      cache(current.validatedChains, fingerprint, chain[0]);
+    }
+  }
+
+  @Override
+  public void checkClientTrusted(X509Certificate[] chain, String authType, Socket socket) throws CertificateException {
+    Trust current = trust;
+    String fingerprint = fingerprint(chain);
+    if (!isCached(current.validatedChains, fingerprint)) {
+      current.trustManager.checkClientTrusted(chain, authType, socket);
+      cache(current.validatedChains, fingerprint, chain[0]);
+    }
+  }
+
+  @Override
+  public void checkClientTrusted(X509Certificate[] chain, String authType, SSLEngine engine) throws CertificateException {
+    Trust current = trust;
+    String fingerprint = fingerprint(chain);
+    if (!isCached(current.validatedChains, fingerprint)) {
+      current.trustManager.checkClientTrusted(chain, authType, engine);
+      cache(current.validatedChains, fingerprint, chain[0]);
+    }
+  }
+
+  @Override
+  public void checkServerTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+    trust.trustManager.checkServerTrusted(chain, authType);
+  }
+
+  @Override
+  public void checkServerTrusted(X509Certificate[] chain, String authType, Socket socket) throws CertificateException {
+    trust.trustManager.checkServerTrusted(chain, authType, socket);
+  }
+
+  @Override
+  public void checkServerTrusted(X509Certificate[] chain, String authType, SSLEngine engine) throws CertificateException {
+    trust.trustManager.checkServerTrusted(chain, authType, engine);
+  }
+
+  @Override
+  public X509Certificate[] getAcceptedIssuers() {
+    return trust.trustManager.getAcceptedIssuers();
+  }
+
+  private boolean isCached(Map<String, Long> cache, String fingerprint) {
+    if (fingerprint == null) {
+      return false;
+    }
+
+    Long expiresAt = cache.get(fingerprint);
+    if (expiresAt == null) {
+      return false;
+    }
+    if (expiresAt - System.currentTimeMillis() <= 0) {
+      cache.remove(fingerprint, expiresAt);
+      return false;
+    }
+
+    return true;
+  }
+
+  private void cache(Map<String, Long> cache, String fingerprint, X509Certificate leaf) {
+    if (fingerprint == null || maxSize <= 0) {
+      return;
+    }
+
+    long now = System.currentTimeMillis();
+    if (cache.size() >= maxSize) {
+      cache.values().removeIf(expiresAt -> expiresAt - now <= 0);
+
+      Iterator<String> fingerprints = cache.keySet().iterator();
+      while (cache.size() >= maxSize && fingerprints.hasNext()) {
+        fingerprints.next();
+        fingerprints.remove();
+      }
+    }
+
+    cache.put(fingerprint, Math.min(now + ttlMillis, leaf.getNotAfter().getTime()));
+  }
+
+  private static String fingerprint(X509Certificate[] chain) {
+    if (chain == null || chain.length == 0) {
+      return null;
+    }
+
+    try {
+      return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(chain[0].getEncoded()));
+    }
+    catch (CertificateEncodingException e) {
+      return null;
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static final class Trust {
+    private final X509ExtendedTrustManager trustManager;
+    private final Map<String, Long> validatedChains = new ConcurrentHashMap<>();
+
+    private Trust(X509TrustManager trustManager) {
+      this.trustManager = TrustManagerUtils.wrapIfNeeded(trustManager);
+    }
+  }
+}
@@ -0,0 +1,24 @@
+package neubert.tobias.jetty.tls;
+
+import java.time.Duration;
+
+
+/**
+ * @param mode whether the server requests a client certificate
+ * @param cacheSize the maximum number of client certificates whose validated chains are cached
+ * @param cacheTtl how long a validated chain is trusted without validating it again
+ */
+public record ClientAuthProperties(
+  Mode mode,
+  int cacheSize,
+  Duration cacheTtl)
+{
+  public enum Mode {
+    /** no client certificate is requested */
+    NONE,
+    /** a client certificate is requested, but clients without one are accepted */
+    WANT,
+    /** clients without a trusted certificate are rejected */
+    NEED
+  }
+}
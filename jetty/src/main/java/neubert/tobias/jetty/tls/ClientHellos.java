@@ -0,0 +1,89 @@
+package neubert.tobias.jetty.tls;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+
+/**
+ * Reads the first TLS record of a connection, which carries the ClientHello, without decrypting or answering it.
+ */
+final class ClientHellos {
+  private static final int RECORD_HEADER_LENGTH = 5;
+  private static final int CONTENT_TYPE_HANDSHAKE = 22;
+  private static final int HANDSHAKE_TYPE_CLIENT_HELLO = 1;
+  private static final int EXTENSION_SESSION_TICKET = 35;
+  private static final int EXTENSION_PRE_SHARED_KEY = 41;
+  private static final int EXTENSION_SUPPORTED_VERSIONS = 43;
+
+  static final int MAX_RECORD_LENGTH = RECORD_HEADER_LENGTH + 16384;
+
+  private ClientHellos() {
+  }
+
+  /**
+   * @param buffer the bytes read so far, in flush mode
+   * @return true if the first record has been read completely, or if it is no TLS handshake record at all
+   */
+  static boolean isComplete(ByteBuffer buffer) {
+    if (!buffer.hasRemaining()) {
+      return false;
+    }
+    if (buffer.get(buffer.position()) != CONTENT_TYPE_HANDSHAKE) {
+      return true;
+    }
+
+    return buffer.remaining() >= RECORD_HEADER_LENGTH
+      && buffer.remaining() >= RECORD_HEADER_LENGTH + Short.toUnsignedInt(buffer.getShort(buffer.position() + 3));
+  }
+
+  /**
+   * TLS 1.3 clients offer a session in the pre_shared_key extension, TLS 1.2 clients by a session ticket or, if they
+   * do not support TLS 1.3, by a session id. TLS 1.3 clients send a random session id for compatibility, so the
+   * session id only counts without the supported_versions extension.
+   *
+   * @param buffer the first record of the connection, in flush mode, is left untouched
+   * @return whether the client offers a session to resume, false if the record cannot be read
+   */
+  static boolean offersResumption(ByteBuffer buffer) {
+    ByteBuffer hello = buffer.slice();
+    try {
+      if (hello.get() != CONTENT_TYPE_HANDSHAKE) {
+        return false;
+      }
+      hello.position(RECORD_HEADER_LENGTH);
+      if (hello.get() != HANDSHAKE_TYPE_CLIENT_HELLO) {
+        return false;
+      }
+
+      skip(hello, 3 + 2 + 32);
+      int sessionIdLength = Byte.toUnsignedInt(hello.get());
+      skip(hello, sessionIdLength);
+      skip(hello, Short.toUnsignedInt(hello.getShort()));
+      skip(hello, Byte.toUnsignedInt(hello.get()));
+      if (!hello.hasRemaining()) {
+        return sessionIdLength > 0;
+      }
+
+      int extensionsEnd = Math.min(hello.limit(), Short.toUnsignedInt(hello.getShort()) + hello.position());
+      boolean supportedVersions = false;
+      while (hello.position() + 4 <= extensionsEnd) {
+        int type = Short.toUnsignedInt(hello.getShort());
+        int length = Short.toUnsignedInt(hello.getShort());
+        if (type == EXTENSION_PRE_SHARED_KEY || (type == EXTENSION_SESSION_TICKET && length > 0)) {
+          return true;
+        }
+        supportedVersions |= type == EXTENSION_SUPPORTED_VERSIONS;
+        skip(hello, Math.min(length, extensionsEnd - hello.position()));
+      }
+
+      return !supportedVersions && sessionIdLength > 0;
+    }
+    catch (BufferUnderflowException | IllegalArgumentException e) {
+      return false;
+    }
+  }
+
+  private static void skip(ByteBuffer buffer, int length) {
+    buffer.position(buffer.position() + length);
+  }
+}
@@ -0,0 +1,15 @@
+package neubert.tobias.jetty.tls;
+
+import java.time.Duration;
+
+
+/**
+ * @param maxConnectionAge connections are closed gracefully after this age, 0 means never
+ * @param drainWindow the connections of a retired certificate are closed within this window after a rotation, 0
+ *                    means that only HTTP/2 sessions are closed, right away
+ */
+public record ConnectionDrainProperties(
+  Duration maxConnectionAge,
+  Duration drainWindow)
+{
+}
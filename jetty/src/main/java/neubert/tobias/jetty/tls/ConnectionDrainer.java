@@ -0,0 +1,217 @@
+package neubert.tobias.jetty.tls;
+
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpHeaderValue;
+import org.eclipse.jetty.http2.ErrorCode;
+import org.eclipse.jetty.http2.HTTP2Connection;
+import org.eclipse.jetty.io.Connection;
+import org.eclipse.jetty.io.EndPoint;
+import org.eclipse.jetty.io.ssl.SslConnection;
+import org.eclipse.jetty.server.HttpChannel;
+import org.eclipse.jetty.server.HttpConnection;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.util.Callback;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.web.embedded.jetty.JettyServerCustomizer;
+
+import java.security.cert.Certificate;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+
+/**
+ * Closes connections gracefully, so that their clients reconnect and handshake with the current certificate. HTTP/2
+ * sessions get a GOAWAY, streams in flight are completed. HTTP/1.1 connections are closed right away if they are
+ * idle and after the response in flight otherwise.
+ * <p>
+ * The state of an HTTP/1.1 connection is not changed by the scheduler thread of the drainer. An idle connection is
+ * closed by a task on the executor of its connector, a busy one by the {@link HttpChannel.Listener} of the drainer,
+ * which asks for {@code Connection: close} on further requests and closes the connection once its response is
+ * complete.
+ * <p>
+ * Connections that are older than the maximum age are closed. The maximum age of every connection is shortened by
+ * up to a fifth, so connections that have been opened at once, like after a rotation, are not closed at once.
+ * <p>
+ * After a rotation the connections that were established with a retired certificate are closed at random points in
+ * time within the drain window. Their clients handshake again at an even rate instead of all at the same instant.
+ * Without a drain window only the HTTP/2 sessions are closed, right away, since they would never handshake again.
+ */
+public class ConnectionDrainer implements JettyServerCustomizer, TlsRotationListener, DisposableBean {
+  private static final Logger LOGGER = LoggerFactory.getLogger(ConnectionDrainer.class);
+  private static final double MAX_AGE_JITTER = 0.2;
+
+  private final Duration drainWindow;
+  private final long maxConnectionAge;
+  private final ScheduledExecutorService scheduler;
+  private final Set<Connection> drainedConnections = ConcurrentHashMap.newKeySet();
+  private final HttpChannel.Listener drainListener = new DrainListener();
+
+  private volatile Server server;
+
+  public ConnectionDrainer(ConnectionDrainProperties drainProperties) {
+    this.drainWindow = drainProperties.drainWindow();
+    this.maxConnectionAge = drainProperties.maxConnectionAge().toMillis();
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "jetty-connection-drainer");
+      thread.setDaemon(true);
+      return thread;
+    });
+
+    if (maxConnectionAge > 0) {
+      long interval = Math.max(100, maxConnectionAge / 10);
+      scheduler.scheduleWithFixedDelay(this::closeAgedConnections, interval, interval, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  @Override
+  public void customize(Server server) {
+    this.server = server;
+    Stream.of(server.getConnectors()).forEach(connector -> connector.addBean(drainListener));
+  }
+
+  @Override
+  public void identityRotated() {
+    drain(endPoint -> true);
+  }
+
+  /**
+   * Only the connections that were established with one of the retired certificates are drained.
+   */
+  @Override
+  public void identityRotated(Set<Certificate> retiredCertificates) {
+    drain(endPoint -> {
+      Certificate[] localCertificates = endPoint.getSslConnection().getSSLEngine().getSession().getLocalCertificates();
+      return localCertificates != null
+        && localCertificates.length > 0
+        && retiredCertificates.contains(localCertificates[0]);
+    });
+  }
+
+  @Override
+  public void destroy() throws Exception {
+    scheduler.shutdownNow();
+  }
+
+  private void drain(Predicate<SslConnection.DecryptedEndPoint> affected) {
+    List<SslConnection.DecryptedEndPoint> endPoints = endPoints().filter(affected).toList();
+
+    if (drainWindow.isZero()) {
+      long closed = endPoints.stream()
+        .filter(endPoint -> endPoint.getConnection() instanceof HTTP2Connection)
+        .filter(this::close)
+        .count();
+      LOGGER.info("Sent GOAWAY to {} HTTP/2 session(s) after the rotation of the server certificate", closed);
+      return;
+    }
+
+    long window = drainWindow.toMillis();
+    for (SslConnection.DecryptedEndPoint endPoint : endPoints) {
+      long delay = ThreadLocalRandom.current().nextLong(window + 1);
+      scheduler.schedule(() -> close(endPoint), delay, TimeUnit.MILLISECONDS);
+    }
+    LOGGER.info("Draining {} connection(s) of the retired certificate within {}", endPoints.size(), drainWindow);
+  }
+
+  private void closeAgedConnections() {
+    long now = System.currentTimeMillis();
+    long closed = endPoints()
+      .filter(endPoint -> now - endPoint.getCreatedTimeStamp() > maxAgeOf(endPoint))
+      .filter(this::close)
+      .count();
+
+    if (closed > 0) {
+      LOGGER.debug("Closed {} connection(s) that exceeded the maximum age", closed);
+    }
+  }
+
+  /**
+   * The jitter is derived from the identity of the connection, so it does not change from one check to the next.
+   */
+  private long maxAgeOf(SslConnection.DecryptedEndPoint endPoint) {
+    double fraction = Math.floorMod(System.identityHashCode(endPoint), 1000) / 1000.0;
+    return (long) (maxConnectionAge * (1 - MAX_AGE_JITTER * fraction));
+  }
+
+  private Stream<SslConnection.DecryptedEndPoint> endPoints() {
+    Server currentServer = server;
+    if (currentServer == null) {
+      return Stream.empty();
+    }
+
+    return Stream.of(currentServer.getConnectors())
+      .filter(ServerConnector.class::isInstance)
+      .flatMap(connector -> ((ServerConnector) connector).getConnectedEndPoints().stream())
+      .map(EndPoint::getConnection)
+      .filter(SslConnection.class::isInstance)
+      .map(connection -> ((SslConnection) connection).getDecryptedEndPoint())
+      .filter(EndPoint::isOpen);
+  }
+
+  /**
+   * @return false if the connection is neither HTTP/2 nor HTTP/1.1 or if its HTTP/2 session is already closing
+   */
+  private boolean close(SslConnection.DecryptedEndPoint endPoint) {
+    Connection connection = endPoint.getConnection();
+    if (connection instanceof HTTP2Connection http2Connection) {
+      return http2Connection.getSession().close(ErrorCode.NO_ERROR.code, "connection drained", Callback.NOOP);
+    }
+    if (connection instanceof HttpConnection httpConnection) {
+      if (drainedConnections.add(httpConnection)) {
+        httpConnection.addListener(new Connection.Listener.Adapter() {
+          @Override
+          public void onClosed(Connection closed) {
+            drainedConnections.remove(closed);
+          }
+        });
+        httpConnection.getConnector().getExecutor().execute(() -> closeIfIdle(httpConnection));
+      }
+      return true;
+    }
+
+    return false;
+  }
+
+  /**
+   * A request that has been received but not parsed yet keeps the connection open as well.
+   */
+  private static void closeIfIdle(HttpConnection connection) {
+    if (connection.getHttpChannel().getState().isIdle() && connection.isRequestBufferEmpty()) {
+      connection.getEndPoint().close();
+    }
+  }
+
+  private final class DrainListener implements HttpChannel.Listener {
+    @Override
+    public void onBeforeDispatch(Request request) {
+      if (isDrained(request)) {
+        request.getResponse().setHeader(HttpHeader.CONNECTION.asString(), HttpHeaderValue.CLOSE.asString());
+      }
+    }
+
+    /**
+     * Closes the connections that have been drained while their request was in flight.
+     */
+    @Override
+    public void onComplete(Request request) {
+      if (isDrained(request)) {
+        request.getHttpChannel().getEndPoint().close();
+      }
+    }
+
+    private boolean isDrained(Request request) {
+      return drainedConnections.contains(request.getHttpChannel().getConnection());
+    }
+  }
+}
@@ -3,25 +3,26 @@ package neubert.tobias.jetty.tls;
 import javax.net.ssl.SSLSessionContext;
 import javax.net.ssl.X509ExtendedKeyManager;
 import javax.net.ssl.X509ExtendedTrustManager;
+import neubert.tobias.spring.tls.watcher.JsseProvider;
+import neubert.tobias.spring.tls.watcher.ServedCertificates;
+import neubert.tobias.spring.tls.watcher.TlsMaterialWatcher;
 import nl.altindag.ssl.SSLFactory;
 import nl.altindag.ssl.util.KeyManagerUtils;
-import nl.altindag.ssl.util.PemUtils;
-import nl.altindag.ssl.util.SSLSessionUtils;
-import nl.altindag.ssl.util.TrustManagerUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
-import java.nio.file.FileSystems;
 import java.nio.file.Path;
-import java.nio.file.WatchEvent;
-import java.nio.file.WatchKey;
-import java.nio.file.WatchService;
-import java.util.concurrent.Executors;
+import java.security.cert.Certificate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
-import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static neubert.tobias.spring.tls.watcher.TlsMaterialWatcher.pathOf;
 
 
 @Service
@@ -29,106 +30,132 @@ public class FileBasedTlsUpdateService implements DisposableBean {
   private static final Logger LOGGER = LoggerFactory.getLogger(FileBasedTlsUpdateService.class);
 
   private final SSLSessionContext sslSessionContext;
-  private final X509ExtendedKeyManager identityManager;
-  private final X509ExtendedTrustManager trustManager;
-  private final TlsJettyProperties tlsProperties;
+  private final SniKeyManager identityManager;
+  private final CachingClientTrustManager trustManager;
+  private final TlsMaterialWatcher tlsMaterialWatcher;
   private final Path identityCertPath;
   private final Path identityKeyPath;
+  private final Path ecIdentityCertPath;
+  private final Path ecIdentityKeyPath;
   private final Path trustCertPath;
+  private final ObjectProvider<TlsRotationListener> rotationListeners;
+  private final JsseProvider jsseProvider;
+  private final int warmUpHandshakes;
+  private final TlsMaterialWatcher.Subscription subscription;
 
-  private WatchService fileWatcher;
-  private boolean watching = true;
+  private X509ExtendedKeyManager currentIdentityMaterial;
+  private X509ExtendedKeyManager currentEcIdentityMaterial;
+  private X509ExtendedTrustManager currentTrustMaterial;
 
   public FileBasedTlsUpdateService(
     SSLSessionContext sslSessionContext,
-    X509ExtendedKeyManager identityManager,
-    X509ExtendedTrustManager trustManager,
-    TlsJettyProperties tlsProperties) throws IOException
+    SniKeyManager identityManager,
+    CachingClientTrustManager trustManager,
+    TlsJettyProperties tlsProperties,
+    TlsMaterialWatcher tlsMaterialWatcher,
+    JsseProvider jsseProvider,
+    ObjectProvider<TlsRotationListener> rotationListeners) throws IOException
   {
     this.sslSessionContext = sslSessionContext;
     this.identityManager = identityManager;
     this.trustManager = trustManager;
-    this.tlsProperties = tlsProperties;
-    this.identityCertPath = Path.of(tlsProperties.identityCertResource().getFile().getAbsolutePath());
-    this.identityKeyPath = Path.of(tlsProperties.identityKeyResource().getFile().getAbsolutePath());
-    this.trustCertPath = Path.of(tlsProperties.trustResource().getFile().getAbsolutePath());
-
-    Executors.newSingleThreadExecutor().submit(this::startFileWatcher);
-  }
-
-  public void stop() {
-    try {
-      if (watching) {
-        LOGGER.info("Stopping the file watcher");
-
-        watching = false;
-        fileWatcher.close();
-      }
-    }
-    catch (IOException e) {
-      LOGGER.warn("Error while closing the file watcher.", e);
+    this.tlsMaterialWatcher = tlsMaterialWatcher;
+    this.jsseProvider = jsseProvider;
+    this.rotationListeners = rotationListeners;
+    this.warmUpHandshakes = tlsProperties.warmUpHandshakes();
+    this.identityCertPath = pathOf(tlsProperties.identityCertResource());
+    this.identityKeyPath = pathOf(tlsProperties.identityKeyResource());
+    this.ecIdentityCertPath = tlsProperties.hasEcIdentity() ? pathOf(tlsProperties.ecIdentityCertResource()) : null;
+    this.ecIdentityKeyPath = tlsProperties.hasEcIdentity() ? pathOf(tlsProperties.ecIdentityKeyResource()) : null;
+    this.trustCertPath = pathOf(tlsProperties.trustResource());
+    this.currentIdentityMaterial = tlsMaterialWatcher.identityMaterial(identityCertPath, identityKeyPath);
+    this.currentEcIdentityMaterial = ecIdentityMaterial();
+    this.currentTrustMaterial = tlsMaterialWatcher.trustMaterial(trustCertPath);
+
+    List<Path> paths = new ArrayList<>(List.of(identityCertPath, identityKeyPath));
+    paths.addAll(tlsMaterialWatcher.trustPaths(trustCertPath));
+    if (ecIdentityCertPath != null) {
+      paths.addAll(List.of(ecIdentityCertPath, ecIdentityKeyPath));
     }
+    this.subscription = tlsMaterialWatcher.subscribe("jetty", paths, this::updateTlsMaterial);
   }
 
-  private void startFileWatcher() {
-    try {
-      fileWatcher = FileSystems.getDefault().newWatchService();
-      trustCertPath.getParent().register(fileWatcher, ENTRY_MODIFY);
-      identityCertPath.getParent().register(fileWatcher, ENTRY_MODIFY);
-
-      while (watching) {
-        WatchKey watchKey = fileWatcher.take();
-        for (WatchEvent<?> fileEvent : watchKey.pollEvents()) {
-          LOGGER.info("Recognised modification of {}", fileEvent.context());
-          Path modifiedPath = (Path) fileEvent.context();
-          if (trustCertPath.endsWith(modifiedPath) || identityCertPath.endsWith(modifiedPath)) {
-            updateTlsMaterial();
-          }
-        }
-
-        watchKey.reset();
-      }
-    }
-    catch (Exception e) {
-      LOGGER.error("Cannot start the trust watcher", e);
-    }
+  public void stop() {
+    LOGGER.info("Stopping to watch the TLS material of the Jetty server");
+    subscription.cancel();
   }
 
+  /**
+   * The new material has to pass the loopback handshakes before anything is swapped. Then it swaps the changed
+   * material and invalidates only the sessions that are affected by the change: sessions
+   * established with the old default identity after an identity change and sessions of clients that are not trusted
+   * anymore after a trust change.
+   */
   private void updateTlsMaterial() {
     try {
       LOGGER.info("Going to update the TLS material for the Jetty server");
 
-      X509ExtendedKeyManager newIdentityManager =
-        PemUtils.loadIdentityMaterial(
-          tlsProperties.identityCertResource().getInputStream(),
-          tlsProperties.identityKeyResource().getInputStream()
-        );
-      X509ExtendedTrustManager newTrustManager =
-        PemUtils.loadTrustMaterial(
-          tlsProperties.trustResource().getInputStream());
-
-      SSLFactory sslFactory =
-        SSLFactory.builder()
+      X509ExtendedKeyManager newIdentityManager = tlsMaterialWatcher.identityMaterial(identityCertPath, identityKeyPath);
+      X509ExtendedKeyManager newEcIdentityManager = ecIdentityMaterial();
+      X509ExtendedTrustManager newTrustManager = tlsMaterialWatcher.trustMaterial(trustCertPath);
+      boolean identityChanged =
+        newIdentityManager != currentIdentityMaterial || newEcIdentityManager != currentEcIdentityMaterial;
+      boolean trustChanged = newTrustManager != currentTrustMaterial;
+
+      SSLFactory.Builder sslFactoryBuilder =
+        jsseProvider.configure(SSLFactory.builder())
           .withIdentityMaterial(newIdentityManager)
-          .withTrustMaterial(newTrustManager)
-          .build();
+          .withTrustMaterial(newTrustManager);
+      if (newEcIdentityManager != null) {
+        sslFactoryBuilder.withIdentityMaterial(newEcIdentityManager);
+      }
+      SSLFactory sslFactory = sslFactoryBuilder.build();
+      LoopbackHandshakes.verify(sslFactory.getSslContext(), sslFactory.getKeyManager().orElseThrow(), warmUpHandshakes);
+
+      if (identityChanged) {
+        Set<Certificate> retiredCertificates = servedCertificates(currentIdentityMaterial, currentEcIdentityMaterial);
+        retiredCertificates.removeAll(servedCertificates(newIdentityManager, newEcIdentityManager));
+
+        KeyManagerUtils.swapKeyManager(identityManager.defaultKeyManager(), sslFactory.getKeyManager().orElseThrow());
+        currentIdentityMaterial = newIdentityManager;
+        currentEcIdentityMaterial = newEcIdentityManager;
 
-      KeyManagerUtils.swapKeyManager(identityManager, sslFactory.getKeyManager().orElseThrow());
-      TrustManagerUtils.swapTrustManager(trustManager, sslFactory.getTrustManager().orElseThrow());
-      SSLSessionUtils.invalidateCaches(sslSessionContext);
+        int invalidated = TlsSessionInvalidator.invalidateForeignIdentities(sslSessionContext, identityManager);
+        LOGGER.info("Identity of the Jetty server changed, invalidated {} session(s)", invalidated);
+        rotationListeners.orderedStream().forEach(listener -> listener.identityRotated(retiredCertificates));
+      }
+      if (trustChanged) {
+        trustManager.swapTrustManager(newTrustManager);
+        currentTrustMaterial = newTrustManager;
+
+        int invalidated = TlsSessionInvalidator.invalidateUntrustedPeers(sslSessionContext, trustManager);
+        LOGGER.info("Trust of the Jetty server changed, invalidated {} session(s)", invalidated);
+      }
 
       LOGGER.info("Updating TLS material finished for the Jetty server");
     }
     catch (Exception e) {
-      LOGGER.error("" +
-        "Cannot update the TLS material for the server. Proceed watching for changes. " +
-        "This might be no problem at all because some file systems fire a modification event " +
-        "twice, where one is for an incomplete file. If the certificate is not changed indeed " +
-        "you have to look into the log at debug level.");
-      LOGGER.debug("", e);
+      throw new IllegalStateException("Cannot update the TLS material for the server", e);
     }
   }
 
+  private X509ExtendedKeyManager ecIdentityMaterial() {
+    return ecIdentityCertPath != null
+      ? tlsMaterialWatcher.identityMaterial(ecIdentityCertPath, ecIdentityKeyPath)
+      : null;
+  }
+
+  private static Set<Certificate> servedCertificates(X509ExtendedKeyManager... keyManagers) {
+    Set<Certificate> certificates = new HashSet<>();
+    for (X509ExtendedKeyManager keyManager : keyManagers) {
+      if (keyManager != null) {
+        certificates.addAll(ServedCertificates.of(keyManager));
+      }
+    }
+
+    return certificates;
+  }
+
   @Override
   public void destroy() throws Exception {
     stop();
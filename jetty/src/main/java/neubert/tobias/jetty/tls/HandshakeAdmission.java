@@ -0,0 +1,285 @@
+package neubert.tobias.jetty.tls;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Admits the TLS handshakes of the connector, so that a storm of handshakes, like after a failover of the load
+ * balancer, does not starve the request threads behind the signing of the server key. Handshakes that offer a
+ * session to resume skip the signing and have a lane of their own, so they are not queued behind full handshakes.
+ * A handshake that offered a session but was not resumed has been a full one after all, it is charged against the
+ * rate of the full lane afterwards.
+ * <p>
+ * A handshake that exceeds the concurrency limit or the rate of its lane waits in a bounded queue. If the queue is
+ * full or the handshake is not admitted within the maximum queue time, it is rejected and the connection is closed.
+ * Waiting does not occupy a thread, the thread of the admission only starts with the first waiting handshake.
+ */
+public class HandshakeAdmission implements MeterBinder, DisposableBean {
+  private final HandshakeAdmissionProperties admissionProperties;
+  private final Lane fullLane;
+  private final Lane resumedLane;
+  private final ScheduledExecutorService scheduler;
+
+  public HandshakeAdmission(HandshakeAdmissionProperties admissionProperties) {
+    this.admissionProperties = admissionProperties;
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "tls-handshake-admission");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.fullLane = new Lane(
+      "full",
+      admissionProperties.maxConcurrentHandshakes(),
+      admissionProperties.maxHandshakeRate(),
+      admissionProperties.maxQueuedHandshakes(),
+      admissionProperties.maxQueueTime().toNanos());
+    this.resumedLane = new Lane(
+      "resumed",
+      admissionProperties.maxConcurrentResumedHandshakes(),
+      0,
+      admissionProperties.maxQueuedHandshakes(),
+      admissionProperties.maxQueueTime().toNanos());
+  }
+
+  public boolean isEnabled() {
+    return admissionProperties.isEnabled();
+  }
+
+  /**
+   * Once the ticket is requested, either {@code admitted} or {@code rejected} is run exactly once, right away or when
+   * the handshake leaves the queue. An admitted handshake has to release the ticket when it is done.
+   *
+   * @param resumption whether the client offers a session to resume
+   */
+  public Ticket newTicket(boolean resumption, Runnable admitted, Runnable rejected) {
+    return new Ticket(resumption ? resumedLane : fullLane, admitted, rejected);
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    if (!isEnabled()) {
+      return;
+    }
+
+    for (Lane lane : List.of(fullLane, resumedLane)) {
+      Map.of("admitted", lane.admitted, "queued", lane.queued, "rejected", lane.rejected, "charged", lane.charged)
+        .forEach((outcome, counter) ->
+          FunctionCounter.builder("tls.handshake.admission", counter, LongAdder::doubleValue)
+            .description("Admitted, queued, rejected and afterwards charged TLS handshakes of the server")
+            .tag("lane", lane.name)
+            .tag("outcome", outcome)
+            .register(registry));
+    }
+  }
+
+  @Override
+  public void destroy() throws Exception {
+    scheduler.shutdownNow();
+  }
+
+  public final class Ticket {
+    private final Lane lane;
+    private final Runnable admitted;
+    private final Runnable rejected;
+    private boolean holdsPermit;
+    private boolean done;
+
+    private Ticket(Lane lane, Runnable admitted, Runnable rejected) {
+      this.lane = lane;
+      this.admitted = admitted;
+      this.rejected = rejected;
+    }
+
+    public void request() {
+      lane.enqueue(this);
+    }
+
+    /**
+     * Gives back the permit of an admitted handshake, or leaves the queue if it is still waiting. Calling it more
+     * than once has no effect.
+     */
+    public void release() {
+      lane.release(this);
+    }
+
+    /**
+     * Charges a handshake of the resumed lane whose session could not be resumed against the rate of the full lane,
+     * so the next full handshakes wait for it.
+     */
+    public void fullHandshakeDone() {
+      if (lane == resumedLane) {
+        fullLane.charge();
+      }
+    }
+  }
+
+  /**
+   * The permits are counted and the tokens of the rate are refilled under the lock of the lane. The callbacks of the
+   * tickets run outside the lock.
+   */
+  private final class Lane {
+    private final String name;
+    private final int maxConcurrent;
+    private final double rate;
+    private final int maxQueued;
+    private final long maxQueueNanos;
+    private final Deque<Ticket> queue = new ArrayDeque<>();
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder queued = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder charged = new LongAdder();
+
+    private int active;
+    private double tokens;
+    private long refilledAt = System.nanoTime();
+    private boolean drainScheduled;
+
+    private Lane(String name, int maxConcurrent, double rate, int maxQueued, long maxQueueNanos) {
+      this.name = name;
+      this.maxConcurrent = maxConcurrent;
+      this.rate = rate;
+      this.maxQueued = maxQueued;
+      this.maxQueueNanos = maxQueueNanos;
+      this.tokens = Math.max(1, rate);
+    }
+
+    private void enqueue(Ticket ticket) {
+      boolean admit;
+      boolean reject = false;
+      synchronized (this) {
+        admit = queue.isEmpty() && tryAcquire(ticket);
+        if (!admit) {
+          if (queue.size() < maxQueued) {
+            queue.addLast(ticket);
+            queued.increment();
+            scheduler.schedule(() -> expire(ticket), maxQueueNanos, TimeUnit.NANOSECONDS);
+            scheduleDrain();
+          }
+          else {
+            ticket.done = true;
+            reject = true;
+          }
+        }
+      }
+
+      if (admit) {
+        admitted.increment();
+        ticket.admitted.run();
+      }
+      else if (reject) {
+        rejected.increment();
+        ticket.rejected.run();
+      }
+    }
+
+    private void release(Ticket ticket) {
+      synchronized (this) {
+        if (ticket.holdsPermit) {
+          ticket.holdsPermit = false;
+          active--;
+        }
+        else if (!ticket.done) {
+          ticket.done = true;
+          queue.remove(ticket);
+        }
+      }
+      drain();
+    }
+
+    private void expire(Ticket ticket) {
+      synchronized (this) {
+        if (ticket.done || !queue.remove(ticket)) {
+          return;
+        }
+        ticket.done = true;
+      }
+      rejected.increment();
+      ticket.rejected.run();
+    }
+
+    private void drain() {
+      List<Ticket> admittedTickets = new ArrayList<>();
+      synchronized (this) {
+        drainScheduled = false;
+        while (!queue.isEmpty() && tryAcquire(queue.peekFirst())) {
+          admittedTickets.add(queue.pollFirst());
+        }
+        scheduleDrain();
+      }
+
+      for (Ticket ticket : admittedTickets) {
+        admitted.increment();
+        ticket.admitted.run();
+      }
+    }
+
+    /**
+     * Takes a token that may not be there yet. The debt is limited to the tokens of one second, so a burst of
+     * failed resumptions does not block the full lane for longer than that.
+     */
+    private void charge() {
+      charged.increment();
+      synchronized (this) {
+        if (rate <= 0) {
+          return;
+        }
+        refill();
+        tokens = Math.max(-Math.max(1, rate), tokens - 1);
+      }
+    }
+
+    /**
+     * A queue that only waits for a permit is drained by the next release. A queue that waits for the rate is
+     * drained as soon as the next token is due.
+     */
+    private void scheduleDrain() {
+      if (queue.isEmpty() || drainScheduled || rate <= 0 || (maxConcurrent > 0 && active >= maxConcurrent)) {
+        return;
+      }
+      drainScheduled = true;
+      refill();
+      long nanosToNextToken = (long) ((1 - tokens) / rate * TimeUnit.SECONDS.toNanos(1));
+      scheduler.schedule(this::drain, Math.max(0, nanosToNextToken), TimeUnit.NANOSECONDS);
+    }
+
+    private boolean tryAcquire(Ticket ticket) {
+      if (maxConcurrent > 0 && active >= maxConcurrent) {
+        return false;
+      }
+      if (rate > 0) {
+        refill();
+        if (tokens < 1) {
+          return false;
+        }
+        tokens--;
+      }
+
+      active++;
+      ticket.holdsPermit = true;
+      ticket.done = true;
+      return true;
+    }
+
+    /**
+     * The bucket holds the tokens of one second, at least one.
+     */
+    private void refill() {
+      long now = System.nanoTime();
+      tokens = Math.min(Math.max(1, rate), tokens + (now - refilledAt) * rate / TimeUnit.SECONDS.toNanos(1));
+      refilledAt = now;
+    }
+  }
+}
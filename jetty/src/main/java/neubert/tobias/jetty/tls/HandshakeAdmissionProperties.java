@@ -0,0 +1,25 @@
+package neubert.tobias.jetty.tls;
+
+import java.time.Duration;
+
+
+/**
+ * @param maxConcurrentHandshakes the number of full handshakes in progress at once, 0 means no limit
+ * @param maxHandshakeRate the number of full handshakes started per second, 0 means no limit
+ * @param maxConcurrentResumedHandshakes the number of handshakes in progress at once that offer a session to
+ *                                       resume, 0 means no limit. It only applies if the full handshakes are
+ *                                       limited.
+ * @param maxQueuedHandshakes the number of handshakes per lane waiting for admission, more are rejected at once
+ * @param maxQueueTime a handshake that has not been admitted within this time is rejected
+ */
+public record HandshakeAdmissionProperties(
+  int maxConcurrentHandshakes,
+  double maxHandshakeRate,
+  int maxConcurrentResumedHandshakes,
+  int maxQueuedHandshakes,
+  Duration maxQueueTime)
+{
+  public boolean isEnabled() {
+    return maxConcurrentHandshakes > 0 || maxHandshakeRate > 0;
+  }
+}
@@ -0,0 +1,14 @@
+package neubert.tobias.jetty.tls;
+
+
+/**
+ * @param initialSessionRecvWindow flow-control window of a whole connection in bytes
+ * @param initialStreamRecvWindow flow-control window of a single stream in bytes
+ */
+public record Http2Properties(
+  boolean enabled,
+  int maxConcurrentStreams,
+  int initialSessionRecvWindow,
+  int initialStreamRecvWindow)
+{
+}
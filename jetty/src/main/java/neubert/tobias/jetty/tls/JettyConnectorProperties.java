@@ -0,0 +1,21 @@
+package neubert.tobias.jetty.tls;
+
+
+/**
+ * Settings of the TLS connector that spring boot does not offer via {@code server.jetty.*}.
+ *
+ * @param reusePort binds the port with SO_REUSEPORT, so the kernel balances the accepted connections
+ * @param coresPerConnector with SO_REUSEPORT one connector is created per this many cores, 0 means one connector
+ * @param acceptQueueSize the backlog of the server socket, 0 means the default of the OS
+ * @param maxQueueCapacity the bound of the request queue if {@code server.jetty.threads.max-queue-capacity} is not set
+ * @param virtualThreads handles requests on virtual threads, needs Java 21 or later
+ */
+public record JettyConnectorProperties(
+  boolean reusePort,
+  int coresPerConnector,
+  boolean tcpNoDelay,
+  int acceptQueueSize,
+  int maxQueueCapacity,
+  boolean virtualThreads)
+{
+}
@@ -0,0 +1,28 @@
+package neubert.tobias.jetty.tls;
+
+import org.eclipse.jetty.util.thread.ThreadPool;
+import org.springframework.boot.web.embedded.jetty.JettyServletWebServerFactory;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
+import org.springframework.core.Ordered;
+
+
+/**
+ * Runs after the customizer of spring boot, which would replace the thread pool of the server otherwise.
+ */
+public class JettyThreadPoolCustomizer implements WebServerFactoryCustomizer<JettyServletWebServerFactory>, Ordered {
+  private final ThreadPool threadPool;
+
+  public JettyThreadPoolCustomizer(ThreadPool threadPool) {
+    this.threadPool = threadPool;
+  }
+
+  @Override
+  public void customize(JettyServletWebServerFactory factory) {
+    factory.setThreadPool(threadPool);
+  }
+
+  @Override
+  public int getOrder() {
+    return Ordered.LOWEST_PRECEDENCE;
+  }
+}
@@ -0,0 +1,179 @@
+package neubert.tobias.jetty.tls;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLHandshakeException;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509KeyManager;
+import javax.net.ssl.X509TrustManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Predicate;
+
+
+/**
+ * Runs in-memory handshakes between a client and the server side of a new SSL context before it goes live. A
+ * private key that does not match its certificate, a broken chain or a half-written file fails these handshakes
+ * instead of the handshakes of real clients. As a side effect the handshake code is warmed up for the JIT.
+ * <p>
+ * Every served key algorithm is exercised with TLS 1.2, since only its cipher suites select the certificate, and
+ * all handshakes without any restriction on TLS 1.3.
+ */
+final class LoopbackHandshakes {
+  private static final Logger LOGGER = LoggerFactory.getLogger(LoopbackHandshakes.class);
+  private static final int MAX_ROUNDS = 100;
+  private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+  private LoopbackHandshakes() {
+  }
+
+  /**
+   * @param serverContext the SSL context to check, its server session cache is left untouched
+   * @param keyManager the key manager of the context, tells which key algorithms are served
+   * @param handshakes the number of handshakes, at least one per served key algorithm is run
+   * @throws SSLException if any handshake fails
+   */
+  static void verify(SSLContext serverContext, X509KeyManager keyManager, int handshakes) throws SSLException {
+    SSLContext clientContext = clientContext();
+    List<Predicate<String>> cipherSuites = new ArrayList<>();
+    cipherSuites.add(null);
+    if (serves(keyManager, "RSA")) {
+      cipherSuites.add(cipherSuite -> cipherSuite.contains("_RSA_"));
+    }
+    if (serves(keyManager, "EC")) {
+      cipherSuites.add(cipherSuite -> cipherSuite.contains("_ECDSA_"));
+    }
+
+    long start = System.nanoTime();
+    int count = Math.max(handshakes, cipherSuites.size());
+    for (int i = 0; i < count; i++) {
+      handshake(serverContext, clientContext, cipherSuites.get(i % cipherSuites.size()));
+    }
+
+    LOGGER.debug("{} loopback handshake(s) took {}ms", count, (System.nanoTime() - start) / 1_000_000);
+  }
+
+  private static void handshake(
+    SSLContext serverContext,
+    SSLContext clientContext,
+    Predicate<String> cipherSuites) throws SSLException
+  {
+    SSLEngine server = serverContext.createSSLEngine();
+    server.setUseClientMode(false);
+    server.setNeedClientAuth(false);
+
+    SSLEngine client = clientContext.createSSLEngine();
+    client.setUseClientMode(true);
+    if (cipherSuites != null) {
+      client.setEnabledProtocols(new String[] {"TLSv1.2"});
+      client.setEnabledCipherSuites(
+        Arrays.stream(client.getEnabledCipherSuites()).filter(cipherSuites).toArray(String[]::new));
+    }
+
+    int packetSize = Math.max(client.getSession().getPacketBufferSize(), server.getSession().getPacketBufferSize());
+    ByteBuffer clientToServer = ByteBuffer.allocate(4 * packetSize);
+    ByteBuffer serverToClient = ByteBuffer.allocate(4 * packetSize);
+    ByteBuffer application = ByteBuffer.allocate(4 * packetSize);
+
+    try {
+      client.beginHandshake();
+      server.beginHandshake();
+      for (int round = 0; round < MAX_ROUNDS && !(isFinished(client) && isFinished(server)); round++) {
+        step(client, serverToClient, clientToServer, application);
+        step(server, clientToServer, serverToClient, application);
+      }
+
+      if (!isFinished(client) || !isFinished(server)) {
+        throw new SSLHandshakeException("The loopback handshake did not finish");
+      }
+    }
+    finally {
+      server.getSession().invalidate();
+      server.closeOutbound();
+      client.closeOutbound();
+    }
+  }
+
+  private static void step(SSLEngine engine, ByteBuffer in, ByteBuffer out, ByteBuffer application) throws SSLException {
+    in.flip();
+    engine.unwrap(in, application);
+    in.compact();
+    application.clear();
+    runDelegatedTasks(engine);
+
+    engine.wrap(EMPTY, out);
+    runDelegatedTasks(engine);
+  }
+
+  private static void runDelegatedTasks(SSLEngine engine) {
+    Runnable task;
+    while ((task = engine.getDelegatedTask()) != null) {
+      task.run();
+    }
+  }
+
+  private static boolean isFinished(SSLEngine engine) {
+    SSLEngineResult.HandshakeStatus status = engine.getHandshakeStatus();
+    return status == SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING || status == SSLEngineResult.HandshakeStatus.FINISHED;
+  }
+
+  private static boolean serves(X509KeyManager keyManager, String keyType) {
+    String[] aliases = keyManager.getServerAliases(keyType, null);
+    return aliases != null && aliases.length > 0;
+  }
+
+  private static SSLContext clientContext() throws SSLException {
+    try {
+      SSLContext clientContext = SSLContext.getInstance("TLS");
+      clientContext.init(null, new TrustManager[] {new ChainTrustManager()}, null);
+      return clientContext;
+    }
+    catch (GeneralSecurityException e) {
+      throw new SSLException("Cannot create the client of the loopback handshakes", e);
+    }
+  }
+
+  /**
+   * The server does not have to trust its own certificate, so the chain is only checked to be valid and to be
+   * signed link by link.
+   */
+  private static final class ChainTrustManager implements X509TrustManager {
+    @Override
+    public void checkServerTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+      try {
+        for (int i = 0; i < chain.length; i++) {
+          chain[i].checkValidity();
+          if (i + 1 < chain.length) {
+            chain[i].verify(chain[i + 1].getPublicKey());
+          }
+        }
+      }
+      catch (CertificateException e) {
+        throw e;
+      }
+      catch (GeneralSecurityException e) {
+        throw new CertificateException("The certificate chain of the server is broken", e);
+      }
+    }
+
+    @Override
+    public void checkClientTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+      throw new CertificateException("Not used for client authentication");
+    }
+
+    @Override
+    public X509Certificate[] getAcceptedIssuers() {
+      return new X509Certificate[0];
+    }
+  }
+}
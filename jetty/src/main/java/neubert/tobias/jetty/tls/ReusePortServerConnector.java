@@ -0,0 +1,43 @@
+package neubert.tobias.jetty.tls;
+
+import org.eclipse.jetty.server.ConnectionFactory;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+
+
+/**
+ * A connector that binds its port with SO_REUSEPORT, so several connectors can accept on the same port. Jetty 9.4
+ * has no setting for that.
+ */
+class ReusePortServerConnector extends ServerConnector {
+  ReusePortServerConnector(Server server, int acceptors, int selectors, ConnectionFactory... factories) {
+    super(server, acceptors, selectors, factories);
+  }
+
+  @Override
+  protected ServerSocketChannel openAcceptChannel() throws IOException {
+    ServerSocketChannel serverChannel = ServerSocketChannel.open();
+    try {
+      serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, getReuseAddress());
+      if (serverChannel.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+        serverChannel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+      }
+
+      InetSocketAddress bindAddress = getHost() == null
+        ? new InetSocketAddress(getPort())
+        : new InetSocketAddress(getHost(), getPort());
+      serverChannel.bind(bindAddress, getAcceptQueueSize());
+
+      return serverChannel;
+    }
+    catch (IOException e) {
+      serverChannel.close();
+      throw e;
+    }
+  }
+}
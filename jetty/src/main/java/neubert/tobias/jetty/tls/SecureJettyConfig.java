@@ -3,91 +3,327 @@ package neubert.tobias.jetty.tls;
 import javax.net.ssl.SSLSessionContext;
 import javax.net.ssl.X509ExtendedKeyManager;
 import javax.net.ssl.X509ExtendedTrustManager;
+import neubert.tobias.spring.tls.watcher.JsseProvider;
+import neubert.tobias.spring.tls.watcher.TlsMaterialWatcher;
+import neubert.tobias.spring.tls.watcher.TlsWatcherConfig;
 import nl.altindag.ssl.SSLFactory;
 import nl.altindag.ssl.util.JettySslUtils;
-import nl.altindag.ssl.util.PemUtils;
-import org.eclipse.jetty.server.Connector;
-import org.eclipse.jetty.server.ServerConnector;
+import nl.altindag.ssl.util.KeyManagerUtils;
+import org.eclipse.jetty.http2.HTTP2Cipher;
+import org.eclipse.jetty.util.BlockingArrayQueue;
 import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.AutoConfigureOrder;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.autoconfigure.web.ServerProperties;
 import org.springframework.boot.web.embedded.jetty.JettyServerCustomizer;
 import org.springframework.boot.web.embedded.jetty.JettyServletWebServerFactory;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
 import org.springframework.core.Ordered;
 import org.springframework.core.io.Resource;
 
 import java.io.IOException;
-import java.util.Collections;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.SynchronousQueue;
 
 
 @Configuration
 @ComponentScan
+@Import(TlsWatcherConfig.class)
 @AutoConfigureOrder(Ordered.HIGHEST_PRECEDENCE)
 public class SecureJettyConfig {
+  private static final Logger LOGGER = LoggerFactory.getLogger(SecureJettyConfig.class);
+
   @Bean
   public TlsJettyProperties tlsJettyProperties(
     @Value("${neubert.tobias.tls.identity-cert-resource}") Resource identityCertResource,
     @Value("${neubert.tobias.tls.identity-key-resource}") Resource identityKeyResource,
-    @Value("${neubert.tobias.tls.trust-resource}") Resource trustResource)
+    @Value("${neubert.tobias.tls.ec-identity-cert-resource:#{null}}") Resource ecIdentityCertResource,
+    @Value("${neubert.tobias.tls.ec-identity-key-resource:#{null}}") Resource ecIdentityKeyResource,
+    @Value("${neubert.tobias.tls.identity-directory-resource:#{null}}") Resource identityDirectoryResource,
+    @Value("${neubert.tobias.tls.trust-resource}") Resource trustResource,
+    @Value("${neubert.tobias.tls.session-cache-size:20480}") int sessionCacheSize,
+    @Value("${neubert.tobias.tls.session-timeout:24h}") Duration sessionTimeout,
+    @Value("${neubert.tobias.tls.warm-up-handshakes:10}") int warmUpHandshakes)
   {
-    return new TlsJettyProperties(identityCertResource, identityKeyResource, trustResource);
+    return new TlsJettyProperties(
+      identityCertResource,
+      identityKeyResource,
+      ecIdentityCertResource,
+      ecIdentityKeyResource,
+      identityDirectoryResource,
+      trustResource,
+      sessionCacheSize,
+      sessionTimeout,
+      warmUpHandshakes);
   }
 
   @Bean
-  public JettyServletWebServerFactory JettyServletWebServerFactory(
+  public Http2Properties http2Properties(
+    @Value("${neubert.tobias.tls.jetty.http2.enabled:false}") boolean enabled,
+    @Value("${neubert.tobias.tls.jetty.http2.max-concurrent-streams:128}") int maxConcurrentStreams,
+    @Value("${neubert.tobias.tls.jetty.http2.initial-session-recv-window:1048576}") int initialSessionRecvWindow,
+    @Value("${neubert.tobias.tls.jetty.http2.initial-stream-recv-window:524288}") int initialStreamRecvWindow)
+  {
+    return new Http2Properties(enabled, maxConcurrentStreams, initialSessionRecvWindow, initialStreamRecvWindow);
+  }
+
+  @Bean
+  public ClientAuthProperties clientAuthProperties(
+    @Value("${neubert.tobias.tls.client-auth.mode:none}") String mode,
+    @Value("${neubert.tobias.tls.client-auth.cache-size:1000}") int cacheSize,
+    @Value("${neubert.tobias.tls.client-auth.cache-ttl:10m}") Duration cacheTtl)
+  {
+    return new ClientAuthProperties(
+      ClientAuthProperties.Mode.valueOf(mode.toUpperCase(Locale.ROOT)),
+      cacheSize,
+      cacheTtl);
+  }
+
+  @Bean
+  public ConnectionDrainProperties connectionDrainProperties(
+    @Value("${neubert.tobias.tls.jetty.max-connection-age:0s}") Duration maxConnectionAge,
+    @Value("${neubert.tobias.tls.jetty.drain-window:0s}") Duration drainWindow)
+  {
+    return new ConnectionDrainProperties(maxConnectionAge, drainWindow);
+  }
+
+  @Bean
+  public HandshakeAdmissionProperties handshakeAdmissionProperties(
+    @Value("${neubert.tobias.tls.jetty.handshake-admission.max-concurrent:0}") int maxConcurrent,
+    @Value("${neubert.tobias.tls.jetty.handshake-admission.max-rate:0}") double maxRate,
+    @Value("${neubert.tobias.tls.jetty.handshake-admission.max-concurrent-resumed:64}") int maxConcurrentResumed,
+    @Value("${neubert.tobias.tls.jetty.handshake-admission.max-queued:1000}") int maxQueued,
+    @Value("${neubert.tobias.tls.jetty.handshake-admission.max-queue-time:1s}") Duration maxQueueTime)
+  {
+    return new HandshakeAdmissionProperties(maxConcurrent, maxRate, maxConcurrentResumed, maxQueued, maxQueueTime);
+  }
+
+  @Bean
+  public JettyConnectorProperties jettyConnectorProperties(
+    @Value("${neubert.tobias.tls.jetty.reuse-port:false}") boolean reusePort,
+    @Value("${neubert.tobias.tls.jetty.cores-per-connector:0}") int coresPerConnector,
+    @Value("${neubert.tobias.tls.jetty.tcp-no-delay:true}") boolean tcpNoDelay,
+    @Value("${neubert.tobias.tls.jetty.accept-queue-size:0}") int acceptQueueSize,
+    @Value("${neubert.tobias.tls.jetty.max-queue-capacity:10000}") int maxQueueCapacity,
+    @Value("${neubert.tobias.tls.jetty.virtual-threads:false}") boolean virtualThreads)
+  {
+    return new JettyConnectorProperties(
+      reusePort,
+      coresPerConnector,
+      tcpNoDelay,
+      acceptQueueSize,
+      maxQueueCapacity,
+      virtualThreads);
+  }
+
+  @Bean
+  public TlsServerConnectorFactory tlsServerConnectorFactory(
     SslContextFactory.Server sslContextFactory,
-    ServerProperties serverProperties)
+    ServerProperties serverProperties,
+    Http2Properties http2Properties,
+    JettyConnectorProperties connectorProperties,
+    TlsHandshakeMetrics handshakeMetrics,
+    HandshakeAdmission handshakeAdmission)
+  {
+    return new TlsServerConnectorFactory(
+      sslContextFactory,
+      serverProperties,
+      http2Properties,
+      connectorProperties,
+      handshakeMetrics,
+      handshakeAdmission);
+  }
+
+  @Bean
+  public TlsHandshakeMetrics tlsHandshakeMetrics() {
+    return new TlsHandshakeMetrics();
+  }
+
+  @Bean
+  public HandshakeAdmission handshakeAdmission(HandshakeAdmissionProperties admissionProperties) {
+    return new HandshakeAdmission(admissionProperties);
+  }
+
+  @Bean
+  public JettyServletWebServerFactory JettyServletWebServerFactory(
+    TlsServerConnectorFactory connectorFactory,
+    ObjectProvider<JettyServerCustomizer> additionalCustomizers)
   {
     JettyServletWebServerFactory factory = new JettyServletWebServerFactory();
 
-    JettyServerCustomizer jettyServerCustomizer = server -> {
-      ServerConnector serverConnector = new ServerConnector(server, sslContextFactory);
-      serverConnector.setPort(serverProperties.getPort());
-      server.setConnectors(new Connector[]{serverConnector});
-    };
-    factory.setServerCustomizers(Collections.singletonList(jettyServerCustomizer));
+    JettyServerCustomizer jettyServerCustomizer = server -> server.setConnectors(connectorFactory.createConnectors(server));
+
+    List<JettyServerCustomizer> customizers = new ArrayList<>();
+    customizers.add(jettyServerCustomizer);
+    additionalCustomizers.orderedStream().forEach(customizers::add);
+    factory.setServerCustomizers(customizers);
 
     return factory;
   }
 
+  /**
+   * The request queue of the default pool of spring boot is unbounded. This one is bounded by
+   * {@code server.jetty.threads.max-queue-capacity}, or {@code neubert.tobias.tls.jetty.max-queue-capacity} if that
+   * is not set, so an overloaded server rejects requests instead of queueing them without limit. In the virtual
+   * threads mode requests do not use the queue at all, they are handled on virtual threads.
+   */
   @Bean
-  public X509ExtendedKeyManager keyManager(SSLFactory sslFactory) {
-    return sslFactory.getKeyManager().orElseThrow();
+  public QueuedThreadPool jettyThreadPool(
+    ServerProperties serverProperties,
+    JettyConnectorProperties connectorProperties)
+  {
+    ServerProperties.Jetty.Threads threads = serverProperties.getJetty().getThreads();
+    int maxQueueCapacity = threads.getMaxQueueCapacity() != null
+      ? threads.getMaxQueueCapacity()
+      : connectorProperties.maxQueueCapacity();
+    BlockingQueue<Runnable> queue = maxQueueCapacity == 0
+      ? new SynchronousQueue<>()
+      : new BlockingArrayQueue<>(maxQueueCapacity);
+
+    int idleTimeout = (int) threads.getIdleTimeout().toMillis();
+
+    QueuedThreadPool threadPool;
+    if (connectorProperties.virtualThreads() && VirtualThreads.isSupported()) {
+      threadPool = new VirtualThreadDispatchingThreadPool(threads.getMax(), threads.getMin(), idleTimeout, queue);
+    }
+    else {
+      if (connectorProperties.virtualThreads()) {
+        LOGGER.warn("Virtual threads are not supported by this JVM, the Jetty server uses platform threads only");
+      }
+      threadPool = new QueuedThreadPool(threads.getMax(), threads.getMin(), idleTimeout, queue);
+    }
+    threadPool.setName("jetty-tls");
+
+    return threadPool;
   }
 
   @Bean
-  public X509ExtendedTrustManager trustManager(SSLFactory sslFactory) {
-    return sslFactory.getTrustManager().orElseThrow();
+  public JettyThreadPoolCustomizer jettyThreadPoolCustomizer(QueuedThreadPool jettyThreadPool) {
+    return new JettyThreadPoolCustomizer(jettyThreadPool);
   }
 
   @Bean
-  public SSLSessionContext serverSessionContext(SSLFactory sslFactory) {
-    return sslFactory.getSslContext().getServerSessionContext();
+  public ConnectionDrainer connectionDrainer(ConnectionDrainProperties drainProperties) {
+    return new ConnectionDrainer(drainProperties);
   }
 
+  /**
+   * The default identity is swappable, the identities of the identity directory are swapped by the
+   * {@link SniKeyManager} itself. With an additional ECDSA identity the JDK chooses the certificate that matches the
+   * signature algorithms the client supports, preferring the algorithms the client lists first.
+   */
   @Bean
-  public SSLFactory sslFactory(TlsJettyProperties tlsProperties) throws IOException {
+  public SniKeyManager keyManager(TlsJettyProperties tlsProperties, TlsMaterialWatcher tlsMaterialWatcher) throws IOException {
     X509ExtendedKeyManager keyManager =
-      PemUtils.loadIdentityMaterial(
-        tlsProperties.identityCertResource().getInputStream(),
-        tlsProperties.identityKeyResource().getInputStream());
-    X509ExtendedTrustManager trustManager = PemUtils.loadTrustMaterial(tlsProperties.trustResource().getInputStream());
+      tlsMaterialWatcher.identityMaterial(
+        TlsMaterialWatcher.pathOf(tlsProperties.identityCertResource()),
+        TlsMaterialWatcher.pathOf(tlsProperties.identityKeyResource()));
+    if (tlsProperties.hasEcIdentity()) {
+      X509ExtendedKeyManager ecKeyManager =
+        tlsMaterialWatcher.identityMaterial(
+          TlsMaterialWatcher.pathOf(tlsProperties.ecIdentityCertResource()),
+          TlsMaterialWatcher.pathOf(tlsProperties.ecIdentityKeyResource()));
+      keyManager = KeyManagerUtils.combine(keyManager, ecKeyManager);
+    }
 
-    return SSLFactory.builder()
-      .withSwappableIdentityMaterial()
-      .withIdentityMaterial(keyManager)
-      .withSwappableTrustMaterial()
-      .withTrustMaterial(trustManager)
-      .withNeedClientAuthentication(false)
-      .build();
+    return new SniKeyManager(KeyManagerUtils.createSwappableKeyManager(keyManager));
   }
 
   @Bean
-  public SslContextFactory.Server sslContextFactory(SSLFactory sslFactory) {
-    return JettySslUtils.forServer(sslFactory);
+  public CachingClientTrustManager trustManager(
+    TlsJettyProperties tlsProperties,
+    ClientAuthProperties clientAuthProperties,
+    TlsMaterialWatcher tlsMaterialWatcher) throws IOException
+  {
+    X509ExtendedTrustManager trustManager =
+      tlsMaterialWatcher.trustMaterial(TlsMaterialWatcher.pathOf(tlsProperties.trustResource()));
+
+    return new CachingClientTrustManager(trustManager, clientAuthProperties.cacheSize(), clientAuthProperties.cacheTtl());
+  }
+
+  @Bean
+  public SSLSessionContext serverSessionContext(SSLFactory sslFactory, TlsJettyProperties tlsProperties) {
+    SSLSessionContext serverSessionContext = sslFactory.getSslContext().getServerSessionContext();
+    serverSessionContext.setSessionCacheSize(tlsProperties.sessionCacheSize());
+    serverSessionContext.setSessionTimeout((int) tlsProperties.sessionTimeout().toSeconds());
+
+    return serverSessionContext;
+  }
+
+  @Bean
+  @ConditionalOnProperty("neubert.tobias.tls.identity-directory-resource")
+  public SniIdentityUpdateService sniIdentityUpdateService(
+    SSLSessionContext serverSessionContext,
+    SniKeyManager keyManager,
+    TlsJettyProperties tlsProperties,
+    TlsMaterialWatcher tlsMaterialWatcher,
+    JsseProvider jsseProvider,
+    ObjectProvider<TlsRotationListener> rotationListeners) throws IOException
+  {
+    return new SniIdentityUpdateService(
+      serverSessionContext,
+      keyManager,
+      tlsProperties,
+      tlsMaterialWatcher,
+      jsseProvider,
+      rotationListeners);
+  }
+
+  /**
+   * The identity has to pass the loopback handshakes before the connector is started.
+   */
+  @Bean
+  public SSLFactory sslFactory(
+    SniKeyManager keyManager,
+    CachingClientTrustManager trustManager,
+    TlsJettyProperties tlsProperties,
+    ClientAuthProperties clientAuthProperties,
+    JsseProvider jsseProvider) throws IOException
+  {
+    SSLFactory.Builder sslFactoryBuilder =
+      jsseProvider.configure(SSLFactory.builder())
+        .withIdentityMaterial(keyManager)
+        .withTrustMaterial(trustManager);
+    switch (clientAuthProperties.mode()) {
+      case NEED -> sslFactoryBuilder.withNeedClientAuthentication(true);
+      case WANT -> sslFactoryBuilder.withWantClientAuthentication(true);
+      default -> sslFactoryBuilder.withNeedClientAuthentication(false);
+    }
+
+    SSLFactory sslFactory = sslFactoryBuilder.build();
+    LoopbackHandshakes.verify(
+      sslFactory.getSslContext(),
+      keyManager.defaultKeyManager(),
+      tlsProperties.warmUpHandshakes());
+
+    return sslFactory;
+  }
+
+  @Bean
+  public SslContextFactory.Server sslContextFactory(
+    SSLFactory sslFactory,
+    Http2Properties http2Properties,
+    ClientAuthProperties clientAuthProperties)
+  {
+    SslContextFactory.Server sslContextFactory = JettySslUtils.forServer(sslFactory);
+    sslContextFactory.setNeedClientAuth(clientAuthProperties.mode() == ClientAuthProperties.Mode.NEED);
+    sslContextFactory.setWantClientAuth(clientAuthProperties.mode() == ClientAuthProperties.Mode.WANT);
+    if (http2Properties.enabled()) {
+      sslContextFactory.setCipherComparator(HTTP2Cipher.COMPARATOR);
+    }
+
+    return sslContextFactory;
   }
 }
@@ -0,0 +1,159 @@
+package neubert.tobias.jetty.tls;
+
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.X509ExtendedKeyManager;
+import neubert.tobias.spring.tls.watcher.JsseProvider;
+import neubert.tobias.spring.tls.watcher.ServedCertificates;
+import neubert.tobias.spring.tls.watcher.TlsMaterialWatcher;
+import nl.altindag.ssl.SSLFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.ObjectProvider;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.cert.Certificate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static neubert.tobias.spring.tls.watcher.TlsMaterialWatcher.pathOf;
+
+
+/**
+ * Serves every identity of the identity directory via the {@link SniKeyManager}. An identity consists of a
+ * certificate {@code <name>.pem} and its private key {@code <name>.key}. Every identity is watched and reloaded on
+ * its own, so a rotation only invalidates the sessions of the host names of that identity.
+ * <p>
+ * The directory is read once at startup, adding or removing an identity needs a restart.
+ */
+public class SniIdentityUpdateService implements DisposableBean {
+  private static final Logger LOGGER = LoggerFactory.getLogger(SniIdentityUpdateService.class);
+  private static final String CERT_SUFFIX = ".pem";
+  private static final String KEY_SUFFIX = ".key";
+
+  private final SSLSessionContext sslSessionContext;
+  private final SniKeyManager sniKeyManager;
+  private final TlsMaterialWatcher tlsMaterialWatcher;
+  private final ObjectProvider<TlsRotationListener> rotationListeners;
+  private final JsseProvider jsseProvider;
+  private final int warmUpHandshakes;
+  private final List<TlsMaterialWatcher.Subscription> subscriptions = new ArrayList<>();
+
+  public SniIdentityUpdateService(
+    SSLSessionContext sslSessionContext,
+    SniKeyManager sniKeyManager,
+    TlsJettyProperties tlsProperties,
+    TlsMaterialWatcher tlsMaterialWatcher,
+    JsseProvider jsseProvider,
+    ObjectProvider<TlsRotationListener> rotationListeners) throws IOException
+  {
+    this.sslSessionContext = sslSessionContext;
+    this.sniKeyManager = sniKeyManager;
+    this.tlsMaterialWatcher = tlsMaterialWatcher;
+    this.jsseProvider = jsseProvider;
+    this.rotationListeners = rotationListeners;
+    this.warmUpHandshakes = tlsProperties.warmUpHandshakes();
+
+    for (SniIdentity identity : identitiesOf(pathOf(tlsProperties.identityDirectoryResource()))) {
+      try {
+        identity.current = verified(tlsMaterialWatcher.identityMaterial(identity.certPath, identity.keyPath));
+        Set<String> hostNames = sniKeyManager.putIdentity(identity.name, identity.current);
+        LOGGER.info("Serving the identity {} for {}", identity.name, hostNames);
+      }
+      catch (RuntimeException | SSLException e) {
+        LOGGER.warn("The identity {} is not served at startup: {}", identity.name, e.getMessage());
+      }
+      subscriptions.add(
+        tlsMaterialWatcher.subscribe(
+          "sni-" + identity.name,
+          List.of(identity.certPath, identity.keyPath),
+          () -> updateIdentity(identity)));
+    }
+  }
+
+  public void stop() {
+    LOGGER.info("Stopping to watch the identities of the Jetty server");
+    subscriptions.forEach(TlsMaterialWatcher.Subscription::cancel);
+  }
+
+  private void updateIdentity(SniIdentity identity) {
+    try {
+      X509ExtendedKeyManager newKeyManager = tlsMaterialWatcher.identityMaterial(identity.certPath, identity.keyPath);
+      if (newKeyManager == identity.current) {
+        return;
+      }
+      verified(newKeyManager);
+
+      Set<Certificate> retiredCertificates = new HashSet<>();
+      if (identity.current != null) {
+        retiredCertificates.addAll(ServedCertificates.of(identity.current));
+      }
+      retiredCertificates.removeAll(ServedCertificates.of(newKeyManager));
+
+      Set<String> hostNames = sniKeyManager.putIdentity(identity.name, newKeyManager);
+      identity.current = newKeyManager;
+
+      int invalidated = TlsSessionInvalidator.invalidateForeignIdentities(sslSessionContext, sniKeyManager);
+      LOGGER.info("Identity {} for {} changed, invalidated {} session(s)", identity.name, hostNames, invalidated);
+      rotationListeners.orderedStream().forEach(listener -> listener.identityRotated(retiredCertificates));
+    }
+    catch (Exception e) {
+      throw new IllegalStateException("Cannot update the identity " + identity.name, e);
+    }
+  }
+
+  private X509ExtendedKeyManager verified(X509ExtendedKeyManager keyManager) throws SSLException {
+    SSLFactory sslFactory = jsseProvider.configure(SSLFactory.builder()).withIdentityMaterial(keyManager).build();
+    LoopbackHandshakes.verify(sslFactory.getSslContext(), keyManager, warmUpHandshakes);
+
+    return keyManager;
+  }
+
+  private static List<SniIdentity> identitiesOf(Path directory) throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files
+        .filter(file -> file.getFileName().toString().endsWith(CERT_SUFFIX))
+        .sorted()
+        .map(SniIdentity::of)
+        .filter(identity -> {
+          if (Files.isRegularFile(identity.keyPath)) {
+            return true;
+          }
+          LOGGER.warn("{} has no private key {}, it is ignored", identity.certPath, identity.keyPath.getFileName());
+          return false;
+        })
+        .toList();
+    }
+  }
+
+  @Override
+  public void destroy() throws Exception {
+    stop();
+  }
+
+  private static final class SniIdentity {
+    private final String name;
+    private final Path certPath;
+    private final Path keyPath;
+    private volatile X509ExtendedKeyManager current;
+
+    private SniIdentity(String name, Path certPath, Path keyPath) {
+      this.name = name;
+      this.certPath = certPath;
+      this.keyPath = keyPath;
+    }
+
+    static SniIdentity of(Path certPath) {
+      String fileName = certPath.getFileName().toString();
+      String name = fileName.substring(0, fileName.length() - CERT_SUFFIX.length());
+
+      return new SniIdentity(name, certPath, certPath.resolveSibling(name + KEY_SUFFIX));
+    }
+  }
+}
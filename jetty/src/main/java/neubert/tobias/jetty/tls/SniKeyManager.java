@@ -0,0 +1,236 @@
+package neubert.tobias.jetty.tls;
+
+import javax.net.ssl.ExtendedSSLSession;
+import javax.net.ssl.SNIHostName;
+import javax.net.ssl.SNIServerName;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.X509ExtendedKeyManager;
+import neubert.tobias.spring.tls.watcher.CertificateNames;
+import neubert.tobias.spring.tls.watcher.ServedCertificates;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.Socket;
+import java.security.Principal;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+
+/**
+ * Serves the identity whose certificate names the host that the client requested via SNI. Host names and
+ * wildcard domains of all identities are kept in hash maps, so the number of identities does not slow down a
+ * handshake. Clients without SNI or with an unknown host name get the default identity.
+ * <p>
+ * The aliases of the identities are prefixed with their name, so an alias chosen during the handshake always leads
+ * back to the key manager of the same identity. The identities can be replaced one by one at runtime.
+ */
+public class SniKeyManager extends X509ExtendedKeyManager {
+  private static final Logger LOGGER = LoggerFactory.getLogger(SniKeyManager.class);
+  private static final String ALIAS_PREFIX = "sni/";
+
+  private final X509ExtendedKeyManager defaultKeyManager;
+
+  private volatile Identities identities = new Identities(Map.of(), Map.of(), Map.of());
+
+  public SniKeyManager(X509ExtendedKeyManager defaultKeyManager) {
+    this.defaultKeyManager = defaultKeyManager;
+  }
+
+  /**
+   * @return the key manager for clients without SNI or with an unknown host name
+   */
+  public X509ExtendedKeyManager defaultKeyManager() {
+    return defaultKeyManager;
+  }
+
+  /**
+   * Adds or replaces the identity of the given name. It is served for all DNS names of its certificates or, if
+   * they have none, for their common names.
+   *
+   * @return the host names the identity is served for
+   */
+  public synchronized Set<String> putIdentity(String name, X509ExtendedKeyManager keyManager) {
+    Identity identity = new Identity(name, keyManager, hostNames(keyManager));
+
+    Map<String, Identity> byName = new TreeMap<>(identities.byName());
+    byName.put(name, identity);
+    identities = Identities.of(byName);
+
+    return identity.hostNames();
+  }
+
+  public synchronized void removeIdentity(String name) {
+    Map<String, Identity> byName = new TreeMap<>(identities.byName());
+    if (byName.remove(name) != null) {
+      identities = Identities.of(byName);
+    }
+  }
+
+  @Override
+  public String chooseEngineServerAlias(String keyType, Principal[] issuers, SSLEngine engine) {
+    Identity identity = engine != null ? identityOf(engine.getHandshakeSession()) : null;
+
+    return identity != null
+      ? identity.alias(identity.keyManager().chooseEngineServerAlias(keyType, issuers, engine))
+      : defaultKeyManager.chooseEngineServerAlias(keyType, issuers, engine);
+  }
+
+  @Override
+  public String chooseServerAlias(String keyType, Principal[] issuers, Socket socket) {
+    Identity identity = socket instanceof SSLSocket sslSocket ? identityOf(sslSocket.getHandshakeSession()) : null;
+
+    return identity != null
+      ? identity.alias(identity.keyManager().chooseServerAlias(keyType, issuers, socket))
+      : defaultKeyManager.chooseServerAlias(keyType, issuers, socket);
+  }
+
+  @Override
+  public String[] getServerAliases(String keyType, Principal[] issuers) {
+    List<String> aliases = new ArrayList<>();
+    addAll(aliases, null, defaultKeyManager.getServerAliases(keyType, issuers));
+    for (Identity identity : identities.byName().values()) {
+      addAll(aliases, identity, identity.keyManager().getServerAliases(keyType, issuers));
+    }
+
+    return aliases.isEmpty() ? null : aliases.toArray(String[]::new);
+  }
+
+  @Override
+  public X509Certificate[] getCertificateChain(String alias) {
+    Identity identity = identityOf(alias);
+    if (identity == null) {
+      return alias != null && alias.startsWith(ALIAS_PREFIX) ? null : defaultKeyManager.getCertificateChain(alias);
+    }
+
+    return identity.keyManager().getCertificateChain(identity.unprefixed(alias));
+  }
+
+  @Override
+  public PrivateKey getPrivateKey(String alias) {
+    Identity identity = identityOf(alias);
+    if (identity == null) {
+      return alias != null && alias.startsWith(ALIAS_PREFIX) ? null : defaultKeyManager.getPrivateKey(alias);
+    }
+
+    return identity.keyManager().getPrivateKey(identity.unprefixed(alias));
+  }
+
+  @Override
+  public String[] getClientAliases(String keyType, Principal[] issuers) {
+    return defaultKeyManager.getClientAliases(keyType, issuers);
+  }
+
+  @Override
+  public String chooseClientAlias(String[] keyType, Principal[] issuers, Socket socket) {
+    return defaultKeyManager.chooseClientAlias(keyType, issuers, socket);
+  }
+
+  @Override
+  public String chooseEngineClientAlias(String[] keyType, Principal[] issuers, SSLEngine engine) {
+    return defaultKeyManager.chooseEngineClientAlias(keyType, issuers, engine);
+  }
+
+  private Identity identityOf(SSLSession handshakeSession) {
+    if (!(handshakeSession instanceof ExtendedSSLSession extendedSession)) {
+      return null;
+    }
+
+    for (SNIServerName serverName : extendedSession.getRequestedServerNames()) {
+      if (serverName instanceof SNIHostName hostName) {
+        return identities.lookup(hostName.getAsciiName());
+      }
+    }
+
+    return null;
+  }
+
+  private Identity identityOf(String alias) {
+    if (alias == null || !alias.startsWith(ALIAS_PREFIX)) {
+      return null;
+    }
+
+    int separator = alias.indexOf('/', ALIAS_PREFIX.length());
+    return separator < 0 ? null : identities.byName().get(alias.substring(ALIAS_PREFIX.length(), separator));
+  }
+
+  private static void addAll(List<String> aliases, Identity identity, String[] identityAliases) {
+    if (identityAliases != null) {
+      for (String alias : identityAliases) {
+        aliases.add(identity != null ? identity.alias(alias) : alias);
+      }
+    }
+  }
+
+  private static Set<String> hostNames(X509ExtendedKeyManager keyManager) {
+    Set<String> hostNames = new TreeSet<>();
+    for (X509Certificate certificate : ServedCertificates.of(keyManager)) {
+      hostNames.addAll(CertificateNames.of(certificate));
+    }
+
+    return hostNames;
+  }
+
+  private record Identity(String name, X509ExtendedKeyManager keyManager, Set<String> hostNames) {
+    String alias(String alias) {
+      return alias == null ? null : ALIAS_PREFIX + name + "/" + alias;
+    }
+
+    String unprefixed(String alias) {
+      return alias.substring(ALIAS_PREFIX.length() + name.length() + 1);
+    }
+  }
+
+  /**
+   * @param byHostName identities by their exact host name
+   * @param byWildcardDomain identities by the domain of their wildcard names, {@code *.example.com} is kept as
+   *                         {@code example.com}
+   */
+  private record Identities(
+    Map<String, Identity> byName,
+    Map<String, Identity> byHostName,
+    Map<String, Identity> byWildcardDomain)
+  {
+    static Identities of(Map<String, Identity> byName) {
+      Map<String, Identity> byHostName = new HashMap<>();
+      Map<String, Identity> byWildcardDomain = new HashMap<>();
+
+      for (Identity identity : byName.values()) {
+        for (String hostName : identity.hostNames()) {
+          Identity other = hostName.startsWith("*.")
+            ? byWildcardDomain.putIfAbsent(hostName.substring(2), identity)
+            : byHostName.putIfAbsent(hostName, identity);
+          if (other != null) {
+            LOGGER.warn("{} is served by {}, the identity {} is ignored for it", hostName, other.name(), identity.name());
+          }
+        }
+      }
+
+      return new Identities(byName, byHostName, byWildcardDomain);
+    }
+
+    /**
+     * A wildcard only matches the leftmost label, so {@code *.example.com} matches {@code a.example.com} but not
+     * {@code a.b.example.com}.
+     */
+    Identity lookup(String hostName) {
+      String lowerCaseHostName = hostName.toLowerCase(Locale.ROOT);
+      Identity identity = byHostName.get(lowerCaseHostName);
+      if (identity != null) {
+        return identity;
+      }
+
+      int firstDot = lowerCaseHostName.indexOf('.');
+      return firstDot > 0 ? byWildcardDomain.get(lowerCaseHostName.substring(firstDot + 1)) : null;
+    }
+  }
+}
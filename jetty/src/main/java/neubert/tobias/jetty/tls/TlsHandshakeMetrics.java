@@ -0,0 +1,109 @@
+package neubert.tobias.jetty.tls;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSession;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.eclipse.jetty.io.Connection;
+import org.eclipse.jetty.io.ssl.SslConnection;
+import org.eclipse.jetty.io.ssl.SslHandshakeListener;
+
+import java.security.cert.Certificate;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Times the TLS handshakes of the connector from the opening of the connection to the end of the handshake, split
+ * into full and resumed handshakes. A handshake is counted as resumed if its session is older than the connection.
+ * The ratio of resumed handshakes is the hit ratio of the server session cache. The key algorithm of the served
+ * certificate shows the split between RSA and ECDSA clients.
+ */
+public class TlsHandshakeMetrics implements SslHandshakeListener, Connection.Listener, MeterBinder {
+  private final Map<SSLEngine, Opened> openedConnections = new ConcurrentHashMap<>();
+  private final LongAdder fullHandshakes = new LongAdder();
+  private final LongAdder resumedHandshakes = new LongAdder();
+
+  private volatile MeterRegistry meterRegistry;
+
+  @Override
+  public void onOpened(Connection connection) {
+    if (connection instanceof SslConnection sslConnection) {
+      openedConnections.put(sslConnection.getSSLEngine(), new Opened(System.nanoTime(), System.currentTimeMillis()));
+    }
+  }
+
+  @Override
+  public void onClosed(Connection connection) {
+    if (connection instanceof SslConnection sslConnection) {
+      openedConnections.remove(sslConnection.getSSLEngine());
+    }
+  }
+
+  @Override
+  public void handshakeSucceeded(Event event) {
+    SSLEngine sslEngine = event.getSSLEngine();
+    Opened opened = openedConnections.remove(sslEngine);
+    if (opened == null) {
+      return;
+    }
+
+    boolean resumed = sslEngine.getSession().getCreationTime() < opened.currentTimeMillis();
+    (resumed ? resumedHandshakes : fullHandshakes).increment();
+
+    MeterRegistry registry = meterRegistry;
+    if (registry != null) {
+      Timer.builder("tls.handshake")
+        .description("Duration of the TLS handshakes of the server")
+        .tag("type", resumed ? "resumed" : "full")
+        .tag("algorithm", keyAlgorithm(sslEngine.getSession()))
+        .register(registry)
+        .record(System.nanoTime() - opened.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+  }
+
+  @Override
+  public void handshakeFailed(Event event, Throwable failure) {
+    openedConnections.remove(event.getSSLEngine());
+
+    MeterRegistry registry = meterRegistry;
+    if (registry != null) {
+      Counter.builder("tls.handshake.failures")
+        .description("Failed TLS handshakes of the server")
+        .tag("exception", failure.getClass().getSimpleName())
+        .register(registry)
+        .increment();
+    }
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    Gauge.builder("tls.server.session.cache.hit.ratio", this, TlsHandshakeMetrics::sessionCacheHitRatio)
+      .description("Ratio of resumed to all successful TLS handshakes of the server")
+      .register(registry);
+    meterRegistry = registry;
+  }
+
+  private static String keyAlgorithm(SSLSession sslSession) {
+    Certificate[] localCertificates = sslSession.getLocalCertificates();
+
+    return localCertificates != null && localCertificates.length > 0
+      ? localCertificates[0].getPublicKey().getAlgorithm()
+      : "none";
+  }
+
+  private double sessionCacheHitRatio() {
+    double resumed = resumedHandshakes.sum();
+    double all = resumed + fullHandshakes.sum();
+
+    return all == 0 ? 0 : resumed / all;
+  }
+
+  private record Opened(long nanoTime, long currentTimeMillis) {
+  }
+}
@@ -2,10 +2,28 @@ package neubert.tobias.jetty.tls;
 
 import org.springframework.core.io.Resource;
 
+import java.time.Duration;
 
+
+/**
+ * @param ecIdentityCertResource optional ECDSA certificate that is served alongside the RSA identity to clients
+ *                               supporting it
+ * @param ecIdentityKeyResource the private key of the optional ECDSA certificate
+ * @param identityDirectoryResource optional directory with further identities that are chosen by SNI
+ * @param warmUpHandshakes number of loopback handshakes that new TLS material has to pass before it is served
+ */
 public record TlsJettyProperties(
   Resource identityCertResource,
   Resource identityKeyResource,
-  Resource trustResource)
+  Resource ecIdentityCertResource,
+  Resource ecIdentityKeyResource,
+  Resource identityDirectoryResource,
+  Resource trustResource,
+  int sessionCacheSize,
+  Duration sessionTimeout,
+  int warmUpHandshakes)
 {
+  public boolean hasEcIdentity() {
+    return ecIdentityCertResource != null && ecIdentityKeyResource != null;
+  }
 }
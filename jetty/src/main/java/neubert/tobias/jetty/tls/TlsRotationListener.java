@@ -0,0 +1,21 @@
+package neubert.tobias.jetty.tls;
+
+import java.security.cert.Certificate;
+import java.util.Set;
+
+
+/**
+ * Beans of this type are notified by the {@link FileBasedTlsUpdateService} after the identity of the server has
+ * been swapped.
+ */
+public interface TlsRotationListener {
+  void identityRotated();
+
+  /**
+   * Called by the {@link SniIdentityUpdateService} after a single identity of the identity directory has been
+   * swapped. Only connections that were established with one of the retired certificates are affected.
+   */
+  default void identityRotated(Set<Certificate> retiredCertificates) {
+    identityRotated();
+  }
+}
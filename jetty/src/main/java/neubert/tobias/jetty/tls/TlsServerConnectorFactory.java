@@ -0,0 +1,125 @@
+package neubert.tobias.jetty.tls;
+
+import org.eclipse.jetty.alpn.server.ALPNServerConnectionFactory;
+import org.eclipse.jetty.http2.server.HTTP2ServerConnectionFactory;
+import org.eclipse.jetty.server.ConnectionFactory;
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.eclipse.jetty.server.SecureRequestCustomizer;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.SslConnectionFactory;
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.springframework.boot.autoconfigure.web.ServerProperties;
+
+import java.time.Duration;
+import java.util.stream.IntStream;
+
+
+/**
+ * Creates the TLS connectors of the server. Acceptors, selectors and the idle timeout are taken from
+ * {@code server.jetty.*}, everything else from {@link JettyConnectorProperties} and {@link Http2Properties}.
+ */
+public class TlsServerConnectorFactory {
+  private final SslContextFactory.Server sslContextFactory;
+  private final ServerProperties serverProperties;
+  private final Http2Properties http2Properties;
+  private final JettyConnectorProperties connectorProperties;
+  private final TlsHandshakeMetrics handshakeMetrics;
+  private final HandshakeAdmission handshakeAdmission;
+
+  public TlsServerConnectorFactory(
+    SslContextFactory.Server sslContextFactory,
+    ServerProperties serverProperties,
+    Http2Properties http2Properties,
+    JettyConnectorProperties connectorProperties,
+    TlsHandshakeMetrics handshakeMetrics,
+    HandshakeAdmission handshakeAdmission)
+  {
+    this.sslContextFactory = sslContextFactory;
+    this.serverProperties = serverProperties;
+    this.http2Properties = http2Properties;
+    this.connectorProperties = connectorProperties;
+    this.handshakeMetrics = handshakeMetrics;
+    this.handshakeAdmission = handshakeAdmission;
+  }
+
+  public Connector[] createConnectors(Server server) {
+    return IntStream.range(0, connectorCount())
+      .mapToObj(i -> serverConnector(server))
+      .toArray(Connector[]::new);
+  }
+
+  /**
+   * Several connectors can only share a fixed port. A random port would be different for each of them.
+   */
+  private int connectorCount() {
+    Integer port = serverProperties.getPort();
+    if (!connectorProperties.reusePort() || connectorProperties.coresPerConnector() <= 0 || port == null || port == 0) {
+      return 1;
+    }
+
+    int cores = Runtime.getRuntime().availableProcessors();
+    return Math.max(1, (cores + connectorProperties.coresPerConnector() - 1) / connectorProperties.coresPerConnector());
+  }
+
+  private ServerConnector serverConnector(Server server) {
+    ServerProperties.Jetty.Threads threads = serverProperties.getJetty().getThreads();
+    int acceptors = threads.getAcceptors() != null ? threads.getAcceptors() : -1;
+    int selectors = threads.getSelectors() != null ? threads.getSelectors() : -1;
+
+    ConnectionFactory[] connectionFactories = connectionFactories();
+    ServerConnector serverConnector = connectorProperties.reusePort()
+      ? new ReusePortServerConnector(server, acceptors, selectors, connectionFactories)
+      : new ServerConnector(server, acceptors, selectors, connectionFactories);
+
+    if (serverProperties.getPort() != null) {
+      serverConnector.setPort(serverProperties.getPort());
+    }
+    Duration idleTimeout = serverProperties.getJetty().getConnectionIdleTimeout();
+    if (idleTimeout != null) {
+      serverConnector.setIdleTimeout(idleTimeout.toMillis());
+    }
+    serverConnector.setAcceptQueueSize(connectorProperties.acceptQueueSize());
+    serverConnector.setAcceptedTcpNoDelay(connectorProperties.tcpNoDelay());
+    serverConnector.addBean(handshakeMetrics);
+
+    return serverConnector;
+  }
+
+  /**
+   * The {@link SecureRequestCustomizer} exposes the certificates of the client to the requests, as
+   * {@code javax.servlet.request.X509Certificate}. Without HTTP/2 the connector speaks HTTP/1.1 only. With HTTP/2 ALPN negotiates the protocol on top of the same
+   * swappable {@link SslContextFactory.Server}, clients without ALPN support fall back to HTTP/1.1.
+   */
+  private ConnectionFactory[] connectionFactories() {
+    HttpConfiguration httpConfiguration = new HttpConfiguration();
+    httpConfiguration.setSecureScheme("https");
+    httpConfiguration.addCustomizer(new SecureRequestCustomizer());
+
+    HttpConnectionFactory http11 = new HttpConnectionFactory(httpConfiguration);
+    if (!http2Properties.enabled()) {
+      return new ConnectionFactory[]{tls(http11.getProtocol()), http11};
+    }
+
+    HTTP2ServerConnectionFactory http2 = new HTTP2ServerConnectionFactory(httpConfiguration);
+    http2.setMaxConcurrentStreams(http2Properties.maxConcurrentStreams());
+    http2.setInitialSessionRecvWindow(http2Properties.initialSessionRecvWindow());
+    http2.setInitialStreamRecvWindow(http2Properties.initialStreamRecvWindow());
+
+    ALPNServerConnectionFactory alpn = new ALPNServerConnectionFactory();
+    alpn.setDefaultProtocol(http11.getProtocol());
+
+    return new ConnectionFactory[]{tls(alpn.getProtocol()), alpn, http2, http11};
+  }
+
+  /**
+   * Without any limit of the {@link HandshakeAdmission} every handshake starts right away.
+   */
+  private SslConnectionFactory tls(String nextProtocol) {
+    return handshakeAdmission.isEnabled()
+      ? new AdmittingSslConnectionFactory(sslContextFactory, nextProtocol, handshakeAdmission)
+      : new SslConnectionFactory(sslContextFactory, nextProtocol);
+  }
+}
@@ -0,0 +1,77 @@
+package neubert.tobias.jetty.tls;
+
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.X509ExtendedTrustManager;
+import javax.net.ssl.X509KeyManager;
+import neubert.tobias.spring.tls.watcher.ServedCertificates;
+
+import java.security.cert.Certificate;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.function.Predicate;
+
+
+/**
+ * Invalidates only those cached server sessions that are affected by a rotation, all others can still be resumed.
+ */
+final class TlsSessionInvalidator {
+  private TlsSessionInvalidator() {
+  }
+
+  /**
+   * Invalidates the sessions whose local certificate is not served by the given key manager anymore.
+   *
+   * @return the number of invalidated sessions
+   */
+  static int invalidateForeignIdentities(SSLSessionContext sessionContext, X509KeyManager keyManager) {
+    Set<X509Certificate> servedCertificates = ServedCertificates.of(keyManager);
+
+    return invalidate(sessionContext, sslSession -> {
+      Certificate[] localCertificates = sslSession.getLocalCertificates();
+      return localCertificates != null
+        && localCertificates.length > 0
+        && !servedCertificates.contains(localCertificates[0]);
+    });
+  }
+
+  /**
+   * Invalidates the sessions of clients whose certificate chain is not trusted by the given trust manager anymore.
+   *
+   * @return the number of invalidated sessions
+   */
+  static int invalidateUntrustedPeers(SSLSessionContext sessionContext, X509ExtendedTrustManager trustManager) {
+    return invalidate(sessionContext, sslSession -> {
+      try {
+        Certificate[] peerCertificates = sslSession.getPeerCertificates();
+        X509Certificate[] peerChain = Arrays.copyOf(peerCertificates, peerCertificates.length, X509Certificate[].class);
+        trustManager.checkClientTrusted(peerChain, peerChain[0].getPublicKey().getAlgorithm());
+        return false;
+      }
+      catch (SSLPeerUnverifiedException e) {
+        // no client authentication, nothing to check
+        return false;
+      }
+      catch (CertificateException | ArrayStoreException e) {
+        return true;
+      }
+    });
+  }
+
+  private static int invalidate(SSLSessionContext sessionContext, Predicate<SSLSession> affected) {
+    int invalidated = 0;
+    for (byte[] sessionId : Collections.list(sessionContext.getIds())) {
+      SSLSession sslSession = sessionContext.getSession(sessionId);
+      if (sslSession != null && affected.test(sslSession)) {
+        sslSession.invalidate();
+        invalidated++;
+      }
+    }
+
+    return invalidated;
+  }
+}
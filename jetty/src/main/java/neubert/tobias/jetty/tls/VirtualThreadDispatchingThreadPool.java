@@ -0,0 +1,53 @@
+package neubert.tobias.jetty.tls;
+
+import org.eclipse.jetty.server.HttpChannel;
+import org.eclipse.jetty.util.thread.Invocable;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+
+
+/**
+ * Jetty 9.4 knows nothing about virtual threads. This pool keeps the acceptors, the selectors and all non-blocking
+ * tasks on its platform threads and starts a virtual thread for every task that may block, that is the handling of
+ * a request. A blocking call within a controller then parks its virtual thread instead of occupying the pool.
+ */
+class VirtualThreadDispatchingThreadPool extends QueuedThreadPool {
+  private final ThreadFactory virtualThreadFactory = VirtualThreads.threadFactory("jetty-tls-virtual", true);
+
+  VirtualThreadDispatchingThreadPool(int maxThreads, int minThreads, int idleTimeout, BlockingQueue<Runnable> queue) {
+    super(maxThreads, minThreads, idleTimeout, queue);
+  }
+
+  @Override
+  public void execute(Runnable job) {
+    if (mayBlock(job)) {
+      virtualThreadFactory.newThread(job).start();
+    }
+    else {
+      super.execute(job);
+    }
+  }
+
+  /**
+   * Without reserved threads the selectors hand every blocking task to {@link #execute(Runnable)} instead of running
+   * it on the selector thread.
+   */
+  @Override
+  public boolean tryExecute(Runnable task) {
+    return false;
+  }
+
+  /**
+   * Acceptors and selectors are plain runnables. Tasks produced by the selectors are callbacks that declare whether
+   * they block, requests that are dispatched again after async processing are run by the channel itself.
+   */
+  private static boolean mayBlock(Runnable job) {
+    if (job instanceof HttpChannel) {
+      return true;
+    }
+
+    return job instanceof Invocable && Invocable.getInvocationType(job) != Invocable.InvocationType.NON_BLOCKING;
+  }
+}
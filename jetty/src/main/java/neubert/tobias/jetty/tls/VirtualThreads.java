@@ -0,0 +1,66 @@
+package neubert.tobias.jetty.tls;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ThreadFactory;
+
+
+/**
+ * Creates virtual threads on Java 21 and later. The build targets Java 17, therefore the API is looked up
+ * reflectively and every caller falls back to platform threads if it is not available.
+ */
+final class VirtualThreads {
+  private static final MethodHandle OF_VIRTUAL;
+  private static final MethodHandle NAME;
+  private static final MethodHandle FACTORY;
+
+  static {
+    MethodHandle ofVirtual = null;
+    MethodHandle name = null;
+    MethodHandle factory = null;
+    try {
+      MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+      Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+      Class<?> ofVirtualClass = Class.forName("java.lang.Thread$Builder$OfVirtual");
+      ofVirtual = lookup.findStatic(Thread.class, "ofVirtual", MethodType.methodType(ofVirtualClass));
+      name = lookup.findVirtual(builderClass, "name", MethodType.methodType(builderClass, String.class, long.class));
+      factory = lookup.findVirtual(builderClass, "factory", MethodType.methodType(ThreadFactory.class));
+    }
+    catch (ReflectiveOperationException e) {
+      // Java 20 or older
+    }
+    OF_VIRTUAL = ofVirtual;
+    NAME = name;
+    FACTORY = factory;
+  }
+
+  private VirtualThreads() {
+  }
+
+  static boolean isSupported() {
+    return OF_VIRTUAL != null;
+  }
+
+  /**
+   * @return a factory of virtual threads named {@code <name>-<n>} if they are requested and supported, a factory
+   *         of daemon platform threads named {@code <name>} otherwise
+   */
+  static ThreadFactory threadFactory(String name, boolean virtual) {
+    if (virtual && isSupported()) {
+      try {
+        Object builder = NAME.invoke(OF_VIRTUAL.invoke(), name + "-", 0L);
+        return (ThreadFactory) FACTORY.invoke(builder);
+      }
+      catch (Throwable e) {
+        throw new IllegalStateException("Cannot create a factory of virtual threads", e);
+      }
+    }
+
+    return runnable -> {
+      Thread thread = new Thread(runnable, name);
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+}
@@ -0,0 +1,120 @@
+package neubert.tobias.jetty.tls;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import nl.altindag.ssl.util.PemUtils;
+import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+
+/**
+ * A client that offers a session of a server which has been restarted with a new {@link SSLContext} cannot resume
+ * it, its handshake is a full one although it went through the resumed lane.
+ */
+class AdmittingSslConnectionFactoryTest {
+  private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+  private final HandshakeAdmission admission =
+    new HandshakeAdmission(new HandshakeAdmissionProperties(0, 1000, 64, 10, Duration.ofSeconds(10)));
+
+  private SSLContext clientContext;
+  private Server server;
+  private int port;
+
+  @BeforeEach
+  void setup() throws Exception {
+    admission.bindTo(registry);
+    clientContext = SSLContext.getInstance("TLS");
+    clientContext.init(null, new TrustManager[] {new TrustAllManager()}, null);
+  }
+
+  @AfterEach
+  void stopServer() throws Exception {
+    server.stop();
+    admission.destroy();
+  }
+
+  @Test
+  void chargesOnlyTheResumptionsThatFailed() throws Exception {
+    startServer();
+    handshake();
+    handshake();
+    assertThat(charged()).isZero();
+
+    server.stop();
+    startServer();
+    handshake();
+
+    assertThat(charged()).isEqualTo(1);
+  }
+
+  private void startServer() throws Exception {
+    SSLContext sslContext = SSLContext.getInstance("TLS");
+    try (
+      InputStream certificate = getClass().getResourceAsStream("/tls/tobias-certificate.pem");
+      InputStream privateKey = getClass().getResourceAsStream("/tls/tobias-private.key"))
+    {
+      sslContext.init(new KeyManager[] {PemUtils.loadIdentityMaterial(certificate, privateKey)}, null, null);
+    }
+    SslContextFactory.Server sslContextFactory = new SslContextFactory.Server();
+    sslContextFactory.setSslContext(sslContext);
+
+    server = new Server();
+    HttpConnectionFactory http11 = new HttpConnectionFactory();
+    ServerConnector connector = new ServerConnector(
+      server,
+      new AdmittingSslConnectionFactory(sslContextFactory, http11.getProtocol(), admission),
+      http11);
+    connector.setPort(port);
+    server.addConnector(connector);
+    server.start();
+    port = connector.getLocalPort();
+  }
+
+  /**
+   * The session of TLS 1.3 is only known to the client once it has read from the server.
+   */
+  private void handshake() throws Exception {
+    try (SSLSocket socket = (SSLSocket) clientContext.getSocketFactory().createSocket("localhost", port)) {
+      socket.startHandshake();
+      socket.getOutputStream().write("GET / HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes());
+      socket.getOutputStream().flush();
+      assertThat(socket.getInputStream().read()).isNotNegative();
+    }
+  }
+
+  private double charged() {
+    return registry.get("tls.handshake.admission").tag("lane", "full").tag("outcome", "charged")
+      .functionCounter()
+      .count();
+  }
+
+  private static final class TrustAllManager implements X509TrustManager {
+    @Override
+    public void checkClientTrusted(X509Certificate[] chain, String authType) {
+    }
+
+    @Override
+    public void checkServerTrusted(X509Certificate[] chain, String authType) {
+    }
+
+    @Override
+    public X509Certificate[] getAcceptedIssuers() {
+      return new X509Certificate[0];
+    }
+  }
+}
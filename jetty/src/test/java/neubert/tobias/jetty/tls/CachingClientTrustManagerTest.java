@@ -0,0 +1,210 @@
+package neubert.tobias.jetty.tls;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.X509ExtendedTrustManager;
+import nl.altindag.ssl.util.PemUtils;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.Date;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+
+class CachingClientTrustManagerTest {
+  private final X509Certificate[] tobias = chain("/tls/tobias-certificate.pem");
+  private final X509Certificate[] flyingDesks = chain("/tls/flying-desks-certificate.pem");
+
+  @Test
+  void validatesAClientOnlyOnce() throws Exception {
+    CountingTrustManager delegate = new CountingTrustManager(true);
+    CachingClientTrustManager trustManager = new CachingClientTrustManager(delegate, 10, Duration.ofHours(1));
+
+    trustManager.checkClientTrusted(tobias, "RSA");
+    trustManager.checkClientTrusted(tobias, "RSA");
+    trustManager.checkClientTrusted(flyingDesks, "RSA");
+
+    assertThat(delegate.clientChecks).isEqualTo(2);
+  }
+
+  @Test
+  void validatesAClientAgainAfterTheTtl() throws Exception {
+    CountingTrustManager delegate = new CountingTrustManager(true);
+    CachingClientTrustManager trustManager = new CachingClientTrustManager(delegate, 10, Duration.ofMillis(100));
+
+    trustManager.checkClientTrusted(tobias, "RSA");
+    Thread.sleep(150);
+    trustManager.checkClientTrusted(tobias, "RSA");
+
+    assertThat(delegate.clientChecks).isEqualTo(2);
+  }
+
+  @Test
+  void validatesAClientAgainAfterItsCertificateExpired() throws Exception {
+    X509Certificate leaf = mock(X509Certificate.class);
+    when(leaf.getEncoded()).thenReturn(tobias[0].getEncoded());
+    when(leaf.getNotAfter()).thenReturn(new Date(System.currentTimeMillis() + 100));
+    CountingTrustManager delegate = new CountingTrustManager(true);
+    CachingClientTrustManager trustManager = new CachingClientTrustManager(delegate, 10, Duration.ofHours(1));
+
+    trustManager.checkClientTrusted(new X509Certificate[] {leaf}, "RSA");
+    Thread.sleep(150);
+    trustManager.checkClientTrusted(new X509Certificate[] {leaf}, "RSA");
+
+    assertThat(delegate.clientChecks).isEqualTo(2);
+  }
+
+  @Test
+  void clearsTheCacheWhenTheTrustIsSwapped() throws Exception {
+    CachingClientTrustManager trustManager =
+      new CachingClientTrustManager(new CountingTrustManager(true), 10, Duration.ofHours(1));
+    trustManager.checkClientTrusted(tobias, "RSA");
+
+    trustManager.swapTrustManager(new CountingTrustManager(false));
+
+    assertThatThrownBy(() -> trustManager.checkClientTrusted(tobias, "RSA")).isInstanceOf(CertificateException.class);
+  }
+
+  @Test
+  void forgetsAValidationAgainstTheOldTrustThatEndsAfterTheSwap() throws Exception {
+    CountDownLatch validating = new CountDownLatch(1);
+    CountDownLatch swapped = new CountDownLatch(1);
+    CountingTrustManager oldTrust = new CountingTrustManager(true) {
+      @Override
+      public void checkClientTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+        validating.countDown();
+        try {
+          swapped.await();
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        super.checkClientTrusted(chain, authType);
+      }
+    };
+    CachingClientTrustManager trustManager = new CachingClientTrustManager(oldTrust, 10, Duration.ofHours(1));
+
+    CompletableFuture<Void> oldValidation = CompletableFuture.runAsync(() -> {
+      try {
+        trustManager.checkClientTrusted(tobias, "RSA");
+      }
+      catch (CertificateException e) {
+        throw new IllegalStateException(e);
+      }
+    });
+    validating.await();
+    trustManager.swapTrustManager(new CountingTrustManager(false));
+    swapped.countDown();
+    oldValidation.get(5, TimeUnit.SECONDS);
+
+    assertThatThrownBy(() -> trustManager.checkClientTrusted(tobias, "RSA")).isInstanceOf(CertificateException.class);
+  }
+
+  @Test
+  void cachesNeitherRejectedClientsNorServers() throws Exception {
+    CountingTrustManager delegate = new CountingTrustManager(false);
+    CachingClientTrustManager trustManager = new CachingClientTrustManager(delegate, 10, Duration.ofHours(1));
+
+    for (int i = 0; i < 2; i++) {
+      assertThatThrownBy(() -> trustManager.checkClientTrusted(tobias, "RSA")).isInstanceOf(CertificateException.class);
+      assertThatThrownBy(() -> trustManager.checkServerTrusted(tobias, "RSA")).isInstanceOf(CertificateException.class);
+    }
+
+    assertThat(delegate.clientChecks).isEqualTo(2);
+    assertThat(delegate.serverChecks).isEqualTo(2);
+  }
+
+  @Test
+  void keepsAtMostMaxSizeClients() throws Exception {
+    CountingTrustManager delegate = new CountingTrustManager(true);
+    CachingClientTrustManager trustManager = new CachingClientTrustManager(delegate, 1, Duration.ofHours(1));
+
+    trustManager.checkClientTrusted(tobias, "RSA");
+    trustManager.checkClientTrusted(flyingDesks, "RSA");
+    trustManager.checkClientTrusted(tobias, "RSA");
+
+    assertThat(delegate.clientChecks).isEqualTo(3);
+  }
+
+  private static X509Certificate[] chain(String resource) {
+    try (InputStream certificate = CachingClientTrustManagerTest.class.getResourceAsStream(resource)) {
+      return PemUtils.loadCertificate(certificate).toArray(X509Certificate[]::new);
+    }
+    catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static class CountingTrustManager extends X509ExtendedTrustManager {
+    private final boolean trusted;
+
+    private int clientChecks;
+    private int serverChecks;
+
+    private CountingTrustManager(boolean trusted) {
+      this.trusted = trusted;
+    }
+
+    @Override
+    public void checkClientTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+      clientChecks++;
+      check();
+    }
+
+    @Override
+    public void checkClientTrusted(X509Certificate[] chain, String authType, Socket socket)
+      throws CertificateException
+    {
+      checkClientTrusted(chain, authType);
+    }
+
+    @Override
+    public void checkClientTrusted(X509Certificate[] chain, String authType, SSLEngine engine)
+      throws CertificateException
+    {
+      checkClientTrusted(chain, authType);
+    }
+
+    @Override
+    public void checkServerTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+      serverChecks++;
+      check();
+    }
+
+    @Override
+    public void checkServerTrusted(X509Certificate[] chain, String authType, Socket socket)
+      throws CertificateException
+    {
+      checkServerTrusted(chain, authType);
+    }
+
+    @Override
+    public void checkServerTrusted(X509Certificate[] chain, String authType, SSLEngine engine)
+      throws CertificateException
+    {
+      checkServerTrusted(chain, authType);
+    }
+
+    @Override
+    public X509Certificate[] getAcceptedIssuers() {
+      return new X509Certificate[0];
+    }
+
+    private void check() throws CertificateException {
+      if (!trusted) {
+        throw new CertificateException("not trusted");
+      }
+    }
+  }
+}
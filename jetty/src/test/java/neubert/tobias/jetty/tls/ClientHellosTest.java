@@ -0,0 +1,127 @@
+package neubert.tobias.jetty.tls;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+
+class ClientHellosTest {
+  private static final int SESSION_TICKET = 35;
+  private static final int PRE_SHARED_KEY = 41;
+  private static final int SUPPORTED_VERSIONS = 43;
+  private static final int SERVER_NAME = 0;
+
+  @Test
+  void findsNoSessionInAFullTls12Hello() {
+    assertThat(ClientHellos.offersResumption(clientHello(0, Map.of(SERVER_NAME, 12)))).isFalse();
+  }
+
+  @Test
+  void findsTheSessionIdOfATls12Hello() {
+    assertThat(ClientHellos.offersResumption(clientHello(32, Map.of(SERVER_NAME, 12)))).isTrue();
+    assertThat(ClientHellos.offersResumption(clientHello(32, null))).isTrue();
+  }
+
+  @Test
+  void findsTheSessionTicketOfATls12Hello() {
+    assertThat(ClientHellos.offersResumption(clientHello(0, Map.of(SESSION_TICKET, 192)))).isTrue();
+    // an empty extension only announces the support of tickets
+    assertThat(ClientHellos.offersResumption(clientHello(0, Map.of(SESSION_TICKET, 0)))).isFalse();
+  }
+
+  @Test
+  void findsThePreSharedKeyOfATls13Hello() {
+    Map<Integer, Integer> extensions = new LinkedHashMap<>();
+    extensions.put(SUPPORTED_VERSIONS, 5);
+    extensions.put(PRE_SHARED_KEY, 64);
+
+    assertThat(ClientHellos.offersResumption(clientHello(32, extensions))).isTrue();
+  }
+
+  @Test
+  void ignoresTheCompatibilitySessionIdOfATls13Hello() throws Exception {
+    assertThat(ClientHellos.offersResumption(clientHello(32, Map.of(SUPPORTED_VERSIONS, 5)))).isFalse();
+    assertThat(ClientHellos.offersResumption(jdkClientHello())).isFalse();
+  }
+
+  @Test
+  void findsNoSessionInRecordsThatAreNoClientHello() {
+    ByteBuffer hello = clientHello(32, null);
+    ByteBuffer truncated = hello.duplicate().limit(50);
+    ByteBuffer plainHttp = ByteBuffer.wrap("GET / HTTP/1.1\r\n".getBytes());
+
+    assertThat(ClientHellos.offersResumption(truncated)).isFalse();
+    assertThat(ClientHellos.offersResumption(plainHttp)).isFalse();
+    assertThat(hello.position()).isZero();
+  }
+
+  @Test
+  void waitsForTheWholeRecord() {
+    ByteBuffer hello = clientHello(0, Map.of(SERVER_NAME, 12));
+
+    assertThat(ClientHellos.isComplete(hello.duplicate().limit(3))).isFalse();
+    assertThat(ClientHellos.isComplete(hello.duplicate().limit(hello.limit() - 1))).isFalse();
+    assertThat(ClientHellos.isComplete(hello)).isTrue();
+    assertThat(ClientHellos.isComplete(ByteBuffer.wrap("GET".getBytes()))).isTrue();
+  }
+
+  /**
+   * @param extensions the type and the length of every extension, whose content is zeros, null for a hello without
+   *                   extensions
+   */
+  private static ByteBuffer clientHello(int sessionIdLength, Map<Integer, Integer> extensions) {
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    writeShort(body, 0x0303);
+    body.writeBytes(new byte[32]);
+    body.write(sessionIdLength);
+    body.writeBytes(new byte[sessionIdLength]);
+    writeShort(body, 2);
+    writeShort(body, 0x1301);
+    body.write(1);
+    body.write(0);
+    if (extensions != null) {
+      ByteArrayOutputStream extensionBytes = new ByteArrayOutputStream();
+      extensions.forEach((type, length) -> {
+        writeShort(extensionBytes, type);
+        writeShort(extensionBytes, length);
+        extensionBytes.writeBytes(new byte[length]);
+      });
+      writeShort(body, extensionBytes.size());
+      body.writeBytes(extensionBytes.toByteArray());
+    }
+
+    ByteArrayOutputStream record = new ByteArrayOutputStream();
+    record.write(22);
+    writeShort(record, 0x0301);
+    writeShort(record, 4 + body.size());
+    record.write(1);
+    record.write(0);
+    writeShort(record, body.size());
+    record.writeBytes(body.toByteArray());
+
+    return ByteBuffer.wrap(record.toByteArray());
+  }
+
+  private static void writeShort(ByteArrayOutputStream out, int value) {
+    out.write(value >>> 8);
+    out.write(value);
+  }
+
+  private static ByteBuffer jdkClientHello() throws Exception {
+    SSLContext sslContext = SSLContext.getInstance("TLSv1.3");
+    sslContext.init(null, null, null);
+    SSLEngine engine = sslContext.createSSLEngine("localhost", 443);
+    engine.setUseClientMode(true);
+
+    ByteBuffer hello = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+    engine.wrap(ByteBuffer.allocate(0), hello);
+    return hello.flip();
+  }
+}
@@ -0,0 +1,226 @@
+package neubert.tobias.jetty.tls;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SNIHostName;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509ExtendedKeyManager;
+import javax.net.ssl.X509TrustManager;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import nl.altindag.ssl.util.PemUtils;
+import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.SslConnectionFactory;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+
+/**
+ * The server serves the identity of tobias by default and the api identity to clients that ask for
+ * {@code api.example.com}, so the connections of a single server are established with different certificates.
+ */
+class ConnectionDrainerTest {
+  private static final Duration DRAIN_WINDOW = Duration.ofMillis(500);
+
+  private final X509ExtendedKeyManager defaultIdentity = identity("tls/tobias");
+  private final X509ExtendedKeyManager apiIdentity = identity("tls/sni/api");
+  private final CountDownLatch slowRequestStarted = new CountDownLatch(1);
+  private final CountDownLatch slowRequestReleased = new CountDownLatch(1);
+
+  private Server server;
+  private ConnectionDrainer drainer;
+
+  @BeforeEach
+  void startServer() throws Exception {
+    SniKeyManager keyManager = new SniKeyManager(defaultIdentity);
+    keyManager.putIdentity("api", apiIdentity);
+    SSLContext sslContext = SSLContext.getInstance("TLS");
+    sslContext.init(new KeyManager[] {keyManager}, null, null);
+    SslContextFactory.Server sslContextFactory = new SslContextFactory.Server();
+    sslContextFactory.setSslContext(sslContext);
+
+    server = new Server();
+    ServerConnector connector =
+      new ServerConnector(server, new SslConnectionFactory(sslContextFactory, "http/1.1"), new HttpConnectionFactory());
+    server.addConnector(connector);
+    server.setHandler(new AbstractHandler() {
+      @Override
+      public void handle(
+        String target,
+        Request baseRequest,
+        HttpServletRequest request,
+        HttpServletResponse response) throws IOException
+      {
+        if ("/slow".equals(target)) {
+          slowRequestStarted.countDown();
+          awaitQuietly(slowRequestReleased);
+        }
+        response.setContentLength(4);
+        response.getOutputStream().write("pong".getBytes(StandardCharsets.US_ASCII));
+        baseRequest.setHandled(true);
+      }
+    });
+    server.start();
+  }
+
+  @AfterEach
+  void stopServer() throws Exception {
+    drainer.destroy();
+    server.stop();
+  }
+
+  @Test
+  void drainsOnlyTheConnectionsOfRetiredCertificatesWithinTheWindow() throws Exception {
+    drainer = new ConnectionDrainer(new ConnectionDrainProperties(Duration.ZERO, DRAIN_WINDOW));
+    drainer.customize(server);
+    try (SSLSocket retired = connect(null); SSLSocket current = connect("api.example.com")) {
+      long start = System.nanoTime();
+      drainer.identityRotated(Set.of(certificateOf(defaultIdentity)));
+
+      retired.setSoTimeout((int) DRAIN_WINDOW.toMillis() + 2000);
+      assertThat(retired.getInputStream().read()).isEqualTo(-1);
+      assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(DRAIN_WINDOW.plusSeconds(1));
+
+      current.setSoTimeout((int) DRAIN_WINDOW.toMillis());
+      assertThatThrownBy(() -> current.getInputStream().read()).isInstanceOf(SocketTimeoutException.class);
+      assertThat(ping(current)).isEqualTo("pong");
+    }
+  }
+
+  @Test
+  void leavesHttp11ConnectionsOpenWithoutADrainWindow() throws Exception {
+    drainer = new ConnectionDrainer(new ConnectionDrainProperties(Duration.ZERO, Duration.ZERO));
+    drainer.customize(server);
+    try (SSLSocket retired = connect(null)) {
+      drainer.identityRotated(Set.of(certificateOf(defaultIdentity)));
+
+      assertThat(ping(retired)).isEqualTo("pong");
+    }
+  }
+
+  @Test
+  void closesABusyConnectionAfterItsResponse() throws Exception {
+    drainer = new ConnectionDrainer(new ConnectionDrainProperties(Duration.ZERO, Duration.ofMillis(1)));
+    drainer.customize(server);
+    try (SSLSocket retired = connect(null)) {
+      send(retired, "/slow");
+      assertThat(slowRequestStarted.await(5, TimeUnit.SECONDS)).isTrue();
+
+      drainer.identityRotated(Set.of(certificateOf(defaultIdentity)));
+      Thread.sleep(200);
+      slowRequestReleased.countDown();
+
+      assertThat(receive(retired)).isEqualTo("pong");
+      retired.setSoTimeout(2000);
+      assertThat(retired.getInputStream().read()).isEqualTo(-1);
+    }
+  }
+
+  /**
+   * The connection is idle after the first request, so the server knows the certificate it was established with.
+   */
+  private SSLSocket connect(String hostName) throws Exception {
+    SSLContext sslContext = SSLContext.getInstance("TLS");
+    sslContext.init(null, new TrustManager[] {new TrustAllManager()}, null);
+    SSLSocket socket = (SSLSocket) sslContext.getSocketFactory().createSocket("localhost", port());
+    if (hostName != null) {
+      SSLParameters parameters = socket.getSSLParameters();
+      parameters.setServerNames(List.of(new SNIHostName(hostName)));
+      socket.setSSLParameters(parameters);
+    }
+
+    assertThat(ping(socket)).isEqualTo("pong");
+    return socket;
+  }
+
+  private static String ping(SSLSocket socket) throws IOException {
+    send(socket, "/ping");
+    return receive(socket);
+  }
+
+  private static void send(SSLSocket socket, String path) throws IOException {
+    String request = "GET " + path + " HTTP/1.1\r\nHost: localhost\r\n\r\n";
+    socket.getOutputStream().write(request.getBytes(StandardCharsets.US_ASCII));
+    socket.getOutputStream().flush();
+  }
+
+  private static String receive(SSLSocket socket) throws IOException {
+    StringBuilder head = new StringBuilder();
+    InputStream in = socket.getInputStream();
+    while (!head.toString().endsWith("\r\n\r\n")) {
+      int next = in.read();
+      if (next < 0) {
+        throw new IOException("connection closed");
+      }
+      head.append((char) next);
+    }
+
+    return new String(in.readNBytes(4), StandardCharsets.US_ASCII);
+  }
+
+  private static void awaitQuietly(CountDownLatch latch) {
+    try {
+      latch.await(5, TimeUnit.SECONDS);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private int port() {
+    return ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+  }
+
+  private static X509Certificate certificateOf(X509ExtendedKeyManager keyManager) {
+    return keyManager.getCertificateChain(keyManager.getServerAliases("RSA", null)[0])[0];
+  }
+
+  private static X509ExtendedKeyManager identity(String resource) {
+    try (
+      InputStream certificate = ConnectionDrainerTest.class.getResourceAsStream("/" + resource + "-certificate.pem");
+      InputStream privateKey = ConnectionDrainerTest.class.getResourceAsStream("/" + resource + "-private.key"))
+    {
+      return PemUtils.loadIdentityMaterial(certificate, privateKey);
+    }
+    catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static final class TrustAllManager implements X509TrustManager {
+    @Override
+    public void checkClientTrusted(X509Certificate[] chain, String authType) {
+    }
+
+    @Override
+    public void checkServerTrusted(X509Certificate[] chain, String authType) {
+    }
+
+    @Override
+    public X509Certificate[] getAcceptedIssuers() {
+      return new X509Certificate[0];
+    }
+  }
+}
@@ -0,0 +1,84 @@
+package neubert.tobias.jetty.tls;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+
+import java.security.cert.X509Certificate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+
+/**
+ * The ECDSA identity was created like this:
+ * <pre>
+ * openssl req -x509 -sha256 -nodes -days 36500 -newkey ec -pkeyopt ec_paramgen_curve:prime256v1 \
+ *   -keyout ec-private.key -out ec-certificate.pem
+ * </pre>
+ * With TLS 1.2 the cipher suite of the client determines the key algorithm of the server certificate.
+ */
+@SpringBootTest(
+  webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+  properties = {
+    "neubert.tobias.tls.ec-identity-cert-resource=classpath:tls/ec-certificate.pem",
+    "neubert.tobias.tls.ec-identity-key-resource=classpath:tls/ec-private.key"
+  })
+@ExtendWith({TlsExtension.class})
+class EcIdentityTest {
+  @LocalServerPort
+  private int serverPort;
+
+  @Autowired
+  private FileBasedTlsUpdateService fileBasedTlsUpdateService;
+
+  @AfterEach
+  void releaseTlsFiles() {
+    fileBasedTlsUpdateService.stop();
+  }
+
+  @Test
+  void servesTheEcdsaIdentityToClientsThatSupportIt() throws Exception {
+    assertThat(serverKeyAlgorithm("TLS_ECDHE_ECDSA_WITH_AES_128_GCM_SHA256", "TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256"))
+      .isEqualTo("EC");
+  }
+
+  @Test
+  void servesTheRsaIdentityToClientsThatOnlySupportRsa() throws Exception {
+    assertThat(serverKeyAlgorithm("TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256")).isEqualTo("RSA");
+  }
+
+  private String serverKeyAlgorithm(String... cipherSuites) throws Exception {
+    SSLContext clientContext = SSLContext.getInstance("TLS");
+    clientContext.init(null, new TrustManager[] {new TrustAllManager()}, null);
+
+    try (SSLSocket socket = (SSLSocket) clientContext.getSocketFactory().createSocket("localhost", serverPort)) {
+      socket.setEnabledProtocols(new String[] {"TLSv1.2"});
+      socket.setEnabledCipherSuites(cipherSuites);
+      socket.startHandshake();
+
+      return socket.getSession().getPeerCertificates()[0].getPublicKey().getAlgorithm();
+    }
+  }
+
+  private static final class TrustAllManager implements X509TrustManager {
+    @Override
+    public void checkClientTrusted(X509Certificate[] chain, String authType) {
+    }
+
+    @Override
+    public void checkServerTrusted(X509Certificate[] chain, String authType) {
+    }
+
+    @Override
+    public X509Certificate[] getAcceptedIssuers() {
+      return new X509Certificate[0];
+    }
+  }
+}
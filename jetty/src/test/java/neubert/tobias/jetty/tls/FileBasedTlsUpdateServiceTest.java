@@ -46,20 +46,32 @@ class FileBasedTlsUpdateServiceTest {
 
     Files.copy(TlsExtension.flyingDesksIdentityKeyPath, TlsExtension.identityKeyPath, REPLACE_EXISTING);
     Files.copy(TlsExtension.flyingDesksIdentityCertPath, TlsExtension.identityCertPath, REPLACE_EXISTING);
-    Thread.sleep(1000);
 
-    assertServerCertificate(pingUrl, "info@flying-desks.com, CN=localhost, OU=Development, O=Flying Desks GmbH");
+    awaitServerCertificate(pingUrl, "info@flying-desks.com, CN=localhost, OU=Development, O=Flying Desks GmbH");
 
     Files.copy(TlsExtension.tobiasIdentityCertPath, TlsExtension.identityCertPath, REPLACE_EXISTING);
     Files.copy(TlsExtension.tobiasIdentityKeyPath, TlsExtension.identityKeyPath, REPLACE_EXISTING);
-    Thread.sleep(1000);
 
-    assertServerCertificate(pingUrl, "tobi@s-neubert.net, CN=localhost, OU=Development, O=Tobias Neubert");
+    awaitServerCertificate(pingUrl, "tobi@s-neubert.net, CN=localhost, OU=Development, O=Tobias Neubert");
 
     // important to release the tls files in order to allow the TlsExtension to clean up the temp folder
     fileBasedTlsUpdateService.stop();
   }
 
+  /**
+   * The new material is verified with loopback handshakes before it is served, so the reload takes a while.
+   */
+  private void awaitServerCertificate(String httpsUrl, String issuerPattern) throws InterruptedException {
+    for (int i = 0; i < 100 && !issuer(httpsUrl).contains(issuerPattern); i++) {
+      Thread.sleep(100);
+    }
+    assertServerCertificate(httpsUrl, issuerPattern);
+  }
+
+  private static String issuer(String httpsUrl) {
+    return CertificateUtils.getCertificate(httpsUrl).get(httpsUrl).get(0).getIssuerX500Principal().getName("RFC1779");
+  }
+
   private void assertServerCertificate(String httpsUrl, String issuerPattern) {
     Map<String, List<X509Certificate>> certificates = CertificateUtils.getCertificate(httpsUrl);
     assertThat(certificates).hasSize(1);
@@ -0,0 +1,159 @@
+package neubert.tobias.jetty.tls;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+
+class HandshakeAdmissionTest {
+  private HandshakeAdmission admission;
+
+  @AfterEach
+  void destroyAdmission() throws Exception {
+    admission.destroy();
+  }
+
+  @Test
+  void limitsTheConcurrentHandshakes() throws Exception {
+    admission = new HandshakeAdmission(new HandshakeAdmissionProperties(2, 0, 0, 10, Duration.ofSeconds(10)));
+
+    Handshake first = full();
+    Handshake second = full();
+    Handshake third = full();
+    assertThat(first.outcome()).isEqualTo("admitted");
+    assertThat(second.outcome()).isEqualTo("admitted");
+    assertThat(third.isWaiting()).isTrue();
+
+    first.ticket.release();
+    assertThat(third.outcome()).isEqualTo("admitted");
+    assertThat(first.calls).hasValue(1);
+  }
+
+  @Test
+  void refillsTheRate() throws Exception {
+    admission = new HandshakeAdmission(new HandshakeAdmissionProperties(0, 5, 0, 10, Duration.ofSeconds(10)));
+
+    long start = System.nanoTime();
+    for (int i = 0; i < 5; i++) {
+      assertThat(full().outcome()).isEqualTo("admitted");
+    }
+    Handshake sixth = full();
+    assertThat(sixth.isWaiting()).isTrue();
+
+    assertThat(sixth.outcome()).isEqualTo("admitted");
+    assertThat(System.nanoTime() - start).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(150));
+  }
+
+  @Test
+  void rejectsHandshakesBeyondAFullQueue() throws Exception {
+    admission = new HandshakeAdmission(new HandshakeAdmissionProperties(1, 0, 0, 1, Duration.ofSeconds(10)));
+
+    Handshake admitted = full();
+    Handshake queued = full();
+    Handshake rejected = full();
+
+    assertThat(admitted.outcome()).isEqualTo("admitted");
+    assertThat(queued.isWaiting()).isTrue();
+    assertThat(rejected.outcome()).isEqualTo("rejected");
+  }
+
+  @Test
+  void rejectsHandshakesAfterTheMaxQueueTime() throws Exception {
+    admission = new HandshakeAdmission(new HandshakeAdmissionProperties(1, 0, 0, 10, Duration.ofMillis(100)));
+
+    Handshake admitted = full();
+    Handshake expired = full();
+    assertThat(expired.outcome()).isEqualTo("rejected");
+
+    admitted.ticket.release();
+    Handshake next = full();
+    assertThat(next.outcome()).isEqualTo("admitted");
+    assertThat(expired.calls).hasValue(1);
+  }
+
+  @Test
+  void removesAReleasedTicketFromTheQueue() throws Exception {
+    admission = new HandshakeAdmission(new HandshakeAdmissionProperties(1, 0, 0, 10, Duration.ofSeconds(10)));
+
+    Handshake admitted = full();
+    Handshake released = full();
+    Handshake waiting = full();
+    released.ticket.release();
+    admitted.ticket.release();
+
+    assertThat(waiting.outcome()).isEqualTo("admitted");
+    assertThat(released.calls).hasValue(0);
+  }
+
+  @Test
+  void admitsResumedHandshakesWhileTheFullLaneIsFull() throws Exception {
+    admission = new HandshakeAdmission(new HandshakeAdmissionProperties(1, 0, 1, 1, Duration.ofSeconds(10)));
+
+    assertThat(full().outcome()).isEqualTo("admitted");
+    assertThat(full().isWaiting()).isTrue();
+    assertThat(full().outcome()).isEqualTo("rejected");
+
+    assertThat(resumed().outcome()).isEqualTo("admitted");
+  }
+
+  @Test
+  void chargesAResumptionThatFailedAgainstTheFullLane() throws Exception {
+    admission = new HandshakeAdmission(new HandshakeAdmissionProperties(0, 1, 64, 10, Duration.ofSeconds(10)));
+
+    Handshake resumed = resumed();
+    assertThat(resumed.outcome()).isEqualTo("admitted");
+    resumed.ticket.fullHandshakeDone();
+    resumed.ticket.release();
+
+    // the token of the full lane has been taken by the resumed lane
+    Handshake full = full();
+    assertThat(full.isWaiting()).isTrue();
+    assertThat(full.outcome()).isEqualTo("admitted");
+  }
+
+  @Test
+  void limitsTheResumedLaneOnlyIfTheFullHandshakesAreLimited() {
+    admission = new HandshakeAdmission(new HandshakeAdmissionProperties(0, 0, 64, 10, Duration.ofSeconds(1)));
+
+    assertThat(admission.isEnabled()).isFalse();
+  }
+
+  private Handshake full() {
+    return new Handshake(admission, false);
+  }
+
+  private Handshake resumed() {
+    return new Handshake(admission, true);
+  }
+
+  private static final class Handshake {
+    private final CompletableFuture<String> outcome = new CompletableFuture<>();
+    private final AtomicInteger calls = new AtomicInteger();
+    private final HandshakeAdmission.Ticket ticket;
+
+    private Handshake(HandshakeAdmission admission, boolean resumption) {
+      this.ticket = admission.newTicket(resumption, () -> complete("admitted"), () -> complete("rejected"));
+      ticket.request();
+    }
+
+    private void complete(String result) {
+      calls.incrementAndGet();
+      outcome.complete(result);
+    }
+
+    String outcome() throws Exception {
+      return outcome.get(5, TimeUnit.SECONDS);
+    }
+
+    boolean isWaiting() throws InterruptedException {
+      Thread.sleep(50);
+      return !outcome.isDone();
+    }
+  }
+}
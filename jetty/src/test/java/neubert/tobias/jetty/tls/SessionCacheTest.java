@@ -0,0 +1,37 @@
+package neubert.tobias.jetty.tls;
+
+import javax.net.ssl.SSLSessionContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+
+@SpringBootTest(
+  webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+  properties = {
+    "neubert.tobias.tls.session-cache-size=128",
+    "neubert.tobias.tls.session-timeout=5m"
+  })
+@ExtendWith({TlsExtension.class})
+class SessionCacheTest {
+  @Autowired
+  private SSLSessionContext serverSessionContext;
+
+  @Autowired
+  private FileBasedTlsUpdateService fileBasedTlsUpdateService;
+
+  @AfterEach
+  void releaseTlsFiles() {
+    fileBasedTlsUpdateService.stop();
+  }
+
+  @Test
+  void configuresTheSessionCacheOfTheServer() {
+    assertThat(serverSessionContext.getSessionCacheSize()).isEqualTo(128);
+    assertThat(serverSessionContext.getSessionTimeout()).isEqualTo(300);
+  }
+}
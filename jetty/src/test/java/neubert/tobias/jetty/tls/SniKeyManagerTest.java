@@ -0,0 +1,112 @@
+package neubert.tobias.jetty.tls;
+
+import javax.net.ssl.ExtendedSSLSession;
+import javax.net.ssl.SNIHostName;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.X509ExtendedKeyManager;
+import nl.altindag.ssl.util.PemUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.cert.X509Certificate;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+
+/**
+ * The identities of the SNI tests were created like this:
+ * <pre>
+ * openssl req -x509 -sha256 -nodes -days 36500 -newkey rsa:2048 -keyout private.key -out certificate.pem \
+ *   -subj "/CN=*.example.com" -addext "subjectAltName=DNS:*.example.com"
+ * </pre>
+ */
+class SniKeyManagerTest {
+  private final X509ExtendedKeyManager defaultIdentity = identity("tls/tobias");
+  private final X509ExtendedKeyManager apiIdentity = identity("tls/sni/api");
+  private final X509ExtendedKeyManager wildcardIdentity = identity("tls/sni/wildcard");
+
+  private SniKeyManager keyManager;
+
+  @BeforeEach
+  void setup() {
+    keyManager = new SniKeyManager(defaultIdentity);
+    assertThat(keyManager.putIdentity("api", apiIdentity)).containsExactly("api.example.com");
+    assertThat(keyManager.putIdentity("wildcard", wildcardIdentity)).containsExactly("*.example.com");
+  }
+
+  @Test
+  void servesTheExactHostNameBeforeTheWildcard() {
+    assertThat(servedCertificate("api.example.com")).isEqualTo(certificateOf(apiIdentity));
+    assertThat(servedCertificate("API.Example.com")).isEqualTo(certificateOf(apiIdentity));
+    assertThat(servedCertificate("www.example.com")).isEqualTo(certificateOf(wildcardIdentity));
+  }
+
+  @Test
+  void servesTheDefaultIdentityForUnknownHostNames() {
+    assertThat(servedCertificate("www.example.org")).isEqualTo(certificateOf(defaultIdentity));
+    assertThat(servedCertificate("a.b.example.com")).isEqualTo(certificateOf(defaultIdentity));
+    assertThat(servedCertificate("example.com")).isEqualTo(certificateOf(defaultIdentity));
+    assertThat(servedCertificate(null)).isEqualTo(certificateOf(defaultIdentity));
+  }
+
+  @Test
+  void leadsTheChosenAliasBackToItsIdentity() {
+    String alias = keyManager.chooseEngineServerAlias("RSA", null, engine("api.example.com"));
+
+    assertThat(alias).startsWith("sni/api/");
+    assertThat(keyManager.getPrivateKey(alias))
+      .isEqualTo(apiIdentity.getPrivateKey(alias.substring("sni/api/".length())));
+    assertThat(keyManager.getServerAliases("RSA", null))
+      .hasSize(3)
+      .contains(alias)
+      .allSatisfy(serverAlias -> assertThat(keyManager.getCertificateChain(serverAlias)).isNotEmpty());
+  }
+
+  @Test
+  void servesTheDefaultIdentityAfterTheRemoval() {
+    String alias = keyManager.chooseEngineServerAlias("RSA", null, engine("api.example.com"));
+
+    keyManager.removeIdentity("api");
+
+    assertThat(servedCertificate("api.example.com")).isEqualTo(certificateOf(wildcardIdentity));
+    keyManager.removeIdentity("wildcard");
+    assertThat(servedCertificate("api.example.com")).isEqualTo(certificateOf(defaultIdentity));
+    assertThat(keyManager.getCertificateChain(alias)).isNull();
+    assertThat(keyManager.getPrivateKey(alias)).isNull();
+  }
+
+  private X509Certificate servedCertificate(String hostName) {
+    return keyManager.getCertificateChain(keyManager.chooseEngineServerAlias("RSA", null, engine(hostName)))[0];
+  }
+
+  private static SSLEngine engine(String hostName) {
+    ExtendedSSLSession handshakeSession = mock(ExtendedSSLSession.class);
+    when(handshakeSession.getRequestedServerNames())
+      .thenReturn(hostName != null ? List.of(new SNIHostName(hostName)) : List.of());
+    SSLEngine engine = mock(SSLEngine.class);
+    when(engine.getHandshakeSession()).thenReturn(handshakeSession);
+
+    return engine;
+  }
+
+  private static X509Certificate certificateOf(X509ExtendedKeyManager keyManager) {
+    return keyManager.getCertificateChain(keyManager.getServerAliases("RSA", null)[0])[0];
+  }
+
+  private static X509ExtendedKeyManager identity(String resource) {
+    try (
+      InputStream certificate = SniKeyManagerTest.class.getResourceAsStream("/" + resource + "-certificate.pem");
+      InputStream privateKey = SniKeyManagerTest.class.getResourceAsStream("/" + resource + "-private.key"))
+    {
+      return PemUtils.loadIdentityMaterial(certificate, privateKey);
+    }
+    catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -0,0 +1,131 @@
+package neubert.tobias.jetty.tls;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLHandshakeException;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import nl.altindag.ssl.util.PemUtils;
+import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.SslConnectionFactory;
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+
+class TlsHandshakeMetricsTest {
+  private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+  private final TlsHandshakeMetrics handshakeMetrics = new TlsHandshakeMetrics();
+
+  private Server server;
+  private int port;
+
+  @BeforeEach
+  void startServer() throws Exception {
+    handshakeMetrics.bindTo(registry);
+
+    SSLContext sslContext = SSLContext.getInstance("TLS");
+    try (
+      InputStream certificate = getClass().getResourceAsStream("/tls/tobias-certificate.pem");
+      InputStream privateKey = getClass().getResourceAsStream("/tls/tobias-private.key"))
+    {
+      sslContext.init(new KeyManager[] {PemUtils.loadIdentityMaterial(certificate, privateKey)}, null, null);
+    }
+    SslContextFactory.Server sslContextFactory = new SslContextFactory.Server();
+    sslContextFactory.setSslContext(sslContext);
+
+    server = new Server();
+    HttpConnectionFactory http11 = new HttpConnectionFactory();
+    ServerConnector connector = new ServerConnector(
+      server,
+      new SslConnectionFactory(sslContextFactory, http11.getProtocol()),
+      http11);
+    connector.addBean(handshakeMetrics);
+    server.addConnector(connector);
+    server.start();
+    port = connector.getLocalPort();
+  }
+
+  @AfterEach
+  void stopServer() throws Exception {
+    server.stop();
+  }
+
+  @Test
+  void timesFullAndResumedHandshakes() throws Exception {
+    SSLContext clientContext = clientContext(new TrustAllManager());
+
+    handshake(clientContext);
+    handshake(clientContext);
+
+    assertThat(handshakes("full").count()).isEqualTo(1);
+    assertThat(handshakes("full").totalTime(TimeUnit.NANOSECONDS)).isPositive();
+    assertThat(handshakes("resumed").count()).isEqualTo(1);
+    assertThat(registry.get("tls.server.session.cache.hit.ratio").gauge().value()).isEqualTo(0.5);
+  }
+
+  @Test
+  void countsFailedHandshakes() throws Exception {
+    SSLContext clientContext = clientContext(PemUtils.loadTrustMaterial(
+      getClass().getResourceAsStream("/tls/flying-desks-certificate.pem")));
+
+    assertThatThrownBy(() -> handshake(clientContext)).isInstanceOf(SSLHandshakeException.class);
+
+    for (int i = 0; i < 100 && registry.find("tls.handshake.failures").counter() == null; i++) {
+      Thread.sleep(50);
+    }
+    assertThat(registry.get("tls.handshake.failures").counter().count()).isEqualTo(1);
+    assertThat(registry.find("tls.handshake").timer()).isNull();
+  }
+
+  private Timer handshakes(String type) {
+    return registry.get("tls.handshake").tag("type", type).tag("algorithm", "RSA").timer();
+  }
+
+  /**
+   * The session of TLS 1.3 is only known to the client once it has read from the server.
+   */
+  private void handshake(SSLContext clientContext) throws Exception {
+    try (SSLSocket socket = (SSLSocket) clientContext.getSocketFactory().createSocket("localhost", port)) {
+      socket.startHandshake();
+      socket.getOutputStream().write("GET / HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes());
+      socket.getOutputStream().flush();
+      assertThat(socket.getInputStream().read()).isNotNegative();
+    }
+  }
+
+  private static SSLContext clientContext(X509TrustManager trustManager) throws Exception {
+    SSLContext clientContext = SSLContext.getInstance("TLS");
+    clientContext.init(null, new TrustManager[] {trustManager}, null);
+
+    return clientContext;
+  }
+
+  private static final class TrustAllManager implements X509TrustManager {
+    @Override
+    public void checkClientTrusted(X509Certificate[] chain, String authType) {
+    }
+
+    @Override
+    public void checkServerTrusted(X509Certificate[] chain, String authType) {
+    }
+
+    @Override
+    public X509Certificate[] getAcceptedIssuers() {
+      return new X509Certificate[0];
+    }
+  }
+}
@@ -0,0 +1,117 @@
+package neubert.tobias.jetty.tls;
+
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.X509ExtendedKeyManager;
+import javax.net.ssl.X509ExtendedTrustManager;
+import nl.altindag.ssl.util.PemUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+
+class TlsSessionInvalidatorTest {
+  private final X509ExtendedKeyManager tobiasIdentity = identity("tobias");
+  private final X509ExtendedKeyManager flyingDesksIdentity = identity("flying-desks");
+  private final X509Certificate tobiasCertificate = certificateOf(tobiasIdentity);
+  private final X509Certificate flyingDesksCertificate = certificateOf(flyingDesksIdentity);
+
+  private final Map<String, SSLSession> sessions = new LinkedHashMap<>();
+  private final SSLSessionContext sessionContext = mock(SSLSessionContext.class);
+
+  @BeforeEach
+  void setup() {
+    when(sessionContext.getIds()).thenAnswer(invocation -> Collections.enumeration(
+      sessions.keySet().stream().map(String::getBytes).toList()));
+    when(sessionContext.getSession(any()))
+      .thenAnswer(invocation -> sessions.get(new String(invocation.<byte[]>getArgument(0))));
+  }
+
+  @Test
+  void keepsTheSessionsOfPeersThatAreStillTrusted() throws Exception {
+    SSLSession tobiasSession = session("tobias", tobiasCertificate, tobiasCertificate);
+    SSLSession flyingDesksSession = session("flying-desks", tobiasCertificate, flyingDesksCertificate);
+    SSLSession anonymousSession = session("anonymous", tobiasCertificate, null);
+
+    int invalidated = TlsSessionInvalidator.invalidateUntrustedPeers(sessionContext, trust("tobias"));
+
+    assertThat(invalidated).isEqualTo(1);
+    verify(flyingDesksSession).invalidate();
+    verify(tobiasSession, never()).invalidate();
+    verify(anonymousSession, never()).invalidate();
+  }
+
+  @Test
+  void invalidatesOnlyTheSessionsOfTheRetiredIdentity() throws Exception {
+    SSLSession retiredSession = session("retired", tobiasCertificate, flyingDesksCertificate);
+    SSLSession currentSession = session("current", flyingDesksCertificate, tobiasCertificate);
+
+    int invalidated = TlsSessionInvalidator.invalidateForeignIdentities(sessionContext, flyingDesksIdentity);
+
+    assertThat(invalidated).isEqualTo(1);
+    verify(retiredSession).invalidate();
+    verify(currentSession, never()).invalidate();
+  }
+
+  /**
+   * @param peerCertificate null if the client did not authenticate
+   */
+  private SSLSession session(String id, X509Certificate localCertificate, X509Certificate peerCertificate)
+    throws SSLPeerUnverifiedException
+  {
+    SSLSession session = mock(SSLSession.class);
+    when(session.getLocalCertificates()).thenReturn(new X509Certificate[] {localCertificate});
+    if (peerCertificate != null) {
+      when(session.getPeerCertificates()).thenReturn(new X509Certificate[] {peerCertificate});
+    }
+    else {
+      when(session.getPeerCertificates()).thenThrow(new SSLPeerUnverifiedException("no client authentication"));
+    }
+    sessions.put(id, session);
+
+    return session;
+  }
+
+  private static X509Certificate certificateOf(X509ExtendedKeyManager keyManager) {
+    return keyManager.getCertificateChain(keyManager.getServerAliases("RSA", null)[0])[0];
+  }
+
+  private static X509ExtendedTrustManager trust(String name) {
+    try (InputStream certificate = resource(name + "-certificate.pem")) {
+      return PemUtils.loadTrustMaterial(certificate);
+    }
+    catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static X509ExtendedKeyManager identity(String name) {
+    try (
+      InputStream certificate = resource(name + "-certificate.pem");
+      InputStream privateKey = resource(name + "-private.key"))
+    {
+      return PemUtils.loadIdentityMaterial(certificate, privateKey);
+    }
+    catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static InputStream resource(String name) {
+    return TlsSessionInvalidatorTest.class.getResourceAsStream("/tls/" + name);
+  }
+}
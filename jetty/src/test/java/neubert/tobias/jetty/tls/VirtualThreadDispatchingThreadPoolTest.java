@@ -0,0 +1,90 @@
+package neubert.tobias.jetty.tls;
+
+import org.eclipse.jetty.server.HttpChannel;
+import org.eclipse.jetty.util.BlockingArrayQueue;
+import org.eclipse.jetty.util.thread.Invocable;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.web.ServerProperties;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+
+/**
+ * On Java 17 the pool falls back to a platform thread named like the virtual threads for every blocking task, so
+ * the dispatching is the same on every JVM.
+ */
+class VirtualThreadDispatchingThreadPoolTest {
+  private VirtualThreadDispatchingThreadPool threadPool;
+
+  @BeforeEach
+  void startThreadPool() throws Exception {
+    threadPool = new VirtualThreadDispatchingThreadPool(8, 2, 60_000, new BlockingArrayQueue<>(10));
+    threadPool.setName("jetty-tls");
+    threadPool.start();
+  }
+
+  @AfterEach
+  void stopThreadPool() throws Exception {
+    threadPool.stop();
+  }
+
+  @Test
+  void handlesRequestsOnTheirOwnThreads() throws Exception {
+    HttpChannel channel = mock(HttpChannel.class);
+    CompletableFuture<Thread> requestThread = new CompletableFuture<>();
+    doAnswer(invocation -> requestThread.complete(Thread.currentThread())).when(channel).run();
+
+    threadPool.execute(channel);
+
+    assertThat(requestThread.get(5, TimeUnit.SECONDS).getName()).startsWith("jetty-tls-virtual");
+  }
+
+  @Test
+  void runsOnlyTheTasksThatMayBlockOutsideThePool() throws Exception {
+    CompletableFuture<Thread> blockingThread = new CompletableFuture<>();
+    CompletableFuture<Thread> nonBlockingThread = new CompletableFuture<>();
+    CompletableFuture<Thread> plainThread = new CompletableFuture<>();
+
+    threadPool.execute(new Task(Invocable.InvocationType.BLOCKING, blockingThread));
+    threadPool.execute(new Task(Invocable.InvocationType.NON_BLOCKING, nonBlockingThread));
+    threadPool.execute(() -> plainThread.complete(Thread.currentThread()));
+
+    assertThat(blockingThread.get(5, TimeUnit.SECONDS).getName()).startsWith("jetty-tls-virtual");
+    assertThat(nonBlockingThread.get(5, TimeUnit.SECONDS).getName()).startsWith("jetty-tls-").doesNotContain("virtual");
+    assertThat(plainThread.get(5, TimeUnit.SECONDS).getName()).startsWith("jetty-tls-").doesNotContain("virtual");
+    assertThat(threadPool.tryExecute(() -> { })).isFalse();
+  }
+
+  @Test
+  void usesThePlatformThreadPoolIfTheJvmHasNoVirtualThreads() {
+    QueuedThreadPool jettyThreadPool = new SecureJettyConfig().jettyThreadPool(
+      new ServerProperties(),
+      new JettyConnectorProperties(false, 0, true, 0, 100, true));
+
+    assertThat(jettyThreadPool).isExactlyInstanceOf(
+      VirtualThreads.isSupported() ? VirtualThreadDispatchingThreadPool.class : QueuedThreadPool.class);
+    assertThat(jettyThreadPool.getName()).isEqualTo("jetty-tls");
+  }
+
+  private record Task(Invocable.InvocationType invocationType, CompletableFuture<Thread> thread)
+    implements Runnable, Invocable
+  {
+    @Override
+    public void run() {
+      thread.complete(Thread.currentThread());
+    }
+
+    @Override
+    public InvocationType getInvocationType() {
+      return invocationType;
+    }
+  }
+}
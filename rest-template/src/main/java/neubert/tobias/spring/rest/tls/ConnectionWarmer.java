@@ -0,0 +1,216 @@
+package neubert.tobias.spring.rest.tls;
+
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpHost;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.UnsupportedSchemeException;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.conn.DefaultSchemePortResolver;
+import org.apache.http.pool.PoolStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Keeps a minimum number of established connections per warm-up route in the pool, so that the first requests
+ * after the start and after a trust rotation do not pay for the connect and the full TLS handshake. The
+ * connections are opened on a background thread at the start, after every trust rotation and whenever the idle
+ * eviction or the time to live have closed some of them. Connections that are in use count as well.
+ * <p>
+ * The routes can be replaced at runtime, for warm-up urls that are only known once the remote configuration has
+ * been fetched.
+ */
+class ConnectionWarmer {
+  private static final Logger LOGGER = LoggerFactory.getLogger(ConnectionWarmer.class);
+
+  private final TrustAwareConnectionManager connectionManager;
+  private final TlsClientProperties clientProperties;
+  private final int minConnectionsPerRoute;
+  private final Set<HttpRoute> failingRoutes = ConcurrentHashMap.newKeySet();
+  private final ScheduledExecutorService scheduler;
+
+  private volatile List<HttpRoute> routes;
+  private boolean started;
+  private ScheduledFuture<?> warmUps;
+
+  ConnectionWarmer(TrustAwareConnectionManager connectionManager, TlsClientProperties clientProperties) {
+    this.connectionManager = connectionManager;
+    this.clientProperties = clientProperties;
+    this.routes = routes(clientProperties.warmUpUrls());
+    this.minConnectionsPerRoute = Math.min(clientProperties.minConnectionsPerRoute(), clientProperties.maxPerRoute());
+    this.scheduler = minConnectionsPerRoute > 0
+      ? Executors.newSingleThreadScheduledExecutor(runnable -> {
+          Thread thread = new Thread(runnable, "rest-template-warm-up");
+          thread.setDaemon(true);
+          return thread;
+        })
+      : null;
+  }
+
+  boolean isEnabled() {
+    return !routes.isEmpty() && minConnectionsPerRoute > 0;
+  }
+
+  synchronized void start() {
+    started = true;
+    schedule();
+  }
+
+  /**
+   * Connections to routes that are no longer warmed up stay in the pool until they are evicted.
+   */
+  synchronized void setWarmUpUrls(List<URI> warmUpUrls) {
+    List<HttpRoute> newRoutes = routes(warmUpUrls);
+    if (newRoutes.equals(routes)) {
+      return;
+    }
+
+    LOGGER.info("Warming up connections to {}", newRoutes.stream().map(HttpRoute::getTargetHost).toList());
+    routes = newRoutes;
+    failingRoutes.retainAll(newRoutes);
+    if (started && !schedule()) {
+      warmUpNow();
+    }
+  }
+
+  /**
+   * Tops up the routes in the background, right away.
+   */
+  void warmUpNow() {
+    if (isEnabled()) {
+      scheduler.execute(this::warmUp);
+    }
+  }
+
+  /**
+   * @return true if the warm-up has been scheduled now, it starts right away
+   */
+  private boolean schedule() {
+    if (!isEnabled() || warmUps != null) {
+      return false;
+    }
+
+    long interval = clientProperties.idleEvictionInterval().toMillis();
+    warmUps = scheduler.scheduleWithFixedDelay(this::warmUp, 0, interval, TimeUnit.MILLISECONDS);
+    return true;
+  }
+
+  void shutdown() {
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+    }
+  }
+
+  private void warmUp() {
+    for (HttpRoute route : routes) {
+      try {
+        warmUp(route);
+        if (failingRoutes.remove(route)) {
+          LOGGER.info("Warming up connections to {} succeeded again", route.getTargetHost());
+        }
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+      catch (Exception e) {
+        if (failingRoutes.add(route)) {
+          LOGGER.warn("Cannot warm up connections to {}: {}", route.getTargetHost(), e.toString());
+        }
+        else {
+          LOGGER.debug("Cannot warm up connections to {}", route.getTargetHost(), e);
+        }
+      }
+    }
+  }
+
+  /**
+   * The connections are leased all together, otherwise the pool would hand out the same idle connection again and
+   * again. Idle connections are leased as well and released untouched.
+   */
+  private void warmUp(HttpRoute route) throws InterruptedException, ExecutionException, IOException {
+    PoolStats stats = connectionManager.getStats(route);
+    int wanted = minConnectionsPerRoute - stats.getLeased();
+    if (wanted <= stats.getAvailable()) {
+      return;
+    }
+
+    List<HttpClientConnection> connections = new ArrayList<>();
+    try {
+      for (int i = 0; i < wanted; i++) {
+        ConnectionRequest request = connectionManager.requestConnection(route, null);
+        connections.add(request.get(clientProperties.connectionRequestTimeout().toMillis(), TimeUnit.MILLISECONDS));
+      }
+
+      int opened = 0;
+      for (HttpClientConnection connection : connections) {
+        if (!connection.isOpen()) {
+          open(connection, route);
+          opened++;
+        }
+      }
+      LOGGER.debug("Opened {} connection(s) to {}", opened, route.getTargetHost());
+    }
+    finally {
+      for (HttpClientConnection connection : connections) {
+        connectionManager.releaseConnection(connection, null, 0, TimeUnit.MILLISECONDS);
+      }
+    }
+  }
+
+  /**
+   * Connecting a secure route performs the TLS handshake, including the check of the host name.
+   */
+  private void open(HttpClientConnection connection, HttpRoute route) throws IOException {
+    HttpClientContext context = HttpClientContext.create();
+    try {
+      connectionManager.connect(connection, route, (int) clientProperties.connectTimeout().toMillis(), context);
+      connectionManager.routeComplete(connection, route, context);
+    }
+    catch (IOException | RuntimeException e) {
+      connection.shutdown();
+      throw e;
+    }
+  }
+
+  private static List<HttpRoute> routes(List<URI> warmUpUrls) {
+    return warmUpUrls.stream().map(ConnectionWarmer::route).distinct().toList();
+  }
+
+  /**
+   * The same route that the http client plans for a request to the url without a proxy, so that the requests find
+   * the warm connections.
+   */
+  private static HttpRoute route(URI url) {
+    HttpHost host = URIUtils.extractHost(url);
+    if (host == null) {
+      throw new IllegalArgumentException("The warm-up url " + url + " has no host");
+    }
+
+    try {
+      int port = DefaultSchemePortResolver.INSTANCE.resolve(host);
+      return new HttpRoute(new HttpHost(host.getHostName(), port, host.getSchemeName()), null, isSecure(host));
+    }
+    catch (UnsupportedSchemeException e) {
+      throw new IllegalArgumentException("The warm-up url " + url + " has an unsupported scheme", e);
+    }
+  }
+
+  private static boolean isSecure(HttpHost host) {
+    return "https".equalsIgnoreCase(host.getSchemeName());
+  }
+}
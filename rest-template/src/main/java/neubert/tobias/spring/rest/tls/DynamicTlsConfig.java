@@ -1,22 +1,66 @@
 package neubert.tobias.spring.rest.tls;
 
+import neubert.tobias.spring.tls.watcher.JsseProvider;
+import neubert.tobias.spring.tls.watcher.TlsMaterialWatcher;
+import neubert.tobias.spring.tls.watcher.TlsWatcherConfig;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
 import org.springframework.core.Ordered;
 import org.springframework.core.annotation.Order;
 import org.springframework.core.io.Resource;
 
 import java.io.IOException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
 
 
 @Configuration
+@Import(TlsWatcherConfig.class)
 public class DynamicTlsConfig {
+  @Bean
+  public TlsClientProperties tlsClientProperties(
+    @Value("${neubert.tobias.tls.client.max-total:100}") int maxTotal,
+    @Value("${neubert.tobias.tls.client.max-per-route:20}") int maxPerRoute,
+    @Value("${neubert.tobias.tls.client.connection-ttl:5m}") Duration connectionTimeToLive,
+    @Value("${neubert.tobias.tls.client.max-idle-time:30s}") Duration maxIdleTime,
+    @Value("${neubert.tobias.tls.client.idle-eviction-interval:5s}") Duration idleEvictionInterval,
+    @Value("${neubert.tobias.tls.client.validate-after-inactivity:2s}") Duration validateAfterInactivity,
+    @Value("${neubert.tobias.tls.client.connect-timeout:5s}") Duration connectTimeout,
+    @Value("${neubert.tobias.tls.client.connection-request-timeout:5s}") Duration connectionRequestTimeout,
+    @Value("${neubert.tobias.tls.client.read-timeout:30s}") Duration readTimeout,
+    @Value("${neubert.tobias.tls.client.warm-up-urls:}") List<URI> warmUpUrls,
+    @Value("${neubert.tobias.tls.client.min-connections-per-route:2}") int minConnectionsPerRoute)
+  {
+    return new TlsClientProperties(
+      maxTotal,
+      maxPerRoute,
+      connectionTimeToLive,
+      maxIdleTime,
+      idleEvictionInterval,
+      validateAfterInactivity,
+      connectTimeout,
+      connectionRequestTimeout,
+      readTimeout,
+      warmUpUrls,
+      minConnectionsPerRoute);
+  }
+
   @Bean
   @Order(Ordered.HIGHEST_PRECEDENCE)
   public DynamicTlsRestTemplate dynamicTlsRestTemplate(
-    @Value("${neubert.tobias.tls.trust-resource}") Resource trustResource) throws IOException
+    @Value("${neubert.tobias.tls.trust-resource}") Resource trustResource,
+    TlsClientProperties clientProperties,
+    TlsMaterialWatcher tlsMaterialWatcher,
+    JsseProvider jsseProvider) throws IOException
   {
-    return new DynamicTlsRestTemplate(trustResource);
+    return new DynamicTlsRestTemplate(trustResource, clientProperties, tlsMaterialWatcher, jsseProvider);
+  }
+
+  @Bean
+  WarmUpUrlsBinder warmUpUrlsBinder(DynamicTlsRestTemplate dynamicTlsRestTemplate) {
+    return new WarmUpUrlsBinder(dynamicTlsRestTemplate);
   }
 }
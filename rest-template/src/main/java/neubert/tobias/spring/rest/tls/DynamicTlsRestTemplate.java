@@ -1,108 +1,225 @@
 package neubert.tobias.spring.rest.tls;
 
 import javax.net.ssl.X509ExtendedTrustManager;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import neubert.tobias.spring.tls.watcher.JsseProvider;
+import neubert.tobias.spring.tls.watcher.TlsMaterialWatcher;
+import neubert.tobias.spring.tls.watcher.TrustedSessions;
 import nl.altindag.ssl.SSLFactory;
-import nl.altindag.ssl.util.PemUtils;
+import nl.altindag.ssl.util.TrustManagerUtils;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
 import org.apache.http.conn.socket.LayeredConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
 import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.client.IdleConnectionEvictor;
+import org.apache.http.pool.PoolStats;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.core.io.Resource;
 import org.springframework.http.client.ClientHttpRequestFactory;
 import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.web.client.RestTemplate;
 
 import java.io.IOException;
-import java.nio.file.FileSystems;
+import java.net.URI;
 import java.nio.file.Path;
-import java.nio.file.WatchEvent;
-import java.nio.file.WatchKey;
-import java.nio.file.WatchService;
-import java.util.concurrent.Executors;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
-import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
 
-
-public class DynamicTlsRestTemplate extends RestTemplate {
+public class DynamicTlsRestTemplate extends RestTemplate implements DisposableBean, MeterBinder {
   private static final Logger LOGGER = LoggerFactory.getLogger(DynamicTlsRestTemplate.class);
 
-  private final Resource trustResource;
   private final Path trustPath;
-
+  private final TlsClientProperties clientProperties;
+  private final TlsMaterialWatcher tlsMaterialWatcher;
+  private final JsseProvider jsseProvider;
+  private final SSLFactory sslFactory;
+  private final X509ExtendedTrustManager trustManager;
+  private final TrustAwareConnectionManager connectionManager;
+  private final IdleConnectionEvictor connectionEvictor;
+  private final ConnectionWarmer connectionWarmer;
+  private final CloseableHttpClient httpClient;
+  private final TlsMaterialWatcher.Subscription subscription;
+  private final boolean ownsWatcher;
+
+  /**
+   * @deprecated use the {@code DynamicTlsRestTemplate} of the {@link DynamicTlsConfig}, which shares the
+   *             {@link TlsMaterialWatcher} of the application and is configured by the {@link TlsClientProperties}
+   */
+  @Deprecated
   public DynamicTlsRestTemplate(Resource trustResource) throws IOException {
-    this.trustResource = trustResource;
-    this.trustPath = Path.of(trustResource.getFile().getAbsolutePath());
+    this(
+      trustResource,
+      TlsClientProperties.defaults(),
+      new TlsMaterialWatcher(Duration.ofMillis(250), Duration.ofSeconds(10)),
+      JsseProvider.of(JsseProvider.DEFAULT),
+      true);
+  }
 
-    setRequestFactory(httpRequestFactory());
-    Executors.newSingleThreadExecutor().submit(this::startTrustWatcher);
+  public DynamicTlsRestTemplate(
+    Resource trustResource,
+    TlsClientProperties clientProperties,
+    TlsMaterialWatcher tlsMaterialWatcher,
+    JsseProvider jsseProvider) throws IOException
+  {
+    this(trustResource, clientProperties, tlsMaterialWatcher, jsseProvider, false);
   }
 
-  void startTrustWatcher() {
-    try {
-      WatchService fileWatcher = FileSystems.getDefault().newWatchService();
-      trustPath.getParent().register(fileWatcher, ENTRY_MODIFY);
-
-      while (true) {
-        WatchKey watchKey = fileWatcher.take();
-        for (WatchEvent<?> fileEvent : watchKey.pollEvents()) {
-          LOGGER.info("Recognised modification of {}", fileEvent.context());
-          Path modifiedPath = (Path) fileEvent.context();
-          if (trustPath.endsWith(modifiedPath)) {
-            updateTlsMaterial();
-          }
-        }
-
-        watchKey.reset();
-        LOGGER.info("Finished working on modifications of {}", trustPath);
-      }
-    }
-    catch (Exception e) {
-      LOGGER.error("Cannot start the trust watcher", e);
-    }
+  private DynamicTlsRestTemplate(
+    Resource trustResource,
+    TlsClientProperties clientProperties,
+    TlsMaterialWatcher tlsMaterialWatcher,
+    JsseProvider jsseProvider,
+    boolean ownsWatcher) throws IOException
+  {
+    this.ownsWatcher = ownsWatcher;
+    this.trustPath = TlsMaterialWatcher.pathOf(trustResource);
+    this.clientProperties = clientProperties;
+    this.tlsMaterialWatcher = tlsMaterialWatcher;
+    this.jsseProvider = jsseProvider;
+    this.sslFactory = sslFactory();
+    this.trustManager = sslFactory.getTrustManager().orElseThrow();
+    this.connectionManager = connectionManager();
+    this.connectionEvictor = connectionEvictor();
+    this.connectionWarmer = new ConnectionWarmer(connectionManager, clientProperties);
+    this.httpClient = httpClient();
+
+    setRequestFactory(httpRequestFactory());
+    connectionEvictor.start();
+    connectionWarmer.start();
+    this.subscription =
+      tlsMaterialWatcher.subscribe("rest-template", tlsMaterialWatcher.trustPaths(trustPath), this::updateTlsMaterial);
   }
 
   private void updateTlsMaterial() {
     try {
       LOGGER.info("Trust certificate {} has been changed for the RestTemplate. ", trustPath);
 
-      setRequestFactory(httpRequestFactory());
+      X509ExtendedTrustManager newTrustManager = tlsMaterialWatcher.trustMaterial(trustPath);
+      TrustManagerUtils.swapTrustManager(trustManager, newTrustManager);
+      TrustedSessions.invalidateUntrustedSessions(sslFactory.getSslContext().getClientSessionContext(), trustManager);
+      connectionManager.evictUntrustedConnections(trustManager);
+      connectionWarmer.warmUpNow();
 
       LOGGER.info("Updating trust {} for the RestTemplate finished", trustPath);
     }
     catch (Exception e) {
-      LOGGER.error("" +
-        "Cannot update the TLS material for the RestTemplate. Proceed watching for changes. " +
-        "This might be no problem at all because some file systems fire a modification event " +
-        "twice, where one is for an incomplete file. If the certificate is not changed indeed " +
-        "you have to look into the log at debug level.");
-      LOGGER.debug("", e);
+      throw new IllegalStateException("Cannot update the TLS material for the RestTemplate", e);
     }
   }
 
-  private ClientHttpRequestFactory httpRequestFactory() throws IOException {
-    final CloseableHttpClient httpClient =
-      HttpClients.custom()
-        .setSSLSocketFactory(sslSocketFactory())
-        .build();
+  /**
+   * Replaces the {@code warm-up-urls} of the {@link TlsClientProperties}.
+   */
+  public void setWarmUpUrls(List<URI> warmUpUrls) {
+    connectionWarmer.setWarmUpUrls(warmUpUrls);
+  }
 
+  /**
+   * @return the usage of the whole connection pool
+   */
+  public PoolStats getTotalPoolStats() {
+    return connectionManager.getTotalStats();
+  }
+
+  /**
+   * @return the usage of the connection pool per route that has been used so far
+   */
+  public Map<HttpRoute, PoolStats> getRoutePoolStats() {
+    return connectionManager.getRoutes().stream()
+      .collect(Collectors.toMap(Function.identity(), connectionManager::getStats));
+  }
+
+  /**
+   * Reports the utilization of the connection pool as {@code tls.client.pool.*}.
+   */
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    Gauge.builder("tls.client.pool.leased", this, template -> template.getTotalPoolStats().getLeased())
+      .description("Connections of the RestTemplate that are in use")
+      .register(registry);
+    Gauge.builder("tls.client.pool.available", this, template -> template.getTotalPoolStats().getAvailable())
+      .description("Idle connections of the RestTemplate")
+      .register(registry);
+    Gauge.builder("tls.client.pool.pending", this, template -> template.getTotalPoolStats().getPending())
+      .description("Requests of the RestTemplate that wait for a connection")
+      .register(registry);
+    Gauge.builder("tls.client.pool.max", this, template -> template.getTotalPoolStats().getMax())
+      .description("Maximum number of connections of the RestTemplate")
+      .register(registry);
+  }
+
+  @Override
+  public void destroy() throws Exception {
+    subscription.cancel();
+    connectionEvictor.shutdown();
+    connectionWarmer.shutdown();
+    httpClient.close();
+    if (ownsWatcher) {
+      tlsMaterialWatcher.stop();
+    }
+  }
+
+  private ClientHttpRequestFactory httpRequestFactory() {
     final HttpComponentsClientHttpRequestFactory requestFactory = new HttpComponentsClientHttpRequestFactory();
     requestFactory.setHttpClient(httpClient);
-    requestFactory.setConnectTimeout(5_000);
-    requestFactory.setReadTimeout(30_000);
+    requestFactory.setConnectTimeout((int) clientProperties.connectTimeout().toMillis());
+    requestFactory.setConnectionRequestTimeout((int) clientProperties.connectionRequestTimeout().toMillis());
+    requestFactory.setReadTimeout((int) clientProperties.readTimeout().toMillis());
 
     return requestFactory;
   }
 
-  private LayeredConnectionSocketFactory sslSocketFactory() throws IOException {
-    return new SSLConnectionSocketFactory(sslFactory().getSslContext());
+  private CloseableHttpClient httpClient() {
+    return HttpClients.custom()
+      .setConnectionManager(connectionManager)
+      .build();
+  }
+
+  private TrustAwareConnectionManager connectionManager() {
+    TrustAwareConnectionManager manager = new TrustAwareConnectionManager(
+      RegistryBuilder.<ConnectionSocketFactory>create()
+        .register("http", PlainConnectionSocketFactory.getSocketFactory())
+        .register("https", sslSocketFactory())
+        .build(),
+      clientProperties.connectionTimeToLive().toMillis(),
+      TimeUnit.MILLISECONDS);
+    manager.setMaxTotal(clientProperties.maxTotal());
+    manager.setDefaultMaxPerRoute(clientProperties.maxPerRoute());
+    manager.setValidateAfterInactivity((int) clientProperties.validateAfterInactivity().toMillis());
+
+    return manager;
+  }
+
+  private IdleConnectionEvictor connectionEvictor() {
+    return new IdleConnectionEvictor(
+      connectionManager,
+      clientProperties.idleEvictionInterval().toMillis(),
+      TimeUnit.MILLISECONDS,
+      clientProperties.maxIdleTime().toMillis(),
+      TimeUnit.MILLISECONDS);
+  }
+
+  private LayeredConnectionSocketFactory sslSocketFactory() {
+    return new SSLConnectionSocketFactory(sslFactory.getSslContext());
   }
 
-  private SSLFactory sslFactory() throws IOException {
-    X509ExtendedTrustManager trustManager = PemUtils.loadTrustMaterial(trustResource.getInputStream());
+  private SSLFactory sslFactory() {
+    X509ExtendedTrustManager trustManager = tlsMaterialWatcher.trustMaterial(trustPath);
 
-    return SSLFactory.builder()
+    return jsseProvider.configure(SSLFactory.builder())
       .withSwappableTrustMaterial()
       .withTrustMaterial(trustManager)
       .withNeedClientAuthentication(false)
@@ -0,0 +1,45 @@
+package neubert.tobias.spring.rest.tls;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
+
+
+/**
+ * Pool and timeout settings of the http client behind the {@link DynamicTlsRestTemplate}. A zero
+ * {@code connectionTimeToLive} keeps connections as long as the server does. For every route of the
+ * {@code warmUpUrls} at least {@code minConnectionsPerRoute} connections are kept established.
+ */
+public record TlsClientProperties(
+  int maxTotal,
+  int maxPerRoute,
+  Duration connectionTimeToLive,
+  Duration maxIdleTime,
+  Duration idleEvictionInterval,
+  Duration validateAfterInactivity,
+  Duration connectTimeout,
+  Duration connectionRequestTimeout,
+  Duration readTimeout,
+  List<URI> warmUpUrls,
+  int minConnectionsPerRoute)
+{
+  /**
+   * @deprecated the properties are created from the {@code neubert.tobias.tls.client} configuration by the
+   *             {@link DynamicTlsConfig}
+   */
+  @Deprecated
+  public static TlsClientProperties defaults() {
+    return new TlsClientProperties(
+      100,
+      20,
+      Duration.ofMinutes(5),
+      Duration.ofSeconds(30),
+      Duration.ofSeconds(5),
+      Duration.ofSeconds(2),
+      Duration.ofSeconds(5),
+      Duration.ofSeconds(5),
+      Duration.ofSeconds(30),
+      List.of(),
+      0);
+  }
+}
@@ -0,0 +1,82 @@
+package neubert.tobias.spring.rest.tls;
+
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.X509ExtendedTrustManager;
+import neubert.tobias.spring.tls.watcher.TrustedSessions;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.config.Registry;
+import org.apache.http.conn.ManagedHttpClientConnection;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * A pooling connection manager that survives trust rotations. After new trust material has been swapped in,
+ * only those pooled connections are dropped whose peer chain is not trusted anymore. Idle connections are
+ * closed immediately, connections that are currently in use are closed as soon as they are released.
+ */
+class TrustAwareConnectionManager extends PoolingHttpClientConnectionManager {
+  private static final Logger LOGGER = LoggerFactory.getLogger(TrustAwareConnectionManager.class);
+
+  private final Set<SSLSession> untrustedSessions = Collections.newSetFromMap(Collections.synchronizedMap(new WeakHashMap<>()));
+
+  TrustAwareConnectionManager(Registry<ConnectionSocketFactory> socketFactoryRegistry, long timeToLive, TimeUnit timeUnit) {
+    super(socketFactoryRegistry, null, null, null, timeToLive, timeUnit);
+  }
+
+  void evictUntrustedConnections(X509ExtendedTrustManager trustManager) {
+    AtomicInteger evicted = new AtomicInteger();
+
+    enumAvailable(entry -> {
+      SSLSession sslSession = entry.getConnection().getSSLSession();
+      if (sslSession != null && !TrustedSessions.isTrusted(sslSession, trustManager)) {
+        entry.close();
+        evicted.incrementAndGet();
+      }
+    });
+    enumLeased(entry -> {
+      SSLSession sslSession = entry.getConnection().getSSLSession();
+      if (sslSession != null && !TrustedSessions.isTrusted(sslSession, trustManager)) {
+        untrustedSessions.add(sslSession);
+        evicted.incrementAndGet();
+      }
+    });
+
+    LOGGER.info("Evicted {} pooled connection(s) whose peer is no longer trusted", evicted.get());
+  }
+
+  @Override
+  public void releaseConnection(HttpClientConnection managedConn, Object state, long keepalive, TimeUnit timeUnit) {
+    SSLSession sslSession = sslSession(managedConn);
+    if (sslSession != null && untrustedSessions.remove(sslSession)) {
+      try {
+        managedConn.close();
+      }
+      catch (IOException e) {
+        LOGGER.debug("Error while closing an untrusted connection", e);
+      }
+    }
+
+    super.releaseConnection(managedConn, state, keepalive, timeUnit);
+  }
+
+  private static SSLSession sslSession(HttpClientConnection connection) {
+    try {
+      return connection instanceof ManagedHttpClientConnection managedConnection
+        ? managedConnection.getSSLSession()
+        : null;
+    }
+    catch (IllegalStateException e) {
+      return null;
+    }
+  }
+}
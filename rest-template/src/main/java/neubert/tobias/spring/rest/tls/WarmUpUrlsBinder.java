@@ -0,0 +1,33 @@
+package neubert.tobias.spring.rest.tls;
+
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.ApplicationListener;
+
+import java.net.URI;
+import java.util.List;
+
+
+/**
+ * The {@link DynamicTlsRestTemplate} is created while bootstrapping, before the remote configuration is fetched.
+ * Once the application is ready its warm-up urls are bound again from the environment of the application, so they
+ * can be set by the config server, or refer to properties that are.
+ */
+class WarmUpUrlsBinder implements ApplicationListener<ApplicationReadyEvent> {
+  private static final String WARM_UP_URLS = "neubert.tobias.tls.client.warm-up-urls";
+
+  private final DynamicTlsRestTemplate restTemplate;
+
+  WarmUpUrlsBinder(DynamicTlsRestTemplate restTemplate) {
+    this.restTemplate = restTemplate;
+  }
+
+  @Override
+  public void onApplicationEvent(ApplicationReadyEvent event) {
+    List<URI> warmUpUrls = Binder.get(event.getApplicationContext().getEnvironment())
+      .bind(WARM_UP_URLS, Bindable.listOf(URI.class))
+      .orElse(List.of());
+    restTemplate.setWarmUpUrls(warmUpUrls);
+  }
+}
@@ -0,0 +1,114 @@
+package neubert.tobias.spring.rest.tls;
+
+
+import neubert.tobias.spring.tls.watcher.JsseProvider;
+import neubert.tobias.spring.tls.watcher.TlsMaterialWatcher;
+import org.apache.http.pool.PoolStats;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.FileSystemResource;
+
+import java.time.Duration;
+import java.util.List;
+
+import static java.lang.String.format;
+import static neubert.tobias.spring.rest.tls.TlsExtension.mockServer;
+import static neubert.tobias.spring.rest.tls.TlsExtension.mockServerPort;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockserver.model.HttpRequest.request;
+import static org.mockserver.model.HttpResponse.response;
+
+
+/**
+ * The configured rest template never keeps a connection idle for an hour, so only the {@code connection-ttl} can
+ * close its connections. The idle eviction is tested with a rest template that keeps connections forever.
+ */
+@SpringBootTest(
+  classes = {DynamicTlsConfig.class},
+  properties = {
+    "neubert.tobias.tls.client.max-total=3",
+    "neubert.tobias.tls.client.max-per-route=2",
+    "neubert.tobias.tls.client.connection-ttl=500ms",
+    "neubert.tobias.tls.client.max-idle-time=1h",
+    "neubert.tobias.tls.client.idle-eviction-interval=100ms"
+  })
+@ExtendWith(TlsExtension.class)
+class DynamicTlsRestTemplatePoolTest {
+  @Autowired
+  private DynamicTlsRestTemplate restTemplate;
+
+  @Autowired
+  private TlsMaterialWatcher tlsMaterialWatcher;
+
+  @Autowired
+  private JsseProvider jsseProvider;
+
+  @BeforeEach
+  void setup() {
+    mockServer
+      .when(request().withMethod("GET").withPath("/ping"))
+      .respond(response().withStatusCode(200).withBody("pong"));
+  }
+
+  @Test
+  void limitsThePoolInTotalAndPerRoute() {
+    ping(restTemplate);
+
+    assertThat(restTemplate.getTotalPoolStats().getMax()).isEqualTo(3);
+    assertThat(restTemplate.getRoutePoolStats().values()).extracting(PoolStats::getMax).containsOnly(2);
+  }
+
+  @Test
+  void closesConnectionsAfterTheirTimeToLive() throws Exception {
+    ping(restTemplate);
+    assertThat(restTemplate.getTotalPoolStats().getAvailable()).isEqualTo(1);
+
+    awaitAvailableConnections(restTemplate, 0);
+  }
+
+  @Test
+  void evictsIdleConnections() throws Exception {
+    DynamicTlsRestTemplate idleRestTemplate = new DynamicTlsRestTemplate(
+      new FileSystemResource(TlsExtension.trustPath),
+      new TlsClientProperties(
+        3,
+        2,
+        Duration.ZERO,
+        Duration.ofMillis(300),
+        Duration.ofMillis(100),
+        Duration.ofSeconds(2),
+        Duration.ofSeconds(5),
+        Duration.ofSeconds(5),
+        Duration.ofSeconds(30),
+        List.of(),
+        0),
+      tlsMaterialWatcher,
+      jsseProvider);
+    try {
+      ping(idleRestTemplate);
+      assertThat(idleRestTemplate.getTotalPoolStats().getAvailable()).isEqualTo(1);
+
+      awaitAvailableConnections(idleRestTemplate, 0);
+    }
+    finally {
+      idleRestTemplate.destroy();
+    }
+  }
+
+  private static void ping(DynamicTlsRestTemplate restTemplate) {
+    assertThat(restTemplate.getForObject(format("https://localhost:%s/ping", mockServerPort), String.class))
+      .isEqualTo("pong");
+  }
+
+  private static void awaitAvailableConnections(DynamicTlsRestTemplate restTemplate, int expected)
+    throws InterruptedException
+  {
+    for (int i = 0; i < 40 && restTemplate.getTotalPoolStats().getAvailable() != expected; i++) {
+      Thread.sleep(50);
+    }
+    assertThat(restTemplate.getTotalPoolStats().getAvailable()).isEqualTo(expected);
+  }
+}
@@ -0,0 +1,125 @@
+package neubert.tobias.spring.rest.tls;
+
+
+import neubert.tobias.spring.tls.watcher.JsseProvider;
+import neubert.tobias.spring.tls.watcher.TlsMaterialWatcher;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.support.GenericApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static java.lang.String.format;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static neubert.tobias.spring.rest.tls.TlsExtension.mockServerPort;
+import static org.assertj.core.api.Assertions.assertThat;
+
+
+@SpringBootTest(classes = {DynamicTlsConfig.class})
+@ExtendWith(TlsExtension.class)
+class DynamicTlsRestTemplateWarmUpTest {
+  @Autowired
+  private DynamicTlsRestTemplate restTemplate;
+
+  @Autowired
+  private TlsClientProperties clientProperties;
+
+  @Autowired
+  private TlsMaterialWatcher tlsMaterialWatcher;
+
+  @Autowired
+  private JsseProvider jsseProvider;
+
+  @DynamicPropertySource
+  static void warmUpProperties(DynamicPropertyRegistry registry) {
+    registry.add("neubert.tobias.tls.client.warm-up-urls", () -> format("https://localhost:%s/ping", mockServerPort));
+    registry.add("neubert.tobias.tls.client.min-connections-per-route", () -> 2);
+  }
+
+  @Test
+  void keepsTheWarmUpRoutesEstablished() throws Exception {
+    awaitAvailableConnections(2);
+
+    // the new trust does not accept the mock server, so its connections are evicted and cannot be reopened
+    Files.copy(TlsExtension.flyingDesksTrustPath, TlsExtension.trustPath, REPLACE_EXISTING);
+    Thread.sleep(1000);
+    assertThat(availableConnections()).isZero();
+
+    Files.copy(TlsExtension.tobiasTrustPath, TlsExtension.trustPath, REPLACE_EXISTING);
+    awaitAvailableConnections(2);
+  }
+
+  @Test
+  void warmsUpTheUrlsOfTheReadyApplication() throws Exception {
+    DynamicTlsRestTemplate bootstrapRestTemplate = new DynamicTlsRestTemplate(
+      new FileSystemResource(TlsExtension.trustPath),
+      withoutWarmUpUrls(clientProperties),
+      tlsMaterialWatcher,
+      jsseProvider);
+    try (GenericApplicationContext applicationContext = new GenericApplicationContext()) {
+      // like the remote configuration of the hello world service
+      applicationContext.getEnvironment().getPropertySources().addFirst(new MapPropertySource("remote", Map.of(
+        "neubert.tobias.hello.message-url", format("https://localhost:%s/ping", mockServerPort),
+        "neubert.tobias.tls.client.warm-up-urls", "${neubert.tobias.hello.message-url}")));
+      assertThat(availableConnections(bootstrapRestTemplate)).isZero();
+
+      new WarmUpUrlsBinder(bootstrapRestTemplate).onApplicationEvent(
+        new ApplicationReadyEvent(new SpringApplication(), new String[0], applicationContext, Duration.ZERO));
+
+      awaitAvailableConnections(bootstrapRestTemplate, 2);
+    }
+    finally {
+      bootstrapRestTemplate.destroy();
+    }
+  }
+
+  private void awaitAvailableConnections(int expected) throws InterruptedException {
+    awaitAvailableConnections(restTemplate, expected);
+  }
+
+  private static void awaitAvailableConnections(DynamicTlsRestTemplate restTemplate, int expected)
+    throws InterruptedException
+  {
+    for (int i = 0; i < 100 && availableConnections(restTemplate) != expected; i++) {
+      Thread.sleep(50);
+    }
+    assertThat(availableConnections(restTemplate)).isEqualTo(expected);
+  }
+
+  private int availableConnections() {
+    return availableConnections(restTemplate);
+  }
+
+  private static int availableConnections(DynamicTlsRestTemplate restTemplate) {
+    return restTemplate.getRoutePoolStats().entrySet().stream()
+      .filter(route -> route.getKey().getTargetHost().getPort() == mockServerPort)
+      .mapToInt(route -> route.getValue().getAvailable())
+      .sum();
+  }
+
+  private static TlsClientProperties withoutWarmUpUrls(TlsClientProperties clientProperties) {
+    return new TlsClientProperties(
+      clientProperties.maxTotal(),
+      clientProperties.maxPerRoute(),
+      clientProperties.connectionTimeToLive(),
+      clientProperties.maxIdleTime(),
+      clientProperties.idleEvictionInterval(),
+      clientProperties.validateAfterInactivity(),
+      clientProperties.connectTimeout(),
+      clientProperties.connectionRequestTimeout(),
+      clientProperties.readTimeout(),
+      List.of(),
+      clientProperties.minConnectionsPerRoute());
+  }
+}
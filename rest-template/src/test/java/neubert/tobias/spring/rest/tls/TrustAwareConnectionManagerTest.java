@@ -0,0 +1,113 @@
+package neubert.tobias.spring.rest.tls;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509ExtendedTrustManager;
+import nl.altindag.ssl.util.PemUtils;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.String.format;
+import static neubert.tobias.spring.rest.tls.TlsExtension.mockServer;
+import static neubert.tobias.spring.rest.tls.TlsExtension.mockServerPort;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockserver.model.HttpRequest.request;
+import static org.mockserver.model.HttpResponse.response;
+
+
+@ExtendWith(TlsExtension.class)
+class TrustAwareConnectionManagerTest {
+  private final X509ExtendedTrustManager tobiasTrust = trust("/tls/tobias-certificate.pem");
+  private final X509ExtendedTrustManager flyingDesksTrust = trust("/tls/flying-desks-certificate.pem");
+
+  private TrustAwareConnectionManager connectionManager;
+  private CloseableHttpClient httpClient;
+
+  @BeforeEach
+  void setup() throws Exception {
+    mockServer
+      .when(request().withMethod("GET").withPath("/ping"))
+      .respond(response().withStatusCode(200).withBody("pong"));
+
+    SSLContext sslContext = SSLContext.getInstance("TLS");
+    sslContext.init(null, new TrustManager[] {tobiasTrust}, null);
+    connectionManager = new TrustAwareConnectionManager(
+      RegistryBuilder.<ConnectionSocketFactory>create()
+        .register("https", new SSLConnectionSocketFactory(sslContext))
+        .build(),
+      -1,
+      TimeUnit.MILLISECONDS);
+    httpClient = HttpClients.custom().setConnectionManager(connectionManager).build();
+  }
+
+  @AfterEach
+  void close() throws IOException {
+    httpClient.close();
+  }
+
+  @Test
+  void keepsIdleConnectionsToTrustedPeers() throws Exception {
+    ping();
+
+    connectionManager.evictUntrustedConnections(tobiasTrust);
+
+    assertThat(connectionManager.getTotalStats().getAvailable()).isEqualTo(1);
+  }
+
+  @Test
+  void evictsIdleConnectionsToUntrustedPeers() throws Exception {
+    ping();
+
+    connectionManager.evictUntrustedConnections(flyingDesksTrust);
+
+    assertThat(connectionManager.getTotalStats().getAvailable()).isZero();
+  }
+
+  @Test
+  void closesLeasedConnectionsToUntrustedPeersOnRelease() throws Exception {
+    try (CloseableHttpResponse pong = httpClient.execute(new HttpGet(pingUrl()))) {
+      assertThat(connectionManager.getTotalStats().getLeased()).isEqualTo(1);
+
+      connectionManager.evictUntrustedConnections(flyingDesksTrust);
+
+      assertThat(EntityUtils.toString(pong.getEntity())).isEqualTo("pong");
+    }
+
+    assertThat(connectionManager.getTotalStats().getLeased()).isZero();
+    assertThat(connectionManager.getTotalStats().getAvailable()).isZero();
+  }
+
+  private void ping() throws IOException {
+    try (CloseableHttpResponse pong = httpClient.execute(new HttpGet(pingUrl()))) {
+      assertThat(EntityUtils.toString(pong.getEntity())).isEqualTo("pong");
+    }
+    assertThat(connectionManager.getTotalStats().getAvailable()).isEqualTo(1);
+  }
+
+  private static String pingUrl() {
+    return format("https://localhost:%s/ping", mockServerPort);
+  }
+
+  private static X509ExtendedTrustManager trust(String resource) {
+    try (InputStream certificate = TrustAwareConnectionManagerTest.class.getResourceAsStream(resource)) {
+      return PemUtils.loadTrustMaterial(certificate);
+    }
+    catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -0,0 +1,57 @@
+package neubert.tobias.spring.tls.watcher;
+
+import javax.naming.InvalidNameException;
+import javax.naming.ldap.LdapName;
+import javax.naming.ldap.Rdn;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.security.cert.CertificateParsingException;
+import java.security.cert.X509Certificate;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+
+
+/**
+ * Finds the host names a certificate has been issued for.
+ */
+public final class CertificateNames {
+  private static final Logger LOGGER = LoggerFactory.getLogger(CertificateNames.class);
+
+  private CertificateNames() {
+  }
+
+  /**
+   * @return the DNS names of the certificate or, if it has none, its common names, all in lower case
+   */
+  public static Set<String> of(X509Certificate certificate) {
+    Set<String> hostNames = new TreeSet<>();
+    try {
+      Collection<List<?>> alternativeNames = certificate.getSubjectAlternativeNames();
+      if (alternativeNames != null) {
+        for (List<?> alternativeName : alternativeNames) {
+          // 2 is the type of a dNSName
+          if (Integer.valueOf(2).equals(alternativeName.get(0))) {
+            hostNames.add(((String) alternativeName.get(1)).toLowerCase(Locale.ROOT));
+          }
+        }
+      }
+      if (hostNames.isEmpty()) {
+        for (Rdn rdn : new LdapName(certificate.getSubjectX500Principal().getName()).getRdns()) {
+          if ("CN".equalsIgnoreCase(rdn.getType())) {
+            hostNames.add(String.valueOf(rdn.getValue()).toLowerCase(Locale.ROOT));
+          }
+        }
+      }
+    }
+    catch (CertificateParsingException | InvalidNameException e) {
+      LOGGER.warn("Cannot read the host names of {}", certificate.getSubjectX500Principal());
+      LOGGER.debug("", e);
+    }
+
+    return hostNames;
+  }
+}
@@ -0,0 +1,80 @@
+package neubert.tobias.spring.tls.watcher;
+
+import nl.altindag.ssl.SSLFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.security.Provider;
+import java.security.Security;
+
+
+/**
+ * The JSSE provider that the SSL contexts of the server and the clients are built on, selected by
+ * {@code neubert.tobias.tls.provider}. {@code Conscrypt} is looked up reflectively, so it only has to be on the
+ * classpath if it is selected, any other name is looked up among the installed providers. If the selected provider
+ * is not available, for example if Conscrypt has no native library for the platform, the default provider of the
+ * JDK is used and a warning is logged.
+ * <p>
+ * The key and trust managers are the same swappable ones for every provider, so reloading works the same way.
+ */
+public final class JsseProvider {
+  private static final Logger LOGGER = LoggerFactory.getLogger(JsseProvider.class);
+  public static final String DEFAULT = "SunJSSE";
+  public static final String CONSCRYPT = "Conscrypt";
+
+  private final Provider provider;
+
+  private JsseProvider(Provider provider) {
+    this.provider = provider;
+  }
+
+  public static JsseProvider of(String name) {
+    if (name == null || name.isBlank() || DEFAULT.equalsIgnoreCase(name.strip())) {
+      return new JsseProvider(null);
+    }
+
+    Provider provider = CONSCRYPT.equalsIgnoreCase(name.strip()) ? conscrypt() : Security.getProvider(name.strip());
+    if (provider == null || provider.getService("SSLContext", "TLS") == null) {
+      LOGGER.warn("The JSSE provider {} is not available, falling back to {}", name, DEFAULT);
+      return new JsseProvider(null);
+    }
+
+    LOGGER.info("Building the SSL contexts on the JSSE provider {} {}", provider.getName(), provider.getVersionStr());
+    return new JsseProvider(provider);
+  }
+
+  /**
+   * @return the name of the provider that is actually used
+   */
+  public String name() {
+    return provider != null ? provider.getName() : DEFAULT;
+  }
+
+  public boolean isDefault() {
+    return provider == null;
+  }
+
+  public SSLFactory.Builder configure(SSLFactory.Builder sslFactoryBuilder) {
+    return provider != null ? sslFactoryBuilder.withSecurityProvider(provider) : sslFactoryBuilder;
+  }
+
+  private static Provider conscrypt() {
+    try {
+      Class<?> conscrypt = Class.forName("org.conscrypt.Conscrypt");
+      if (!(boolean) conscrypt.getMethod("isAvailable").invoke(null)) {
+        LOGGER.warn("Conscrypt has no native library for this platform");
+        return null;
+      }
+
+      return (Provider) conscrypt.getMethod("newProvider").invoke(null);
+    }
+    catch (ClassNotFoundException e) {
+      LOGGER.warn("Conscrypt is not on the classpath, add org.conscrypt:conscrypt-openjdk-uber");
+      return null;
+    }
+    catch (ReflectiveOperationException | LinkageError e) {
+      LOGGER.warn("Cannot load Conscrypt: {}", e.toString());
+      return null;
+    }
+  }
+}
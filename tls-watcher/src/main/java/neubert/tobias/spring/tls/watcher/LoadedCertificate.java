@@ -0,0 +1,15 @@
+package neubert.tobias.spring.tls.watcher;
+
+import java.nio.file.Path;
+import java.security.cert.X509Certificate;
+
+
+/**
+ * A certificate of the TLS material that the {@link TlsMaterialWatcher} has loaded from {@code path}.
+ */
+public record LoadedCertificate(Kind kind, Path path, X509Certificate certificate) {
+  public enum Kind {
+    IDENTITY,
+    TRUST
+  }
+}
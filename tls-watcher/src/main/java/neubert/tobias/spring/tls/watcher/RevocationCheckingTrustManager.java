@@ -0,0 +1,74 @@
+package neubert.tobias.spring.tls.watcher;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.X509ExtendedTrustManager;
+
+import java.net.Socket;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+
+
+/**
+ * Rejects chains that are trusted by the given trust manager but contain a certificate that is revoked according
+ * to the {@link RevocationIndex}.
+ */
+final class RevocationCheckingTrustManager extends X509ExtendedTrustManager {
+  private final X509ExtendedTrustManager trustManager;
+  private final RevocationIndex revocationIndex;
+
+  RevocationCheckingTrustManager(X509ExtendedTrustManager trustManager, RevocationIndex revocationIndex) {
+    this.trustManager = trustManager;
+    this.revocationIndex = revocationIndex;
+  }
+
+  @Override
+  public void checkClientTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+    trustManager.checkClientTrusted(chain, authType);
+    checkRevocation(chain);
+  }
+
+  @Override
+  public void checkClientTrusted(X509Certificate[] chain, String authType, Socket socket) throws CertificateException {
+    trustManager.checkClientTrusted(chain, authType, socket);
+    checkRevocation(chain);
+  }
+
+  @Override
+  public void checkClientTrusted(X509Certificate[] chain, String authType, SSLEngine engine) throws CertificateException {
+    trustManager.checkClientTrusted(chain, authType, engine);
+    checkRevocation(chain);
+  }
+
+  @Override
+  public void checkServerTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+    trustManager.checkServerTrusted(chain, authType);
+    checkRevocation(chain);
+  }
+
+  @Override
+  public void checkServerTrusted(X509Certificate[] chain, String authType, Socket socket) throws CertificateException {
+    trustManager.checkServerTrusted(chain, authType, socket);
+    checkRevocation(chain);
+  }
+
+  @Override
+  public void checkServerTrusted(X509Certificate[] chain, String authType, SSLEngine engine) throws CertificateException {
+    trustManager.checkServerTrusted(chain, authType, engine);
+    checkRevocation(chain);
+  }
+
+  @Override
+  public X509Certificate[] getAcceptedIssuers() {
+    return trustManager.getAcceptedIssuers();
+  }
+
+  private void checkRevocation(X509Certificate[] chain) throws CertificateException {
+    for (X509Certificate certificate : chain) {
+      if (revocationIndex.isRevoked(certificate)) {
+        throw new CertificateException(
+          "The certificate " + certificate.getSerialNumber().toString(16) + " of "
+            + certificate.getIssuerX500Principal() + " has been revoked");
+      }
+    }
+  }
+}
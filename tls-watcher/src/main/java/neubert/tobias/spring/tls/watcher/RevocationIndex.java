@@ -0,0 +1,328 @@
+package neubert.tobias.spring.tls.watcher;
+
+import javax.security.auth.x500.X500Principal;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CRL;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509CRL;
+import java.security.cert.X509CRLEntry;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * The serial numbers of all revoked certificates of a set of CRLs, compiled into a file that is memory-mapped. The
+ * file holds a table of the issuers, sorted by the SHA-256 of their canonical name, followed by the serials of each
+ * issuer as sorted, fixed-width unsigned numbers. A lookup is a binary search over the issuers and one over the
+ * serials of the issuer, so it neither depends on the size of the CRLs nor does the index take any heap.
+ * <p>
+ * The file is deleted right after it is mapped, the mapping lives as long as the index is referenced.
+ */
+public final class RevocationIndex {
+  private static final Logger LOGGER = LoggerFactory.getLogger(RevocationIndex.class);
+  private static final int MAGIC = 0x43524c31; // CRL1
+  private static final int HEADER_SIZE = 12;
+  private static final int ISSUER_HASH_SIZE = 32;
+  private static final int ISSUER_ENTRY_SIZE = ISSUER_HASH_SIZE + 8;
+
+  private final MappedByteBuffer index;
+  private final int serialWidth;
+  private final int issuerCount;
+  private final int size;
+
+  private RevocationIndex(MappedByteBuffer index, int size) {
+    this.index = index;
+    this.serialWidth = index.getInt(4);
+    this.issuerCount = index.getInt(8);
+    this.size = size;
+  }
+
+  /**
+   * Parses the CRLs of the given files, PEM or DER encoded, and compiles the index of the CRLs that are signed by
+   * one of the trusted certificates. All other CRLs are ignored with a warning.
+   */
+  public static RevocationIndex compile(Map<Path, byte[]> crlFiles, X509Certificate[] trustedCertificates) {
+    List<X509CRL> crls = new ArrayList<>();
+    crlFiles.forEach((path, content) -> {
+      for (X509CRL crl : parse(path, content)) {
+        if (!isSignedByOneOf(crl, trustedCertificates)) {
+          LOGGER.warn(
+            "The CRL of {} in {} is not signed by a trusted certificate, it is ignored",
+            crl.getIssuerX500Principal(),
+            path);
+        }
+        else {
+          if (crl.getNextUpdate() != null && crl.getNextUpdate().before(new Date())) {
+            LOGGER.warn(
+              "The CRL of {} in {} is outdated since {}",
+              crl.getIssuerX500Principal(),
+              path,
+              crl.getNextUpdate());
+          }
+          crls.add(crl);
+        }
+      }
+    });
+
+    Map<X500Principal, Collection<BigInteger>> revokedSerials = new HashMap<>();
+    for (X509CRL crl : crls) {
+      Collection<BigInteger> serials =
+        revokedSerials.computeIfAbsent(crl.getIssuerX500Principal(), issuer -> new ArrayList<>());
+      if (crl.getRevokedCertificates() != null) {
+        for (X509CRLEntry entry : crl.getRevokedCertificates()) {
+          serials.add(entry.getSerialNumber());
+        }
+      }
+    }
+
+    return compile(revokedSerials);
+  }
+
+  static RevocationIndex compile(Map<X500Principal, ? extends Collection<BigInteger>> revokedSerials) {
+    List<Issuer> issuers = new ArrayList<>();
+    int serialWidth = 1;
+    for (Map.Entry<X500Principal, ? extends Collection<BigInteger>> entry : revokedSerials.entrySet()) {
+      byte[][] serials = entry.getValue().stream().map(RevocationIndex::magnitude).toArray(byte[][]::new);
+      for (byte[] serial : serials) {
+        serialWidth = Math.max(serialWidth, serial.length);
+      }
+      issuers.add(new Issuer(issuerHash(entry.getKey()), serials));
+    }
+    issuers.sort((first, second) -> Arrays.compareUnsigned(first.hash(), second.hash()));
+
+    try {
+      Path file = Files.createTempFile("tls-revocation-", ".idx");
+      try {
+        int size = write(file, issuers, serialWidth);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+          return new RevocationIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), size);
+        }
+      }
+      finally {
+        try {
+          Files.deleteIfExists(file);
+        }
+        catch (IOException e) {
+          file.toFile().deleteOnExit();
+        }
+      }
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException("Cannot compile the revocation index", e);
+    }
+  }
+
+  /**
+   * @return the number of revoked serials
+   */
+  public int size() {
+    return size;
+  }
+
+  public boolean isRevoked(X509Certificate certificate) {
+    return isRevoked(certificate.getIssuerX500Principal(), certificate.getSerialNumber());
+  }
+
+  public boolean isRevoked(X500Principal issuer, BigInteger serialNumber) {
+    int issuerEntry = findIssuer(issuerHash(issuer));
+    if (issuerEntry < 0) {
+      return false;
+    }
+
+    byte[] serial = magnitude(serialNumber);
+    if (serial.length > serialWidth) {
+      return false;
+    }
+    byte[] key = new byte[serialWidth];
+    System.arraycopy(serial, 0, key, serialWidth - serial.length, serial.length);
+
+    int first = index.getInt(issuerEntry + ISSUER_HASH_SIZE);
+    int count = index.getInt(issuerEntry + ISSUER_HASH_SIZE + 4);
+    int serialsStart = HEADER_SIZE + issuerCount * ISSUER_ENTRY_SIZE;
+
+    int low = first;
+    int high = first + count - 1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      int comparison = compare(serialsStart + middle * serialWidth, key, serialWidth);
+      if (comparison < 0) {
+        low = middle + 1;
+      }
+      else if (comparison > 0) {
+        high = middle - 1;
+      }
+      else {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  private int findIssuer(byte[] hash) {
+    int low = 0;
+    int high = issuerCount - 1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      int entry = HEADER_SIZE + middle * ISSUER_ENTRY_SIZE;
+      int comparison = compare(entry, hash, ISSUER_HASH_SIZE);
+      if (comparison < 0) {
+        low = middle + 1;
+      }
+      else if (comparison > 0) {
+        high = middle - 1;
+      }
+      else {
+        return entry;
+      }
+    }
+
+    return -1;
+  }
+
+  private int compare(int offset, byte[] key, int length) {
+    for (int i = 0; i < length; i++) {
+      int comparison = Integer.compare(index.get(offset + i) & 0xff, key[i] & 0xff);
+      if (comparison != 0) {
+        return comparison;
+      }
+    }
+
+    return 0;
+  }
+
+  /**
+   * @return the number of distinct serials written
+   */
+  private static int write(Path file, List<Issuer> issuers, int serialWidth) throws IOException {
+    List<byte[][]> sortedSerials = new ArrayList<>();
+    for (Issuer issuer : issuers) {
+      byte[][] serials = Arrays.stream(issuer.serials())
+        .map(serial -> {
+          byte[] padded = new byte[serialWidth];
+          System.arraycopy(serial, 0, padded, serialWidth - serial.length, serial.length);
+          return padded;
+        })
+        .sorted(Arrays::compareUnsigned)
+        .toArray(byte[][]::new);
+      sortedSerials.add(distinct(serials));
+    }
+
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + issuers.size() * ISSUER_ENTRY_SIZE);
+      header.putInt(MAGIC).putInt(serialWidth).putInt(issuers.size());
+
+      int first = 0;
+      for (int i = 0; i < issuers.size(); i++) {
+        header.put(issuers.get(i).hash()).putInt(first).putInt(sortedSerials.get(i).length);
+        first += sortedSerials.get(i).length;
+      }
+      writeFully(channel, header.flip());
+
+      ByteBuffer buffer = ByteBuffer.allocate(Math.max(serialWidth, 64 * 1024 / serialWidth * serialWidth));
+      for (byte[][] serials : sortedSerials) {
+        for (byte[] serial : serials) {
+          if (buffer.remaining() < serialWidth) {
+            writeFully(channel, buffer.flip());
+            buffer.clear();
+          }
+          buffer.put(serial);
+        }
+      }
+      writeFully(channel, buffer.flip());
+
+      return first;
+    }
+  }
+
+  /**
+   * The serials are sorted, so equal serials are neighbours.
+   */
+  private static byte[][] distinct(byte[][] sorted) {
+    List<byte[]> distinct = new ArrayList<>(sorted.length);
+    for (byte[] serial : sorted) {
+      if (distinct.isEmpty() || !Arrays.equals(distinct.get(distinct.size() - 1), serial)) {
+        distinct.add(serial);
+      }
+    }
+
+    return distinct.toArray(byte[][]::new);
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  private static Collection<X509CRL> parse(Path path, byte[] content) {
+    try {
+      List<X509CRL> crls = new ArrayList<>();
+      for (CRL crl : CertificateFactory.getInstance("X.509").generateCRLs(new ByteArrayInputStream(content))) {
+        crls.add((X509CRL) crl);
+      }
+      return crls;
+    }
+    catch (GeneralSecurityException e) {
+      LOGGER.warn("Cannot parse the CRLs in {}, they are ignored: {}", path, e.getMessage());
+      return List.of();
+    }
+  }
+
+  private static boolean isSignedByOneOf(X509CRL crl, X509Certificate[] trustedCertificates) {
+    for (X509Certificate certificate : trustedCertificates) {
+      if (certificate.getSubjectX500Principal().equals(crl.getIssuerX500Principal())) {
+        try {
+          crl.verify(certificate.getPublicKey());
+          return true;
+        }
+        catch (GeneralSecurityException e) {
+          LOGGER.debug("The CRL of {} does not match the key of a trusted certificate", crl.getIssuerX500Principal());
+          LOGGER.debug("", e);
+        }
+      }
+    }
+
+    return false;
+  }
+
+  private static byte[] magnitude(BigInteger serialNumber) {
+    byte[] bytes = serialNumber.abs().toByteArray();
+    return bytes.length > 1 && bytes[0] == 0 ? Arrays.copyOfRange(bytes, 1, bytes.length) : bytes;
+  }
+
+  private static byte[] issuerHash(X500Principal issuer) {
+    try {
+      return MessageDigest.getInstance("SHA-256")
+        .digest(issuer.getName(X500Principal.CANONICAL).getBytes(StandardCharsets.UTF_8));
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private record Issuer(byte[] hash, byte[][] serials) {
+  }
+}
@@ -0,0 +1,36 @@
+package neubert.tobias.spring.tls.watcher;
+
+import javax.net.ssl.X509KeyManager;
+
+import java.security.cert.X509Certificate;
+import java.util.LinkedHashSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+
+/**
+ * Finds the certificates a key manager serves, one per server alias of every common key type.
+ */
+public final class ServedCertificates {
+  private static final String[] KEY_TYPES = {"RSA", "RSASSA-PSS", "EC", "EdDSA", "DSA"};
+
+  private ServedCertificates() {
+  }
+
+  /**
+   * @return the leaf certificates of the chains of all server aliases
+   */
+  public static Set<X509Certificate> of(X509KeyManager keyManager) {
+    return Stream.of(KEY_TYPES)
+      .map(keyType -> keyManager.getServerAliases(keyType, null))
+      .filter(Objects::nonNull)
+      .flatMap(Stream::of)
+      .distinct()
+      .map(keyManager::getCertificateChain)
+      .filter(chain -> chain != null && chain.length > 0)
+      .map(chain -> chain[0])
+      .collect(Collectors.toCollection(LinkedHashSet::new));
+  }
+}
@@ -0,0 +1,32 @@
+package neubert.tobias.spring.tls.watcher;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.TreeMap;
+
+
+/**
+ * A set of TLS files, keyed by their file name, as it is distributed by the config server. The version is the
+ * SHA-256 over the names and the contents of all files, so equal bundles have equal versions on every node.
+ */
+public record TlsBundle(String version, Map<String, byte[]> files) {
+  public static TlsBundle of(Map<String, byte[]> files) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      Map<String, byte[]> sortedFiles = new TreeMap<>(files);
+      for (Map.Entry<String, byte[]> file : sortedFiles.entrySet()) {
+        digest.update(file.getKey().getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(MessageDigest.getInstance("SHA-256").digest(file.getValue()));
+      }
+
+      return new TlsBundle(HexFormat.of().formatHex(digest.digest()), sortedFiles);
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -0,0 +1,68 @@
+package neubert.tobias.spring.tls.watcher;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.stream.Collectors;
+
+
+/**
+ * Lists the certificates that are currently served and trusted, so the fingerprints can be compared with the
+ * ones that have been rolled out. Exposed as {@code /actuator/tlscertificates} if it is included in
+ * {@code management.endpoints.web.exposure.include}.
+ */
+@Endpoint(id = "tlscertificates")
+public class TlsCertificatesEndpoint {
+  private final TlsMaterialWatcher tlsMaterialWatcher;
+
+  public TlsCertificatesEndpoint(TlsMaterialWatcher tlsMaterialWatcher) {
+    this.tlsMaterialWatcher = tlsMaterialWatcher;
+  }
+
+  @ReadOperation
+  public List<CertificateDescriptor> certificates() {
+    return tlsMaterialWatcher.loadedCertificates().stream()
+      .map(CertificateDescriptor::of)
+      .collect(Collectors.toList());
+  }
+
+  public record CertificateDescriptor(
+    String kind,
+    String file,
+    String subject,
+    String issuer,
+    String serialNumber,
+    Instant notAfter,
+    String sha256Fingerprint)
+  {
+    static CertificateDescriptor of(LoadedCertificate loaded) {
+      X509Certificate certificate = loaded.certificate();
+
+      return new CertificateDescriptor(
+        loaded.kind().name().toLowerCase(),
+        loaded.path().toString(),
+        certificate.getSubjectX500Principal().getName(),
+        certificate.getIssuerX500Principal().getName(),
+        certificate.getSerialNumber().toString(16),
+        certificate.getNotAfter().toInstant(),
+        fingerprint(certificate));
+    }
+
+    private static String fingerprint(X509Certificate certificate) {
+      try {
+        byte[] digest = MessageDigest.getInstance("SHA-256").digest(certificate.getEncoded());
+        return HexFormat.ofDelimiter(":").withUpperCase().formatHex(digest);
+      }
+      catch (NoSuchAlgorithmException | CertificateEncodingException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+  }
+}
@@ -0,0 +1,107 @@
+package neubert.tobias.spring.tls.watcher;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.MultiGauge;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import java.nio.file.Path;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+
+/**
+ * Times every reload of the {@link TlsMaterialWatcher} from the first file event to the end of the swap as
+ * {@code tls.reload}, tagged with the subscription and the outcome, and reports the days until the loaded
+ * certificates expire as {@code tls.certificate.expiry}.
+ * <p>
+ * A trust bundle may contain hundreds of CAs, so there is one expiry per identity certificate but only the
+ * earliest one per trust file.
+ */
+public class TlsMaterialMetrics implements MeterBinder, TlsMaterialWatcher.Observer {
+  private static final Comparator<LoadedCertificate> EXPIRY =
+    Comparator.comparing(loaded -> loaded.certificate().getNotAfter());
+
+  private final TlsMaterialWatcher tlsMaterialWatcher;
+
+  private volatile MeterRegistry meterRegistry;
+  private volatile MultiGauge expiryGauge;
+
+  public TlsMaterialMetrics(TlsMaterialWatcher tlsMaterialWatcher) {
+    this.tlsMaterialWatcher = tlsMaterialWatcher;
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    expiryGauge = MultiGauge.builder("tls.certificate.expiry")
+      .description("Days until a loaded identity certificate or the first certificate of a trust file expires")
+      .baseUnit("days")
+      .register(registry);
+    meterRegistry = registry;
+    tlsMaterialWatcher.observe(this);
+    materialParsed();
+  }
+
+  @Override
+  public void reloaded(String subscription, String outcome, long nanos) {
+    MeterRegistry registry = meterRegistry;
+    if (registry != null) {
+      Timer.builder("tls.reload")
+        .description("Time from the first file event to the end of the reload")
+        .tag("subscription", subscription)
+        .tag("outcome", outcome)
+        .register(registry)
+        .record(nanos, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  @Override
+  public void materialParsed() {
+    MultiGauge gauge = expiryGauge;
+    if (gauge == null) {
+      return;
+    }
+
+    List<LoadedCertificate> expiringCertificates = new ArrayList<>();
+    Map<Path, LoadedCertificate> firstExpiringTrust = new LinkedHashMap<>();
+    for (LoadedCertificate loaded : tlsMaterialWatcher.loadedCertificates()) {
+      if (loaded.kind() == LoadedCertificate.Kind.IDENTITY) {
+        expiringCertificates.add(loaded);
+      }
+      else {
+        firstExpiringTrust.merge(
+          loaded.path(),
+          loaded,
+          (first, other) -> EXPIRY.compare(first, other) <= 0 ? first : other);
+      }
+    }
+    expiringCertificates.addAll(firstExpiringTrust.values());
+
+    gauge.register(
+      expiringCertificates.stream()
+        .map(loaded -> MultiGauge.Row.of(
+          Tags.of(
+            "kind", loaded.kind().name().toLowerCase(Locale.ROOT),
+            "file", String.valueOf(loaded.path().getFileName()),
+            "subject", loaded.certificate().getSubjectX500Principal().getName(),
+            "serial", loaded.certificate().getSerialNumber().toString(16)),
+          loaded.certificate(),
+          TlsMaterialMetrics::daysUntilExpiry))
+        .collect(Collectors.toList()),
+      true);
+  }
+
+  private static double daysUntilExpiry(X509Certificate certificate) {
+    return Duration.between(Instant.now(), certificate.getNotAfter().toInstant()).toHours() / 24.0;
+  }
+}
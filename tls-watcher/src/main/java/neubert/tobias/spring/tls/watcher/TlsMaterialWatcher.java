@@ -0,0 +1,697 @@
+package neubert.tobias.spring.tls.watcher;
+
+import javax.net.ssl.X509ExtendedKeyManager;
+import javax.net.ssl.X509ExtendedTrustManager;
+import nl.altindag.ssl.util.PemUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.core.io.Resource;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+
+/**
+ * The one reload engine for all TLS files of an application. A single daemon thread watches the directories
+ * of all subscribed files, coalesces the events that arrive within the debounce window and only notifies
+ * the subscribers of those files whose SHA-256 actually changed. A steady stream of events does not delay the reload
+ * for longer than the maximum debounce wait. The parsed TLS material is cached per
+ * content hash, so every file is parsed only once no matter how many subscribers use it.
+ * <p>
+ * Files may be symlinks that are retargeted atomically, like the secrets that kubernetes mounts through a
+ * {@code ..data} symlink. Therefore any event in the directory of a file or in the directory of its real path
+ * leads to a check of the real path, the inode and the modification time of the file. The same cheap check runs
+ * every poll interval and after an overflow of the watch service, so no rotation is missed.
+ * <p>
+ * Reloads and parsed material are reported to the observers of the watcher, like the {@link TlsMaterialMetrics}.
+ * <p>
+ * Instead of waiting for files, the content of the watched files can also be pushed as a {@link TlsBundle}.
+ */
+public class TlsMaterialWatcher implements DisposableBean {
+  private static final Logger LOGGER = LoggerFactory.getLogger(TlsMaterialWatcher.class);
+  private final Duration debounce;
+  private final Duration maxDebounce;
+  private final Duration pollInterval;
+  private final WatchService watchService;
+  private final Map<Path, WatchKey> watchedDirectories = new ConcurrentHashMap<>();
+  private final Map<Path, WatchedFile> watchedFiles = new ConcurrentHashMap<>();
+  private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+  private final Map<Path, Parsed<X509ExtendedTrustManager>> trustMaterial = new ConcurrentHashMap<>();
+  private final Map<Path, TrustBundleIndex> trustBundles = new ConcurrentHashMap<>();
+  private final Map<Path, List<Path>> crlPaths = new ConcurrentHashMap<>();
+  private final Map<List<Path>, Parsed<X509ExtendedKeyManager>> identityMaterial = new ConcurrentHashMap<>();
+  private final Map<Path, Pushed> pushedContents = new ConcurrentHashMap<>();
+  private final List<Observer> observers = new CopyOnWriteArrayList<>();
+  private final Thread watcherThread;
+
+  private volatile boolean watching = true;
+  private boolean crlFilesChanged;
+
+  public TlsMaterialWatcher(Duration debounce, Duration pollInterval) throws IOException {
+    this(debounce, debounce.multipliedBy(20), pollInterval);
+  }
+
+  /**
+   * @param maxDebounce the longest time from the first event to the reload, even if further events keep arriving
+   */
+  public TlsMaterialWatcher(Duration debounce, Duration maxDebounce, Duration pollInterval) throws IOException {
+    this.debounce = debounce;
+    this.maxDebounce = maxDebounce;
+    this.pollInterval = pollInterval;
+    this.watchService = FileSystems.getDefault().newWatchService();
+    this.watcherThread = new Thread(this::watch, "tls-material-watcher");
+
+    watcherThread.setDaemon(true);
+    watcherThread.start();
+  }
+
+  public static Path pathOf(Resource resource) throws IOException {
+    return Path.of(resource.getFile().getAbsolutePath());
+  }
+
+  public Subscription subscribe(Collection<Path> paths, Runnable listener) throws IOException {
+    return subscribe(
+      paths.stream().map(path -> String.valueOf(path.getFileName())).sorted().collect(Collectors.joining(",")),
+      paths,
+      listener);
+  }
+
+  /**
+   * Calls the given listener once per debounce window in which the content of at least one of the given
+   * files has changed. A listener signals a failed reload by throwing an exception.
+   *
+   * @param name names the subscription in the log and in the metrics
+   */
+  public Subscription subscribe(String name, Collection<Path> paths, Runnable listener) throws IOException {
+    Subscription subscription = new Subscription(name, Set.copyOf(paths), listener);
+    for (Path path : subscription.paths) {
+      watchedFiles.computeIfAbsent(path, newPath -> new WatchedFile(newPath, pushedContent(newPath)));
+    }
+    subscriptions.add(subscription);
+    synchronizeDirectories();
+
+    return subscription;
+  }
+
+  /**
+   * Replaces the content of the files of the bundle in the given directory, without touching the disk, and
+   * notifies the subscribers of the changed files just like a change on disk. The pushed content of a file stays
+   * until the file is written on disk, files that are subscribed later start with the pushed content.
+   */
+  public void publish(TlsBundle bundle, Path directory) {
+    long detected = System.nanoTime();
+    Set<Path> changedPaths = new HashSet<>();
+    bundle.files().forEach((name, bytes) -> {
+      Path path = directory.resolve(name).normalize();
+      if (!directory.equals(path.getParent())) {
+        LOGGER.warn("The file {} of the TLS bundle {} is not a file name, it is ignored", name, bundle.version());
+        return;
+      }
+
+      Pushed pushed = new Pushed(Content.of(bytes), Stamp.ofExisting(path));
+      pushedContents.put(path, pushed);
+      WatchedFile watchedFile = watchedFiles.get(path);
+      if (watchedFile != null && watchedFile.push(pushed.content())) {
+        changedPaths.add(path);
+      }
+    });
+
+    if (changedPaths.isEmpty()) {
+      LOGGER.debug("The TLS bundle {} did not change any watched file", bundle.version());
+      return;
+    }
+
+    LOGGER.info("Content of {} has been pushed with the TLS bundle {}", changedPaths, bundle.version());
+    notifySubscribers(changedPaths, detected);
+  }
+
+  /**
+   * @return the trust file and the CRL files next to it, all of them have to be subscribed to follow changes of
+   *         the trust
+   */
+  public List<Path> trustPaths(Path trustPath) {
+    List<Path> paths = new ArrayList<>();
+    paths.add(trustPath);
+    paths.addAll(crlPaths(trustPath));
+
+    return paths;
+  }
+
+  /**
+   * If there are CRL files ({@code *.crl}, PEM or DER) in the directory of the trust file, the returned trust
+   * manager also rejects every certificate that is revoked by one of them. The directory is scanned again whenever
+   * a CRL file is added or removed and on every poll, the subscriptions of the trust file follow the CRL files.
+   */
+  public X509ExtendedTrustManager trustMaterial(Path trustPath) {
+    Content content = content(trustPath);
+    Map<Path, Content> crlContents = new LinkedHashMap<>();
+    crlPaths(trustPath).forEach(crlPath -> crlContents.put(crlPath, content(crlPath)));
+    String hash = content.hash() + crlContents.values().stream().map(Content::hash).collect(Collectors.joining());
+
+    Parsed<X509ExtendedTrustManager> parsed = trustMaterial.compute(trustPath, (path, cached) ->
+      cached != null && cached.hash().equals(hash)
+        ? cached
+        : new Parsed<>(hash, withRevocation(parseTrustMaterial(path, content), crlContents)));
+    materialParsed();
+
+    return parsed.material();
+  }
+
+  public X509ExtendedKeyManager identityMaterial(Path certPath, Path keyPath) {
+    Content certContent = content(certPath);
+    Content keyContent = content(keyPath);
+    String hash = certContent.hash() + keyContent.hash();
+
+    Parsed<X509ExtendedKeyManager> parsed = identityMaterial.compute(List.of(certPath, keyPath), (paths, cached) ->
+      cached != null && cached.hash().equals(hash)
+        ? cached
+        : new Parsed<>(hash, parseIdentityMaterial(paths, certContent, keyContent)));
+    materialParsed();
+
+    return parsed.material();
+  }
+
+  /**
+   * @return the certificates of the identity and trust material that has been parsed last for every file
+   */
+  public List<LoadedCertificate> loadedCertificates() {
+    List<LoadedCertificate> certificates = new ArrayList<>();
+    identityMaterial.forEach((paths, parsed) -> {
+      for (X509Certificate certificate : ServedCertificates.of(parsed.material())) {
+        certificates.add(new LoadedCertificate(LoadedCertificate.Kind.IDENTITY, paths.get(0), certificate));
+      }
+    });
+    trustMaterial.forEach((path, parsed) -> {
+      for (X509Certificate certificate : parsed.material().getAcceptedIssuers()) {
+        certificates.add(new LoadedCertificate(LoadedCertificate.Kind.TRUST, path, certificate));
+      }
+    });
+
+    return certificates;
+  }
+
+  void observe(Observer observer) {
+    observers.add(observer);
+  }
+
+  /**
+   * @return the current content of a file that is not parsed as TLS material, like a session ticket key
+   */
+  public byte[] rawMaterial(Path path) {
+    return content(path).bytes().clone();
+  }
+
+  public void stop() {
+    if (watching) {
+      LOGGER.info("Stopping the TLS material watcher");
+
+      watching = false;
+      try {
+        watchService.close();
+      }
+      catch (IOException e) {
+        LOGGER.warn("Error while closing the file watcher.", e);
+      }
+    }
+  }
+
+  @Override
+  public void destroy() throws Exception {
+    stop();
+  }
+
+  /**
+   * Watches the directories of all watched files and the directories of their real paths, which change
+   * whenever a symlink is retargeted.
+   */
+  private synchronized void synchronizeDirectories() throws IOException {
+    Set<Path> directories = watchedFiles.values().stream()
+      .flatMap(WatchedFile::directories)
+      .collect(Collectors.toSet());
+
+    watchedDirectories.entrySet().removeIf(entry -> {
+      if (directories.contains(entry.getKey()) && entry.getValue().isValid()) {
+        return false;
+      }
+      entry.getValue().cancel();
+      return true;
+    });
+    for (Path directory : directories) {
+      if (!watchedDirectories.containsKey(directory) && Files.isDirectory(directory)) {
+        watchedDirectories.put(directory, directory.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY));
+      }
+    }
+  }
+
+  private void removeUnusedFiles() {
+    Set<Path> usedPaths = subscriptions.stream()
+      .flatMap(subscription -> subscription.paths.stream())
+      .collect(Collectors.toSet());
+    watchedFiles.keySet().retainAll(usedPaths);
+
+    try {
+      synchronizeDirectories();
+    }
+    catch (IOException e) {
+      LOGGER.warn("Error while unregistering unused directories.", e);
+    }
+  }
+
+  /**
+   * Collects the files to check until no further event arrives within the debounce window or the maximum debounce
+   * wait since the first event has passed. The boolean value
+   * of a candidate tells whether its content has to be hashed even if the metadata of the file did not change.
+   */
+  private void watch() {
+    Map<Path, Boolean> candidates = new HashMap<>();
+    long detected = 0;
+    long deadline = 0;
+    long nextPoll = System.nanoTime() + pollInterval.toNanos();
+
+    while (watching) {
+      try {
+        long wakeUp = candidates.isEmpty() ? nextPoll : Math.min(deadline, nextPoll);
+        WatchKey watchKey = watchService.poll(Math.max(0, wakeUp - System.nanoTime()), TimeUnit.NANOSECONDS);
+
+        if (watchKey != null) {
+          if (candidates.isEmpty()) {
+            detected = System.nanoTime();
+          }
+          collectCandidates(watchKey, candidates);
+          long quiet = System.nanoTime() + debounce.toNanos();
+          long latest = detected + maxDebounce.toNanos();
+          deadline = quiet - latest < 0 ? quiet : latest;
+        }
+
+        long now = System.nanoTime();
+        if (now - nextPoll >= 0) {
+          // a poll must not cut short the debounce window of changes that are pending already
+          if (candidates.isEmpty()) {
+            detected = now;
+            deadline = now;
+          }
+          watchedFiles.keySet().forEach(path -> candidates.putIfAbsent(path, false));
+          crlFilesChanged = true;
+          nextPoll = now + pollInterval.toNanos();
+        }
+        if (!candidates.isEmpty() && now - deadline >= 0) {
+          reload(candidates, detected);
+          candidates.clear();
+          synchronizeDirectories();
+        }
+      }
+      catch (ClosedWatchServiceException e) {
+        break;
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+      catch (Exception e) {
+        LOGGER.error("Error while watching the TLS material. Proceed watching for changes.", e);
+      }
+    }
+
+    LOGGER.info("TLS material watcher stopped");
+  }
+
+  private void collectCandidates(WatchKey watchKey, Map<Path, Boolean> candidates) {
+    Path directory = (Path) watchKey.watchable();
+
+    for (WatchEvent<?> fileEvent : watchKey.pollEvents()) {
+      if (fileEvent.kind() == OVERFLOW) {
+        LOGGER.info("Events of {} have been dropped, checking all watched files", directory);
+        watchedFiles.keySet().forEach(path -> candidates.putIfAbsent(path, false));
+        continue;
+      }
+
+      Path eventPath = directory.resolve((Path) fileEvent.context());
+      if (isCrlFile(eventPath) && crlPaths.keySet().stream().anyMatch(path -> directory.equals(path.getParent()))) {
+        crlFilesChanged = true;
+      }
+      for (WatchedFile watchedFile : watchedFiles.values()) {
+        if (watchedFile.isNamed(eventPath)) {
+          LOGGER.debug("Recognised modification of {}", eventPath);
+          candidates.put(watchedFile.path, true);
+        }
+        else if (watchedFile.directories().anyMatch(directory::equals)) {
+          candidates.putIfAbsent(watchedFile.path, false);
+        }
+      }
+    }
+
+    if (!watchKey.reset()) {
+      LOGGER.debug("{} is not accessible anymore", directory);
+    }
+  }
+
+  private void reload(Map<Path, Boolean> candidates, long detected) {
+    Set<Path> changedPaths = new HashSet<>();
+    if (crlFilesChanged) {
+      changedPaths.addAll(rescanCrlPaths());
+      crlFilesChanged = false;
+    }
+    candidates.forEach((path, forced) -> {
+      WatchedFile watchedFile = watchedFiles.get(path);
+      if (watchedFile != null && watchedFile.refresh(forced)) {
+        changedPaths.add(path);
+      }
+    });
+
+    if (changedPaths.isEmpty()) {
+      LOGGER.debug("Content of {} did not change, skipping reload", candidates.keySet());
+      return;
+    }
+
+    LOGGER.info("Content of {} has been changed", changedPaths);
+    notifySubscribers(changedPaths, detected);
+  }
+
+  /**
+   * Synchronized, since files are reloaded by the watcher thread and pushed by any other thread.
+   */
+  private synchronized void notifySubscribers(Set<Path> changedPaths, long detected) {
+    for (Subscription subscription : subscriptions) {
+      if (subscription.paths.stream().anyMatch(changedPaths::contains)) {
+        String outcome = "success";
+        try {
+          subscription.listener.run();
+        }
+        catch (Exception e) {
+          outcome = "failure";
+          LOGGER.error("" +
+            "Reloading {} failed. Proceed watching for changes. This might be no problem at all if the files " +
+            "of the subscription are not written at once.", subscription.name, e);
+        }
+        long nanos = System.nanoTime() - detected;
+        for (Observer observer : observers) {
+          observer.reloaded(subscription.name, outcome, nanos);
+        }
+      }
+    }
+  }
+
+  private void materialParsed() {
+    observers.forEach(Observer::materialParsed);
+  }
+
+  private Content content(Path path) {
+    WatchedFile watchedFile = watchedFiles.get(path);
+    if (watchedFile != null) {
+      return watchedFile.content();
+    }
+
+    Content pushedContent = pushedContent(path);
+    return pushedContent != null ? pushedContent : Content.read(path);
+  }
+
+  /**
+   * @return the pushed content of the file, unless the file has been written on disk since
+   */
+  private Content pushedContent(Path path) {
+    Pushed pushed = pushedContents.get(path);
+    if (pushed == null) {
+      return null;
+    }
+    if (Objects.equals(pushed.stamp(), Stamp.ofExisting(path))) {
+      return pushed.content();
+    }
+
+    pushedContents.remove(path, pushed);
+    return null;
+  }
+
+  private X509ExtendedTrustManager parseTrustMaterial(Path trustPath, Content content) {
+    LOGGER.info("Parsing trust material {}", trustPath);
+    return trustBundles.computeIfAbsent(trustPath, path -> new TrustBundleIndex()).load(trustPath, content.bytes());
+  }
+
+  private X509ExtendedTrustManager withRevocation(
+    X509ExtendedTrustManager trustManager,
+    Map<Path, Content> crlContents)
+  {
+    if (crlContents.isEmpty()) {
+      return trustManager;
+    }
+
+    LOGGER.info("Compiling the revocation index of {}", crlContents.keySet());
+    Map<Path, byte[]> crlFiles = new LinkedHashMap<>();
+    crlContents.forEach((path, content) -> crlFiles.put(path, content.bytes()));
+    RevocationIndex revocationIndex = RevocationIndex.compile(crlFiles, trustManager.getAcceptedIssuers());
+    LOGGER.info("{} revoked certificate(s) are rejected", revocationIndex.size());
+
+    return new RevocationCheckingTrustManager(trustManager, revocationIndex);
+  }
+
+  private List<Path> crlPaths(Path trustPath) {
+    return crlPaths.computeIfAbsent(trustPath, TlsMaterialWatcher::scanCrlPaths);
+  }
+
+  /**
+   * Moves the subscriptions of every trust file whose CRL files have been added or removed to the current ones.
+   *
+   * @return the trust files whose CRL files have changed, their trust material has to be rebuilt
+   */
+  private synchronized Set<Path> rescanCrlPaths() {
+    Set<Path> changedTrustPaths = new HashSet<>();
+    for (Map.Entry<Path, List<Path>> entry : crlPaths.entrySet()) {
+      Path trustPath = entry.getKey();
+      List<Path> previousCrlPaths = entry.getValue();
+      List<Path> currentCrlPaths;
+      try {
+        currentCrlPaths = scanCrlPaths(trustPath);
+        if (currentCrlPaths.equals(previousCrlPaths)) {
+          continue;
+        }
+        for (Path crlPath : currentCrlPaths) {
+          watchedFiles.computeIfAbsent(crlPath, newPath -> new WatchedFile(newPath, pushedContent(newPath)));
+        }
+      }
+      catch (UncheckedIOException e) {
+        LOGGER.warn("Cannot scan the CRL files next to {}, keeping the previous ones", trustPath);
+        LOGGER.debug("", e);
+        continue;
+      }
+
+      LOGGER.info("CRL files next to {} changed from {} to {}", trustPath, previousCrlPaths, currentCrlPaths);
+      for (Subscription subscription : subscriptions) {
+        if (subscription.paths.contains(trustPath)) {
+          Set<Path> paths = new HashSet<>(subscription.paths);
+          paths.removeAll(previousCrlPaths);
+          paths.addAll(currentCrlPaths);
+          subscription.paths = Set.copyOf(paths);
+        }
+      }
+      entry.setValue(currentCrlPaths);
+      changedTrustPaths.add(trustPath);
+    }
+
+    if (!changedTrustPaths.isEmpty()) {
+      removeUnusedFiles();
+    }
+    return changedTrustPaths;
+  }
+
+  private static List<Path> scanCrlPaths(Path trustPath) {
+    Path directory = trustPath.getParent();
+    if (directory == null || !Files.isDirectory(directory)) {
+      return List.of();
+    }
+
+    try (Stream<Path> files = Files.list(directory)) {
+      return files.filter(TlsMaterialWatcher::isCrlFile).sorted().toList();
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static boolean isCrlFile(Path path) {
+    return path.getFileName().toString().endsWith(".crl");
+  }
+
+  private static X509ExtendedKeyManager parseIdentityMaterial(List<Path> paths, Content certContent, Content keyContent) {
+    LOGGER.info("Parsing identity material {}", paths);
+    return PemUtils.loadIdentityMaterial(
+      new ByteArrayInputStream(certContent.bytes()),
+      new ByteArrayInputStream(keyContent.bytes()));
+  }
+
+  /**
+   * Told about every reload of a subscription and every call that may have parsed new material.
+   */
+  interface Observer {
+    /**
+     * @param outcome {@code success} or {@code failure}
+     * @param nanos the time from the first file event to the end of the reload
+     */
+    void reloaded(String subscription, String outcome, long nanos);
+
+    void materialParsed();
+  }
+
+  public final class Subscription {
+    private final String name;
+    private final Runnable listener;
+    private volatile Set<Path> paths;
+
+    private Subscription(String name, Set<Path> paths, Runnable listener) {
+      this.name = name;
+      this.paths = paths;
+      this.listener = listener;
+    }
+
+    public void cancel() {
+      if (subscriptions.remove(this)) {
+        removeUnusedFiles();
+      }
+    }
+  }
+
+  private final class WatchedFile {
+    private final Path path;
+    private volatile Stamp stamp;
+    private volatile Content content;
+
+    private WatchedFile(Path path, Content pushedContent) {
+      this.path = path;
+      this.stamp = Stamp.of(path);
+      this.content = pushedContent != null ? pushedContent : Content.read(path);
+    }
+
+    Content content() {
+      return content;
+    }
+
+    boolean isNamed(Path eventPath) {
+      return path.equals(eventPath) || stamp.realPath().equals(eventPath);
+    }
+
+    Stream<Path> directories() {
+      return Stream.of(path.getParent(), stamp.realPath().getParent()).filter(Objects::nonNull).distinct();
+    }
+
+    /**
+     * Keeps the stamp of the file on disk, so the pushed content is only replaced if the file is written.
+     *
+     * @return true if the pushed content is different from the current one
+     */
+    boolean push(Content pushedContent) {
+      boolean changed = !pushedContent.hash().equals(content.hash());
+      content = pushedContent;
+      return changed;
+    }
+
+    /**
+     * Only reads the file if forced to or if its real path, inode, size or modification time have changed. Content
+     * that has been pushed after the file was written is kept.
+     *
+     * @return true if the content of the file is different from the one read before
+     */
+    boolean refresh(boolean forced) {
+      try {
+        Stamp newStamp = Stamp.of(path);
+        if (!forced && newStamp.equals(stamp)) {
+          return false;
+        }
+
+        Pushed pushed = pushedContents.get(path);
+        boolean pushedSinceWrite = pushed != null && newStamp.equals(pushed.stamp());
+        Content newContent = pushedSinceWrite ? pushed.content() : Content.read(path);
+        if (pushed != null && !pushedSinceWrite) {
+          pushedContents.remove(path, pushed);
+        }
+
+        boolean changed = !newContent.hash().equals(content.hash());
+        stamp = newStamp;
+        content = newContent;
+        return changed;
+      }
+      catch (UncheckedIOException e) {
+        LOGGER.warn("Cannot read {}, keeping the previous content", path);
+        LOGGER.debug("", e);
+        return false;
+      }
+    }
+  }
+
+  private record Stamp(Path realPath, Object fileKey, FileTime lastModifiedTime, long size) {
+    static Stamp of(Path path) {
+      try {
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        return new Stamp(path.toRealPath(), attributes.fileKey(), attributes.lastModifiedTime(), attributes.size());
+      }
+      catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    static Stamp ofExisting(Path path) {
+      return Files.exists(path) ? of(path) : null;
+    }
+  }
+
+  private record Content(byte[] bytes, String hash) {
+    static Content read(Path path) {
+      try {
+        return of(Files.readAllBytes(path));
+      }
+      catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    static Content of(byte[] bytes) {
+      try {
+        return new Content(bytes, HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes)));
+      }
+      catch (NoSuchAlgorithmException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+  }
+
+  private record Parsed<T>(String hash, T material) {
+  }
+
+  /**
+   * @param stamp the file on disk when the content was pushed, null if there was no file
+   */
+  private record Pushed(Content content, Stamp stamp) {
+  }
+}
@@ -0,0 +1,61 @@
+package neubert.tobias.spring.tls.watcher;
+
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.io.IOException;
+import java.time.Duration;
+
+
+/**
+ * Imported by every module that reloads TLS material. The watcher is only created once, a parent context
+ * like the spring cloud bootstrap context shares its watcher with the application context.
+ */
+@Configuration
+public class TlsWatcherConfig {
+  @Bean
+  @ConditionalOnMissingBean
+  public TlsMaterialWatcher tlsMaterialWatcher(
+    @Value("${neubert.tobias.tls.watcher.debounce:250ms}") Duration debounce,
+    @Value("${neubert.tobias.tls.watcher.max-debounce:5s}") Duration maxDebounce,
+    @Value("${neubert.tobias.tls.watcher.poll-interval:10s}") Duration pollInterval) throws IOException
+  {
+    return new TlsMaterialWatcher(debounce, maxDebounce, pollInterval);
+  }
+
+  @Bean
+  @ConditionalOnMissingBean
+  public JsseProvider jsseProvider(@Value("${neubert.tobias.tls.provider:SunJSSE}") String provider) {
+    return JsseProvider.of(provider);
+  }
+
+  /**
+   * Micrometer is optional, the metrics are only bound if it is on the class path.
+   */
+  @Configuration(proxyBeanMethods = false)
+  @ConditionalOnClass(MeterBinder.class)
+  static class MetricsConfig {
+    @Bean
+    public TlsMaterialMetrics tlsMaterialMetrics(TlsMaterialWatcher tlsMaterialWatcher) {
+      return new TlsMaterialMetrics(tlsMaterialWatcher);
+    }
+  }
+
+  /**
+   * The actuator is optional, the endpoint is only created if it is on the class path.
+   */
+  @Configuration(proxyBeanMethods = false)
+  @ConditionalOnClass(Endpoint.class)
+  static class EndpointConfig {
+    @Bean
+    @ConditionalOnMissingBean
+    public TlsCertificatesEndpoint tlsCertificatesEndpoint(TlsMaterialWatcher tlsMaterialWatcher) {
+      return new TlsCertificatesEndpoint(tlsMaterialWatcher);
+    }
+  }
+}
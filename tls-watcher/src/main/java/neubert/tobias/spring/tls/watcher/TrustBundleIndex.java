@@ -0,0 +1,121 @@
+package neubert.tobias.spring.tls.watcher;
+
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509ExtendedTrustManager;
+import nl.altindag.ssl.util.PemUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+
+/**
+ * The parsed certificates of one trust bundle, keyed by the hash of their PEM block. A reload only parses the
+ * blocks that are new and drops the ones that are gone, so its costs depend on the size of the change instead of
+ * the size of the bundle. Bundles that contain anything but certificates are parsed as a whole by {@link PemUtils}.
+ */
+final class TrustBundleIndex {
+  private static final Logger LOGGER = LoggerFactory.getLogger(TrustBundleIndex.class);
+  private static final Pattern CERTIFICATE_BLOCK =
+    Pattern.compile("-----BEGIN CERTIFICATE-----(.*?)-----END CERTIFICATE-----", Pattern.DOTALL);
+  private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+  private Map<String, X509Certificate> certificates = Map.of();
+
+  synchronized X509ExtendedTrustManager load(Path trustPath, byte[] content) {
+    String pem = new String(content, StandardCharsets.US_ASCII);
+    if (!pem.contains("-----BEGIN CERTIFICATE-----") || containsOtherBlocks(pem)) {
+      certificates = Map.of();
+      return PemUtils.loadTrustMaterial(new ByteArrayInputStream(content));
+    }
+
+    try {
+      Map<String, X509Certificate> loaded = new LinkedHashMap<>();
+      int parsed = 0;
+      Matcher matcher = CERTIFICATE_BLOCK.matcher(pem);
+      while (matcher.find()) {
+        byte[] der = Base64.getDecoder().decode(WHITESPACE.matcher(matcher.group(1)).replaceAll(""));
+        String hash = hash(der);
+        X509Certificate certificate = certificates.get(hash);
+        if (certificate == null && !loaded.containsKey(hash)) {
+          certificate = parse(der);
+          parsed++;
+        }
+        if (certificate != null) {
+          loaded.put(hash, certificate);
+        }
+      }
+
+      X509ExtendedTrustManager trustManager = trustManager(loaded);
+      int dropped = (int) certificates.keySet().stream().filter(hash -> !loaded.containsKey(hash)).count();
+      LOGGER.info("Trust bundle {}: parsed {}, reused {}, dropped {} certificate(s)",
+        trustPath, parsed, loaded.size() - parsed, dropped);
+      certificates = loaded;
+
+      return trustManager;
+    }
+    catch (GeneralSecurityException | IOException | IllegalArgumentException e) {
+      throw new IllegalStateException("Cannot load the trust bundle " + trustPath, e);
+    }
+  }
+
+  private static boolean containsOtherBlocks(String pem) {
+    int begins = 0;
+    int index = pem.indexOf("-----BEGIN ");
+    while (index >= 0) {
+      begins++;
+      index = pem.indexOf("-----BEGIN ", index + 1);
+    }
+
+    int certificates = 0;
+    Matcher matcher = CERTIFICATE_BLOCK.matcher(pem);
+    while (matcher.find()) {
+      certificates++;
+    }
+
+    return begins != certificates;
+  }
+
+  private static X509Certificate parse(byte[] der) throws GeneralSecurityException {
+    return (X509Certificate) CertificateFactory.getInstance("X.509").generateCertificate(new ByteArrayInputStream(der));
+  }
+
+  private static X509ExtendedTrustManager trustManager(Map<String, X509Certificate> certificates)
+    throws GeneralSecurityException, IOException
+  {
+    KeyStore trustStore = KeyStore.getInstance("PKCS12");
+    trustStore.load(null, null);
+    for (Map.Entry<String, X509Certificate> entry : certificates.entrySet()) {
+      trustStore.setCertificateEntry(entry.getKey(), entry.getValue());
+    }
+
+    TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+    trustManagerFactory.init(trustStore);
+    for (TrustManager trustManager : trustManagerFactory.getTrustManagers()) {
+      if (trustManager instanceof X509ExtendedTrustManager x509TrustManager) {
+        return x509TrustManager;
+      }
+    }
+
+    throw new IllegalStateException("No X509ExtendedTrustManager available");
+  }
+
+  private static String hash(byte[] der) throws GeneralSecurityException {
+    return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(der));
+  }
+}
@@ -0,0 +1,63 @@
+package neubert.tobias.spring.tls.watcher;
+
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.X509ExtendedTrustManager;
+
+import java.security.cert.Certificate;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Collections;
+
+
+/**
+ * Checks established client sessions against swapped trust material, for the clients that keep their connections
+ * and sessions across trust rotations.
+ */
+public final class TrustedSessions {
+  private TrustedSessions() {
+  }
+
+  /**
+   * @return whether the trust manager still accepts the peer of the session. A session without a verified peer,
+   *         like one whose handshake is not finished yet, has nothing to check and counts as trusted.
+   */
+  public static boolean isTrusted(SSLSession sslSession, X509ExtendedTrustManager trustManager) {
+    try {
+      Certificate[] peerCertificates = sslSession.getPeerCertificates();
+      X509Certificate[] peerChain = Arrays.copyOf(peerCertificates, peerCertificates.length, X509Certificate[].class);
+      trustManager.checkServerTrusted(peerChain, "UNKNOWN");
+      return true;
+    }
+    catch (SSLPeerUnverifiedException e) {
+      return true;
+    }
+    catch (CertificateException | ArrayStoreException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Resumed sessions skip the certificate check, so the client session cache must not hand out sessions
+   * with peers that the new trust material does not accept anymore.
+   *
+   * @return the number of invalidated sessions
+   */
+  public static int invalidateUntrustedSessions(
+    SSLSessionContext sessionContext,
+    X509ExtendedTrustManager trustManager)
+  {
+    int invalidated = 0;
+    for (byte[] sessionId : Collections.list(sessionContext.getIds())) {
+      SSLSession sslSession = sessionContext.getSession(sessionId);
+      if (sslSession != null && !isTrusted(sslSession, trustManager)) {
+        sslSession.invalidate();
+        invalidated++;
+      }
+    }
+
+    return invalidated;
+  }
+}
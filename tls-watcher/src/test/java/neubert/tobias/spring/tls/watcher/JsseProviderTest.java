@@ -0,0 +1,40 @@
+package neubert.tobias.spring.tls.watcher;
+
+import nl.altindag.ssl.SSLFactory;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+
+/**
+ * Conscrypt is not on the classpath of the tests.
+ */
+class JsseProviderTest {
+  @Test
+  void fallsBackToSunJsseWithoutConscrypt() {
+    assertThatThrownBy(() -> Class.forName("org.conscrypt.Conscrypt")).isInstanceOf(ClassNotFoundException.class);
+
+    JsseProvider jsseProvider = JsseProvider.of(JsseProvider.CONSCRYPT);
+
+    assertThat(jsseProvider.isDefault()).isTrue();
+    assertThat(jsseProvider.name()).isEqualTo(JsseProvider.DEFAULT);
+    assertThat(sslContextProvider(jsseProvider)).isEqualTo("SunJSSE");
+  }
+
+  @Test
+  void fallsBackToSunJsseForProvidersWithoutTls() {
+    assertThat(JsseProvider.of("Unknown").isDefault()).isTrue();
+    assertThat(JsseProvider.of("SunJCE").isDefault()).isTrue();
+    assertThat(JsseProvider.of(" sunjsse ").isDefault()).isTrue();
+    assertThat(JsseProvider.of(null).isDefault()).isTrue();
+  }
+
+  private static String sslContextProvider(JsseProvider jsseProvider) {
+    return jsseProvider.configure(SSLFactory.builder().withDefaultTrustMaterial())
+      .build()
+      .getSslContext()
+      .getProvider()
+      .getName();
+  }
+}
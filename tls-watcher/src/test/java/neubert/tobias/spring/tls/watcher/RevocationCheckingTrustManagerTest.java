@@ -0,0 +1,137 @@
+package neubert.tobias.spring.tls.watcher;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509KeyManager;
+import javax.net.ssl.X509TrustManager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+
+/**
+ * The trust file of the watcher is a generated CA with a CRL next to it that revokes one of its leaf certificates.
+ */
+class RevocationCheckingTrustManagerTest {
+  private Path directory;
+  private TlsMaterialWatcher watcher;
+  private X509KeyManager validIdentity;
+  private X509KeyManager revokedIdentity;
+  private X509TrustManager trustManager;
+
+  @BeforeEach
+  void setup() throws Exception {
+    TestCertificateAuthority ca = new TestCertificateAuthority("CA");
+    validIdentity = ca.issue("valid");
+    revokedIdentity = ca.issue("revoked");
+
+    directory = Files.createTempDirectory("tls-revocation-test");
+    Path trustPath = Files.write(directory.resolve("trust.pem"),
+      TestCertificateAuthority.pem("CERTIFICATE", ca.certificate().getEncoded()));
+    Files.write(directory.resolve("revoked.crl"), ca.crl(TestCertificateAuthority.leafOf(revokedIdentity, "revoked")));
+
+    watcher = new TlsMaterialWatcher(Duration.ofMillis(50), Duration.ofSeconds(10));
+    trustManager = watcher.trustMaterial(trustPath);
+  }
+
+  @AfterEach
+  void cleanup() throws Exception {
+    watcher.stop();
+    try (Stream<Path> files = Files.walk(directory)) {
+      for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+        Files.delete(file);
+      }
+    }
+  }
+
+  @Test
+  void acceptsCertificatesThatAreNotRevoked() throws Exception {
+    Handshake handshake = handshake(validIdentity, validIdentity);
+
+    assertThat(handshake.server()).isNull();
+    assertThat(handshake.client()).isNull();
+  }
+
+  @Test
+  void rejectsARevokedServerCertificate() throws Exception {
+    Handshake handshake = handshake(revokedIdentity, validIdentity);
+
+    assertThat(handshake.client()).hasStackTraceContaining("has been revoked");
+  }
+
+  @Test
+  void rejectsARevokedClientCertificate() throws Exception {
+    Handshake handshake = handshake(validIdentity, revokedIdentity);
+
+    assertThat(handshake.server()).hasStackTraceContaining("has been revoked");
+  }
+
+  /**
+   * Both sides trust the CA through the trust manager of the watcher, the server requires a client certificate.
+   */
+  private Handshake handshake(X509KeyManager serverIdentity, X509KeyManager clientIdentity) throws Exception {
+    try (SSLServerSocket serverSocket =
+      (SSLServerSocket) context(serverIdentity).getServerSocketFactory().createServerSocket(0))
+    {
+      serverSocket.setNeedClientAuth(true);
+      CompletableFuture<Void> server = CompletableFuture.runAsync(() -> {
+        try (SSLSocket socket = (SSLSocket) serverSocket.accept()) {
+          socket.startHandshake();
+          socket.getOutputStream().write(1);
+          socket.getOutputStream().flush();
+        }
+        catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+
+      Throwable clientFailure = null;
+      try (SSLSocket socket =
+        (SSLSocket) context(clientIdentity).getSocketFactory().createSocket("localhost", serverSocket.getLocalPort()))
+      {
+        socket.startHandshake();
+        // with TLS 1.3 the client learns that the server rejected its certificate only when it reads
+        socket.getInputStream().read();
+      }
+      catch (IOException e) {
+        clientFailure = e;
+      }
+
+      Throwable serverFailure = null;
+      try {
+        server.get(5, TimeUnit.SECONDS);
+      }
+      catch (ExecutionException e) {
+        serverFailure = e.getCause();
+      }
+
+      return new Handshake(serverFailure, clientFailure);
+    }
+  }
+
+  private SSLContext context(X509KeyManager identity) throws Exception {
+    SSLContext context = SSLContext.getInstance("TLS");
+    context.init(new KeyManager[] {identity}, new TrustManager[] {trustManager}, null);
+
+    return context;
+  }
+
+  private record Handshake(Throwable server, Throwable client) {
+  }
+}
@@ -0,0 +1,88 @@
+package neubert.tobias.spring.tls.watcher;
+
+import javax.security.auth.x500.X500Principal;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+
+class RevocationIndexTest {
+  private static final X500Principal CA = new X500Principal("CN=CA, O=Neubert");
+  private static final X500Principal OTHER_CA = new X500Principal("CN=Other CA, O=Neubert");
+
+  @Test
+  void findsEveryRevokedSerialOfItsIssuerOnly() {
+    Random random = new Random(42);
+    List<BigInteger> revoked = new ArrayList<>();
+    for (int i = 0; i < 200_000; i++) {
+      revoked.add(new BigInteger(1 + random.nextInt(159), random));
+    }
+
+    RevocationIndex index = RevocationIndex.compile(Map.of(CA, revoked, OTHER_CA, List.of(BigInteger.ONE)));
+
+    for (BigInteger serial : revoked) {
+      assertThat(index.isRevoked(CA, serial)).isTrue();
+    }
+    assertThat(index.isRevoked(CA, BigInteger.TWO.pow(159))).isFalse();
+    assertThat(index.isRevoked(OTHER_CA, BigInteger.ONE)).isTrue();
+    assertThat(index.isRevoked(OTHER_CA, BigInteger.TWO)).isFalse();
+    assertThat(index.isRevoked(new X500Principal("CN=Unknown"), BigInteger.ONE)).isFalse();
+  }
+
+  @Test
+  void countsDuplicatesOnce() {
+    RevocationIndex index =
+      RevocationIndex.compile(Map.of(CA, List.of(BigInteger.TEN, BigInteger.TEN, BigInteger.valueOf(255))));
+
+    assertThat(index.size()).isEqualTo(2);
+    assertThat(index.isRevoked(new X500Principal("cn=ca,o=neubert"), BigInteger.valueOf(255))).isTrue();
+  }
+
+  @Test
+  void parsesPemAndDerCrlsOfATrustedCa() throws Exception {
+    TestCertificateAuthority ca = new TestCertificateAuthority("CA");
+    X509Certificate pemRevoked = TestCertificateAuthority.leafOf(ca.issue("pem-revoked"), "pem-revoked");
+    X509Certificate derRevoked = TestCertificateAuthority.leafOf(ca.issue("der-revoked"), "der-revoked");
+    X509Certificate valid = TestCertificateAuthority.leafOf(ca.issue("valid"), "valid");
+
+    RevocationIndex index = RevocationIndex.compile(
+      Map.of(
+        Path.of("pem.crl"), TestCertificateAuthority.pem("X509 CRL", ca.crl(pemRevoked)),
+        Path.of("der.crl"), ca.crl(derRevoked)),
+      new X509Certificate[] {ca.certificate()});
+
+    assertThat(index.size()).isEqualTo(2);
+    assertThat(index.isRevoked(pemRevoked)).isTrue();
+    assertThat(index.isRevoked(derRevoked)).isTrue();
+    assertThat(index.isRevoked(valid)).isFalse();
+  }
+
+  @Test
+  void ignoresCrlsThatAreNotSignedByATrustedCa() throws Exception {
+    TestCertificateAuthority ca = new TestCertificateAuthority("CA");
+    TestCertificateAuthority impostor = new TestCertificateAuthority("CA");
+    TestCertificateAuthority untrusted = new TestCertificateAuthority("Untrusted CA");
+    X509Certificate leaf = TestCertificateAuthority.leafOf(ca.issue("leaf"), "leaf");
+    X509Certificate untrustedLeaf = TestCertificateAuthority.leafOf(untrusted.issue("leaf"), "leaf");
+
+    RevocationIndex index = RevocationIndex.compile(
+      Map.of(
+        Path.of("impostor.crl"), impostor.crl(leaf),
+        Path.of("untrusted.crl"), untrusted.crl(untrustedLeaf),
+        Path.of("broken.crl"), "no crl".getBytes(StandardCharsets.US_ASCII)),
+      new X509Certificate[] {ca.certificate()});
+
+    assertThat(index.size()).isZero();
+    assertThat(index.isRevoked(leaf)).isFalse();
+    assertThat(index.isRevoked(untrustedLeaf)).isFalse();
+  }
+}
@@ -0,0 +1,129 @@
+package neubert.tobias.spring.tls.watcher;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.X509KeyManager;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.KeyUsage;
+import org.bouncycastle.cert.X509v2CRLBuilder;
+import org.bouncycastle.cert.X509v3CertificateBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509CRLConverter;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Issues EC certificates and CRLs for the tests, so certificates can be revoked without any files checked in.
+ */
+final class TestCertificateAuthority {
+  private static final AtomicLong SERIALS = new AtomicLong(System.currentTimeMillis());
+
+  private final X500Name name;
+  private final KeyPair keyPair;
+  private final X509Certificate certificate;
+
+  TestCertificateAuthority(String commonName) throws Exception {
+    this.name = new X500Name("CN=" + commonName + ", O=Neubert");
+    this.keyPair = keyPair();
+    this.certificate = certificate(
+      new JcaX509v3CertificateBuilder(name, serial(), from(), until(), name, keyPair.getPublic())
+        .addExtension(Extension.basicConstraints, true, new BasicConstraints(true))
+        .addExtension(Extension.keyUsage, true, new KeyUsage(KeyUsage.keyCertSign | KeyUsage.cRLSign)));
+  }
+
+  X509Certificate certificate() {
+    return certificate;
+  }
+
+  /**
+   * @return a key manager with a leaf certificate for the given common name that is signed by this authority
+   */
+  X509KeyManager issue(String commonName) throws Exception {
+    KeyPair leafKeyPair = keyPair();
+    X509Certificate leaf = certificate(
+      new JcaX509v3CertificateBuilder(
+        name,
+        serial(),
+        from(),
+        until(),
+        new X500Name("CN=" + commonName + ", O=Neubert"),
+        leafKeyPair.getPublic())
+        .addExtension(Extension.basicConstraints, true, new BasicConstraints(false)));
+
+    KeyStore keyStore = KeyStore.getInstance("PKCS12");
+    keyStore.load(null, null);
+    keyStore.setKeyEntry(commonName, leafKeyPair.getPrivate(), new char[0], new X509Certificate[] {leaf, certificate});
+    KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+    keyManagerFactory.init(keyStore, new char[0]);
+
+    return (X509KeyManager) keyManagerFactory.getKeyManagers()[0];
+  }
+
+  /**
+   * @return a DER encoded CRL of this authority that revokes the given certificates
+   */
+  byte[] crl(X509Certificate... revokedCertificates) throws Exception {
+    X509v2CRLBuilder builder = new X509v2CRLBuilder(name, from()).setNextUpdate(until());
+    for (X509Certificate revoked : revokedCertificates) {
+      builder.addCRLEntry(revoked.getSerialNumber(), from(), CRLReason.keyCompromise);
+    }
+    X509CRL crl = new JcaX509CRLConverter().getCRL(builder.build(signer()));
+
+    return crl.getEncoded();
+  }
+
+  static X509Certificate leafOf(X509KeyManager keyManager, String commonName) {
+    return keyManager.getCertificateChain(commonName)[0];
+  }
+
+  static byte[] pem(String type, byte[] der) {
+    return ("-----BEGIN " + type + "-----\n"
+      + Base64.getMimeEncoder(64, "\n".getBytes(StandardCharsets.US_ASCII)).encodeToString(der)
+      + "\n-----END " + type + "-----\n").getBytes(StandardCharsets.US_ASCII);
+  }
+
+  private X509Certificate certificate(X509v3CertificateBuilder builder) throws Exception {
+    return new JcaX509CertificateConverter().getCertificate(builder.build(signer()));
+  }
+
+  private ContentSigner signer() throws Exception {
+    return new JcaContentSignerBuilder("SHA256withECDSA").build(keyPair.getPrivate());
+  }
+
+  private static KeyPair keyPair() throws GeneralSecurityException {
+    KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+    generator.initialize(256);
+
+    return generator.generateKeyPair();
+  }
+
+  private static BigInteger serial() {
+    return BigInteger.valueOf(SERIALS.incrementAndGet());
+  }
+
+  private static Date from() {
+    return Date.from(Instant.now().minus(Duration.ofHours(1)));
+  }
+
+  private static Date until() {
+    return Date.from(Instant.now().plus(Duration.ofDays(1)));
+  }
+}
@@ -0,0 +1,70 @@
+package neubert.tobias.spring.tls.watcher;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.convert.ApplicationConversionService;
+import org.springframework.boot.test.context.FilteredClassLoader;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import org.springframework.core.convert.ConversionService;
+import org.springframework.core.io.ClassPathResource;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+
+class TlsCertificatesEndpointTest {
+  private final ApplicationContextRunner contextRunner = new ApplicationContextRunner()
+    .withBean("conversionService", ConversionService.class, ApplicationConversionService::getSharedInstance)
+    .withUserConfiguration(TlsWatcherConfig.class);
+
+  private TlsMaterialWatcher watcher;
+
+  @BeforeEach
+  void startWatcher() throws Exception {
+    watcher = new TlsMaterialWatcher(Duration.ofMillis(50), Duration.ofSeconds(10));
+  }
+
+  @AfterEach
+  void stopWatcher() {
+    watcher.stop();
+  }
+
+  @Test
+  void listsTheLoadedCertificates() throws Exception {
+    Path certPath = TlsMaterialWatcher.pathOf(new ClassPathResource("tls/tobias-certificate.pem"));
+    Path keyPath = TlsMaterialWatcher.pathOf(new ClassPathResource("tls/tobias-private.key"));
+    watcher.identityMaterial(certPath, keyPath);
+    watcher.trustMaterial(certPath);
+
+    assertThat(new TlsCertificatesEndpoint(watcher).certificates())
+      .hasSize(2)
+      .allSatisfy(certificate -> {
+        assertThat(certificate.file()).isEqualTo(certPath.toString());
+        assertThat(certificate.subject()).contains("CN=localhost");
+        assertThat(certificate.serialNumber()).isEqualTo("2cc480050ebabfa2a402896905b15b7d9c467cc0");
+        assertThat(certificate.sha256Fingerprint()).isEqualTo(
+          "85:BD:2C:54:FA:97:DD:ED:DF:36:51:7E:AE:94:BF:83:BE:1E:78:E8:7A:42:C6:06:8D:B4:6F:99:B3:B9:C2:67");
+      })
+      .extracting(TlsCertificatesEndpoint.CertificateDescriptor::kind)
+      .containsExactlyInAnyOrder("identity", "trust");
+  }
+
+  @Test
+  void leavesOutTheMetricsAndTheEndpointWithoutMicrometerAndActuator() {
+    contextRunner
+      .withClassLoader(new FilteredClassLoader("io.micrometer", "org.springframework.boot.actuate"))
+      .run(context -> {
+        assertThat(context).hasSingleBean(TlsMaterialWatcher.class);
+        assertThat(context).doesNotHaveBean(TlsMaterialMetrics.class);
+        assertThat(context).doesNotHaveBean(TlsCertificatesEndpoint.class);
+      });
+
+    contextRunner.run(context -> {
+      assertThat(context).hasSingleBean(TlsMaterialMetrics.class);
+      assertThat(context).hasSingleBean(TlsCertificatesEndpoint.class);
+    });
+  }
+}
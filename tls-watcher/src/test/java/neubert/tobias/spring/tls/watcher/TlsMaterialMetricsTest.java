@@ -0,0 +1,140 @@
+package neubert.tobias.spring.tls.watcher;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+
+class TlsMaterialMetricsTest {
+  private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+  private Path directory;
+  private TlsMaterialWatcher watcher;
+
+  @BeforeEach
+  void startWatcher() throws Exception {
+    directory = Files.createTempDirectory("tls-metrics-test");
+    watcher = new TlsMaterialWatcher(Duration.ofMillis(50), Duration.ofSeconds(10));
+    new TlsMaterialMetrics(watcher).bindTo(registry);
+  }
+
+  @AfterEach
+  void stopWatcher() throws Exception {
+    watcher.stop();
+    try (Stream<Path> files = Files.walk(directory)) {
+      for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+        Files.delete(file);
+      }
+    }
+  }
+
+  @Test
+  void timesEveryReloadWithItsOutcome() throws Exception {
+    List<X509Certificate> cas = cas();
+    Path trustPath = Files.writeString(directory.resolve("trust.pem"), pem(cas.subList(0, 2)));
+    Path keyPath = Files.writeString(directory.resolve("ticket.key"), "first");
+    watcher.subscribe("trust", List.of(trustPath), () -> watcher.trustMaterial(trustPath));
+    watcher.subscribe("ticket", List.of(keyPath), () -> {
+      throw new IllegalStateException("broken key");
+    });
+
+    Files.writeString(trustPath, pem(cas.subList(1, 3)));
+    Files.writeString(keyPath, "second");
+
+    assertThat(awaitReloads("trust", "success").count()).isEqualTo(1);
+    assertThat(awaitReloads("ticket", "failure").count()).isEqualTo(1);
+    assertThat(registry.find("tls.reload").tag("subscription", "trust").tag("outcome", "failure").timer()).isNull();
+  }
+
+  @Test
+  void reportsEveryIdentityButOnlyTheFirstExpiryOfATrustFile() throws Exception {
+    List<X509Certificate> cas = cas().subList(0, 20);
+    Path trustPath = Files.writeString(directory.resolve("trust.pem"), pem(cas));
+    Path certPath = copy("tls/tobias-certificate.pem");
+    Path keyPath = copy("tls/tobias-private.key");
+
+    watcher.trustMaterial(trustPath);
+    watcher.identityMaterial(certPath, keyPath);
+
+    Collection<Gauge> expiries = registry.find("tls.certificate.expiry").gauges();
+    assertThat(expiries).hasSize(2);
+
+    Gauge identityExpiry = registry.get("tls.certificate.expiry").tag("kind", "identity").gauge();
+    assertThat(identityExpiry.getId().getTag("file")).isEqualTo("tobias-certificate.pem");
+    assertThat(identityExpiry.getId().getTag("serial")).isEqualTo("2cc480050ebabfa2a402896905b15b7d9c467cc0");
+
+    Date firstExpiry = cas.stream().map(X509Certificate::getNotAfter).min(Comparator.naturalOrder()).orElseThrow();
+    Gauge trustExpiry = registry.get("tls.certificate.expiry").tag("kind", "trust").gauge();
+    assertThat(trustExpiry.value())
+      .isCloseTo(Duration.between(Instant.now(), firstExpiry.toInstant()).toHours() / 24.0, within(1.0));
+  }
+
+  private Timer awaitReloads(String subscription, String outcome) throws InterruptedException {
+    for (int i = 0; i < 100; i++) {
+      Timer timer = registry.find("tls.reload").tag("subscription", subscription).tag("outcome", outcome).timer();
+      if (timer != null) {
+        return timer;
+      }
+      Thread.sleep(50);
+    }
+
+    return registry.get("tls.reload").tag("subscription", subscription).tag("outcome", outcome).timer();
+  }
+
+  private Path copy(String resource) throws Exception {
+    Path path = directory.resolve(Path.of(resource).getFileName());
+    try (InputStream in = getClass().getResourceAsStream("/" + resource)) {
+      Files.copy(in, path);
+    }
+
+    return path;
+  }
+
+  private static List<X509Certificate> cas() throws Exception {
+    KeyStore cacerts = KeyStore.getInstance(KeyStore.getDefaultType());
+    try (InputStream in = Files.newInputStream(Path.of(System.getProperty("java.home"), "lib", "security", "cacerts"))) {
+      cacerts.load(in, null);
+    }
+
+    List<X509Certificate> cas = new ArrayList<>();
+    for (String alias : Collections.list(cacerts.aliases())) {
+      cas.add((X509Certificate) cacerts.getCertificate(alias));
+    }
+
+    return cas;
+  }
+
+  private static String pem(List<X509Certificate> certificates) throws Exception {
+    StringBuilder pem = new StringBuilder();
+    for (X509Certificate certificate : certificates) {
+      pem.append("-----BEGIN CERTIFICATE-----\n")
+        .append(Base64.getMimeEncoder(64, "\n".getBytes(StandardCharsets.US_ASCII)).encodeToString(certificate.getEncoded()))
+        .append("\n-----END CERTIFICATE-----\n");
+    }
+
+    return pem.toString();
+  }
+}
@@ -0,0 +1,245 @@
+package neubert.tobias.spring.tls.watcher;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+
+class TlsMaterialWatcherTest {
+  private Path directory;
+  private TlsMaterialWatcher watcher;
+
+  @BeforeEach
+  void startWatcher() throws Exception {
+    directory = Files.createTempDirectory("tls-watcher-test");
+    watcher = new TlsMaterialWatcher(Duration.ofMillis(50), Duration.ofSeconds(10));
+  }
+
+  @AfterEach
+  void stopWatcher() throws Exception {
+    watcher.stop();
+    try (Stream<Path> files = Files.walk(directory)) {
+      for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+        Files.delete(file);
+      }
+    }
+  }
+
+  @Test
+  void notifiesTheSubscribersOfPushedFiles() throws Exception {
+    Path trustPath = Files.writeString(directory.resolve("trust.pem"), "on disk");
+    Path keyPath = Files.writeString(directory.resolve("private.key"), "key");
+    AtomicInteger trustReloads = new AtomicInteger();
+    AtomicInteger keyReloads = new AtomicInteger();
+    watcher.subscribe(List.of(trustPath), trustReloads::incrementAndGet);
+    watcher.subscribe(List.of(keyPath), keyReloads::incrementAndGet);
+
+    TlsBundle bundle = bundle(Map.of("trust.pem", "pushed", "unknown.pem", "ignored"));
+    watcher.publish(bundle, directory);
+    watcher.publish(bundle, directory);
+
+    assertThat(trustReloads).hasValue(1);
+    assertThat(keyReloads).hasValue(0);
+    assertThat(watcher.rawMaterial(trustPath)).asString(StandardCharsets.UTF_8).isEqualTo("pushed");
+    assertThat(Files.readString(trustPath)).isEqualTo("on disk");
+  }
+
+  @Test
+  void startsLaterSubscriptionsWithThePushedContent() throws Exception {
+    Path trustPath = Files.writeString(directory.resolve("trust.pem"), "on disk");
+
+    watcher.publish(bundle(Map.of("trust.pem", "pushed")), directory);
+    assertThat(watcher.rawMaterial(trustPath)).asString(StandardCharsets.UTF_8).isEqualTo("pushed");
+
+    AtomicInteger reloads = new AtomicInteger();
+    watcher.subscribe(List.of(trustPath), reloads::incrementAndGet);
+    assertThat(watcher.rawMaterial(trustPath)).asString(StandardCharsets.UTF_8).isEqualTo("pushed");
+    assertThat(reloads).hasValue(0);
+  }
+
+  @Test
+  void pushesOnlyToTheFilesOfTheGivenDirectory() throws Exception {
+    Path otherDirectory = Files.createDirectory(directory.resolve("other"));
+    Path otherTrustPath = Files.writeString(otherDirectory.resolve("trust.pem"), "other on disk");
+    AtomicInteger reloads = new AtomicInteger();
+    watcher.subscribe(List.of(otherTrustPath), reloads::incrementAndGet);
+
+    watcher.publish(bundle(Map.of("trust.pem", "pushed", "other/trust.pem", "not a file name")), directory);
+
+    assertThat(reloads).hasValue(0);
+    assertThat(watcher.rawMaterial(otherTrustPath)).asString(StandardCharsets.UTF_8).isEqualTo("other on disk");
+  }
+
+  @Test
+  void letsAFileWrittenOnDiskWinOverThePushedContent() throws Exception {
+    Path trustPath = Files.writeString(directory.resolve("trust.pem"), "on disk");
+    Path keyPath = Files.writeString(directory.resolve("private.key"), "key on disk");
+    AtomicInteger reloads = new AtomicInteger();
+    TlsMaterialWatcher.Subscription subscription = watcher.subscribe(List.of(trustPath), reloads::incrementAndGet);
+
+    watcher.publish(bundle(Map.of("trust.pem", "pushed", "private.key", "pushed key")), directory);
+    assertThat(reloads).hasValue(1);
+
+    Files.writeString(trustPath, "written on disk");
+    Files.writeString(keyPath, "key written on disk");
+    awaitValue(reloads, 2);
+
+    assertThat(watcher.rawMaterial(trustPath)).asString(StandardCharsets.UTF_8).isEqualTo("written on disk");
+    assertThat(watcher.rawMaterial(keyPath)).asString(StandardCharsets.UTF_8).isEqualTo("key written on disk");
+
+    subscription.cancel();
+    watcher.subscribe(List.of(trustPath, keyPath), () -> {});
+    assertThat(watcher.rawMaterial(trustPath)).asString(StandardCharsets.UTF_8).isEqualTo("written on disk");
+    assertThat(watcher.rawMaterial(keyPath)).asString(StandardCharsets.UTF_8).isEqualTo("key written on disk");
+  }
+
+  @Test
+  void reloadsWritesAroundAPollOnce() throws Exception {
+    watcher.stop();
+    watcher = new TlsMaterialWatcher(Duration.ofMillis(600), Duration.ofMillis(100));
+    Path trustPath = Files.writeString(directory.resolve("trust.pem"), "initial");
+    AtomicInteger reloads = new AtomicInteger();
+    watcher.subscribe(List.of(trustPath), reloads::incrementAndGet);
+
+    Files.writeString(trustPath, "first");
+    Thread.sleep(250);
+    Files.writeString(trustPath, "second");
+    awaitValue(reloads, 1);
+    Thread.sleep(1000);
+
+    assertThat(reloads).hasValue(1);
+    assertThat(watcher.rawMaterial(trustPath)).asString(StandardCharsets.UTF_8).isEqualTo("second");
+  }
+
+  @Test
+  void reloadsAFileThatKeepsChangingAfterTheMaximumDebounce() throws Exception {
+    watcher.stop();
+    watcher = new TlsMaterialWatcher(Duration.ofMillis(300), Duration.ofMillis(600), Duration.ofSeconds(10));
+    Path trustPath = Files.writeString(directory.resolve("trust.pem"), "initial");
+    AtomicInteger reloads = new AtomicInteger();
+    watcher.subscribe(List.of(trustPath), reloads::incrementAndGet);
+
+    for (int i = 0; i < 40; i++) {
+      Files.writeString(trustPath, "version " + i);
+      Thread.sleep(50);
+    }
+
+    assertThat(reloads.get()).isGreaterThanOrEqualTo(1);
+  }
+
+  /**
+   * Kubernetes mounts every version of a secret as a directory {@code ..<timestamp>}, links it as {@code ..data}
+   * and the files of the secret through {@code ..data}. A new version is published by renaming a new link over
+   * {@code ..data}, so all files change at once.
+   */
+  @Test
+  void reloadsARetargetedDataLinkOnce() throws Exception {
+    Path firstVersion = secretVersion("..2026_01_01_00_00_00.1", "first");
+    Path dataLink = Files.createSymbolicLink(directory.resolve("..data"), firstVersion.getFileName());
+    Path trustPath = Files.createSymbolicLink(directory.resolve("trust.pem"), Path.of("..data", "trust.pem"));
+    Path keyPath = Files.createSymbolicLink(directory.resolve("private.key"), Path.of("..data", "private.key"));
+    AtomicInteger reloads = new AtomicInteger();
+    watcher.subscribe(List.of(trustPath, keyPath), reloads::incrementAndGet);
+
+    Path secondVersion = secretVersion("..2026_01_02_00_00_00.2", "second");
+    Path newDataLink = Files.createSymbolicLink(directory.resolve("..data_tmp"), secondVersion.getFileName());
+    Files.move(newDataLink, dataLink, StandardCopyOption.ATOMIC_MOVE);
+    try (Stream<Path> files = Files.walk(firstVersion)) {
+      for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+        Files.delete(file);
+      }
+    }
+
+    awaitValue(reloads, 1);
+    Thread.sleep(500);
+
+    assertThat(reloads).hasValue(1);
+    assertThat(watcher.rawMaterial(trustPath)).asString(StandardCharsets.UTF_8).isEqualTo("second trust");
+    assertThat(watcher.rawMaterial(keyPath)).asString(StandardCharsets.UTF_8).isEqualTo("second key");
+  }
+
+  /**
+   * A write through a hard link in another directory changes the watched file without an event in the watched
+   * directory, only the poll finds it.
+   */
+  @Test
+  void findsChangesWithoutEventsByPolling() throws Exception {
+    watcher.stop();
+    watcher = new TlsMaterialWatcher(Duration.ofMillis(50), Duration.ofMillis(200));
+    Path unwatchedDirectory = Files.createDirectory(directory.resolve("unwatched"));
+    Path watchedDirectory = Files.createDirectory(directory.resolve("watched"));
+    Path unwatchedPath = Files.writeString(unwatchedDirectory.resolve("trust.pem"), "initial");
+    Path trustPath = Files.createLink(watchedDirectory.resolve("trust.pem"), unwatchedPath);
+    AtomicInteger reloads = new AtomicInteger();
+    watcher.subscribe(List.of(trustPath), reloads::incrementAndGet);
+
+    Files.writeString(unwatchedPath, "changed");
+
+    awaitValue(reloads, 1);
+    assertThat(watcher.rawMaterial(trustPath)).asString(StandardCharsets.UTF_8).isEqualTo("changed");
+  }
+
+  @Test
+  void followsAddedAndRemovedCrlFiles() throws Exception {
+    Path trustPath = Files.writeString(directory.resolve("trust.pem"), "trust");
+    AtomicInteger reloads = new AtomicInteger();
+    watcher.subscribe(watcher.trustPaths(trustPath), reloads::incrementAndGet);
+    assertThat(watcher.trustPaths(trustPath)).containsExactly(trustPath);
+
+    Path crlPath = Files.writeString(directory.resolve("revoked.crl"), "first revocation");
+    awaitValue(reloads, 1);
+    assertThat(watcher.trustPaths(trustPath)).containsExactly(trustPath, crlPath);
+
+    Files.writeString(crlPath, "second revocation");
+    awaitValue(reloads, 2);
+
+    Files.delete(crlPath);
+    awaitValue(reloads, 3);
+    assertThat(watcher.trustPaths(trustPath)).containsExactly(trustPath);
+  }
+
+  @Test
+  void versionsEqualBundlesEqually() {
+    TlsBundle bundle = bundle(Map.of("trust.pem", "a", "private.key", "b"));
+
+    assertThat(bundle(Map.of("private.key", "b", "trust.pem", "a")).version()).isEqualTo(bundle.version());
+    assertThat(bundle(Map.of("private.key", "a", "trust.pem", "b")).version()).isNotEqualTo(bundle.version());
+  }
+
+  private static void awaitValue(AtomicInteger counter, int value) throws InterruptedException {
+    for (int i = 0; i < 100 && counter.get() < value; i++) {
+      Thread.sleep(50);
+    }
+    assertThat(counter).hasValue(value);
+  }
+
+  private Path secretVersion(String name, String content) throws Exception {
+    Path version = Files.createDirectory(directory.resolve(name));
+    Files.writeString(version.resolve("trust.pem"), content + " trust");
+    Files.writeString(version.resolve("private.key"), content + " key");
+
+    return version;
+  }
+
+  private static TlsBundle bundle(Map<String, String> files) {
+    return TlsBundle.of(
+      files.entrySet().stream()
+        .collect(Collectors.toMap(
+          Map.Entry::getKey,
+          entry -> entry.getValue().getBytes(StandardCharsets.UTF_8))));
+  }
+}
@@ -0,0 +1,87 @@
+package neubert.tobias.spring.tls.watcher;
+
+import javax.net.ssl.X509ExtendedTrustManager;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+
+/**
+ * Uses the CAs of the JDK as trust bundle.
+ */
+class TrustBundleIndexTest {
+  private static final Path TRUST_PATH = Path.of("trust.pem");
+
+  private static List<X509Certificate> cas;
+
+  @BeforeAll
+  static void loadCas() throws Exception {
+    KeyStore cacerts = KeyStore.getInstance(KeyStore.getDefaultType());
+    try (InputStream in = Files.newInputStream(Path.of(System.getProperty("java.home"), "lib", "security", "cacerts"))) {
+      cacerts.load(in, null);
+    }
+
+    cas = new ArrayList<>();
+    for (String alias : Collections.list(cacerts.aliases())) {
+      cas.add((X509Certificate) cacerts.getCertificate(alias));
+    }
+  }
+
+  @Test
+  void reusesTheCertificatesThatDidNotChange() throws Exception {
+    TrustBundleIndex index = new TrustBundleIndex();
+
+    X509ExtendedTrustManager before = index.load(TRUST_PATH, bundle(cas.subList(0, 10)));
+    X509ExtendedTrustManager after = index.load(TRUST_PATH, bundle(cas.subList(1, 11)));
+
+    assertThat(before.getAcceptedIssuers()).hasSize(10);
+    assertThat(after.getAcceptedIssuers()).hasSize(10);
+    assertThat(after.getAcceptedIssuers()).doesNotContain(cas.get(0)).contains(cas.get(10));
+
+    X509Certificate keptBefore = find(before, cas.get(5));
+    X509Certificate keptAfter = find(after, cas.get(5));
+    assertThat(keptAfter).isSameAs(keptBefore);
+  }
+
+  @Test
+  void ignoresDuplicateBlocks() throws Exception {
+    X509ExtendedTrustManager trustManager =
+      new TrustBundleIndex().load(TRUST_PATH, bundle(List.of(cas.get(0), cas.get(1), cas.get(0))));
+
+    assertThat(trustManager.getAcceptedIssuers()).hasSize(2);
+  }
+
+  private static X509Certificate find(X509ExtendedTrustManager trustManager, X509Certificate certificate) {
+    for (X509Certificate accepted : trustManager.getAcceptedIssuers()) {
+      if (accepted.equals(certificate)) {
+        return accepted;
+      }
+    }
+
+    throw new AssertionError("Certificate not trusted: " + certificate.getSubjectX500Principal());
+  }
+
+  private static byte[] bundle(List<X509Certificate> certificates) throws Exception {
+    Base64.Encoder encoder = Base64.getMimeEncoder(64, "\n".getBytes(StandardCharsets.US_ASCII));
+    StringBuilder bundle = new StringBuilder();
+    for (X509Certificate certificate : certificates) {
+      bundle.append("-----BEGIN CERTIFICATE-----\n")
+        .append(encoder.encodeToString(certificate.getEncoded()))
+        .append("\n-----END CERTIFICATE-----\n");
+    }
+
+    return bundle.toString().getBytes(StandardCharsets.US_ASCII);
+  }
+}
@@ -0,0 +1,233 @@
+package neubert.tobias.spring.web.tls;
+
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.X509ExtendedKeyManager;
+import javax.net.ssl.X509ExtendedTrustManager;
+import neubert.tobias.spring.tls.watcher.JsseProvider;
+import neubert.tobias.spring.tls.watcher.TlsMaterialWatcher;
+import neubert.tobias.spring.tls.watcher.TrustedSessions;
+import nl.altindag.ssl.SSLFactory;
+import nl.altindag.ssl.util.JettySslUtils;
+import nl.altindag.ssl.util.KeyManagerUtils;
+import nl.altindag.ssl.util.SSLSessionUtils;
+import nl.altindag.ssl.util.TrustManagerUtils;
+import org.eclipse.jetty.client.AbstractConnectionPool;
+import org.eclipse.jetty.client.DuplexConnectionPool;
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.HttpDestination;
+import org.eclipse.jetty.client.api.Connection;
+import org.eclipse.jetty.client.api.Destination;
+import org.eclipse.jetty.client.http.HttpClientTransportOverHTTP;
+import org.eclipse.jetty.io.AbstractConnection;
+import org.eclipse.jetty.io.EndPoint;
+import org.eclipse.jetty.io.ssl.SslConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.reactive.ClientHttpConnector;
+import org.springframework.http.client.reactive.ClientHttpRequest;
+import org.springframework.http.client.reactive.ClientHttpResponse;
+import org.springframework.http.client.reactive.JettyClientHttpConnector;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+
+/**
+ * The non-blocking counterpart of the {@code DynamicTlsRestTemplate}. It is based on a Jetty {@link HttpClient}
+ * with a swappable trust manager that is updated by the {@link TlsMaterialWatcher}, so a {@code WebClient} using
+ * this connector keeps its connection pool across trust rotations.
+ * <p>
+ * With a client identity the connector authenticates itself to servers that need a client certificate, like the
+ * config server that publishes the TLS bundles. A rotated identity is used for every new handshake, connections
+ * that are already established keep the previous one until their time to live is over.
+ */
+public class DynamicTlsClientHttpConnector implements ClientHttpConnector, DisposableBean {
+  private static final Logger LOGGER = LoggerFactory.getLogger(DynamicTlsClientHttpConnector.class);
+
+  private final Path trustPath;
+  private final Path identityCertPath;
+  private final Path identityKeyPath;
+  private final TlsWebClientProperties clientProperties;
+  private final TlsMaterialWatcher tlsMaterialWatcher;
+  private final JsseProvider jsseProvider;
+  private final SSLFactory sslFactory;
+  private final X509ExtendedTrustManager trustManager;
+  private final X509ExtendedKeyManager keyManager;
+  private final HttpClient httpClient;
+  private final JettyClientHttpConnector connector;
+  private final TlsMaterialWatcher.Subscription subscription;
+
+  private X509ExtendedKeyManager currentIdentityMaterial;
+
+  public DynamicTlsClientHttpConnector(
+    Resource trustResource,
+    TlsWebClientProperties clientProperties,
+    TlsMaterialWatcher tlsMaterialWatcher,
+    JsseProvider jsseProvider) throws IOException
+  {
+    this(trustResource, null, null, clientProperties, tlsMaterialWatcher, jsseProvider);
+  }
+
+  /**
+   * @param identityCertResource the certificate the client authenticates with, null for a client without identity
+   * @param identityKeyResource the private key of the certificate, null for a client without identity
+   */
+  public DynamicTlsClientHttpConnector(
+    Resource trustResource,
+    Resource identityCertResource,
+    Resource identityKeyResource,
+    TlsWebClientProperties clientProperties,
+    TlsMaterialWatcher tlsMaterialWatcher,
+    JsseProvider jsseProvider) throws IOException
+  {
+    this.trustPath = TlsMaterialWatcher.pathOf(trustResource);
+    this.identityCertPath = identityCertResource != null ? TlsMaterialWatcher.pathOf(identityCertResource) : null;
+    this.identityKeyPath = identityKeyResource != null ? TlsMaterialWatcher.pathOf(identityKeyResource) : null;
+    this.clientProperties = clientProperties;
+    this.tlsMaterialWatcher = tlsMaterialWatcher;
+    this.jsseProvider = jsseProvider;
+    this.sslFactory = sslFactory();
+    this.trustManager = sslFactory.getTrustManager().orElseThrow();
+    this.keyManager = sslFactory.getKeyManager().orElse(null);
+    this.httpClient = httpClient();
+    this.connector = new JettyClientHttpConnector(httpClient);
+
+    List<Path> paths = new ArrayList<>(tlsMaterialWatcher.trustPaths(trustPath));
+    if (hasIdentity()) {
+      paths.addAll(List.of(identityCertPath, identityKeyPath));
+    }
+    this.subscription = tlsMaterialWatcher.subscribe("web-client", paths, this::updateTlsMaterial);
+  }
+
+  @Override
+  public Mono<ClientHttpResponse> connect(
+    HttpMethod method,
+    URI uri,
+    Function<? super ClientHttpRequest, Mono<Void>> requestCallback)
+  {
+    return connector.connect(method, uri, requestCallback);
+  }
+
+  public HttpClient getHttpClient() {
+    return httpClient;
+  }
+
+  private void updateTlsMaterial() {
+    try {
+      LOGGER.info("Trust certificate {} has been changed for the WebClient. ", trustPath);
+
+      X509ExtendedTrustManager newTrustManager = tlsMaterialWatcher.trustMaterial(trustPath);
+      TrustManagerUtils.swapTrustManager(trustManager, newTrustManager);
+      TrustedSessions.invalidateUntrustedSessions(sslFactory.getSslContext().getClientSessionContext(), trustManager);
+      int closed = closeUntrustedIdleConnections();
+
+      LOGGER.info("Updating trust {} for the WebClient finished, closed {} idle connection(s)", trustPath, closed);
+
+      if (hasIdentity()) {
+        updateIdentity();
+      }
+    }
+    catch (Exception e) {
+      throw new IllegalStateException("Cannot update the TLS material for the WebClient", e);
+    }
+  }
+
+  /**
+   * The cached sessions are invalidated, so no session that has been established with the previous identity is
+   * resumed.
+   */
+  private void updateIdentity() {
+    X509ExtendedKeyManager newIdentityMaterial = tlsMaterialWatcher.identityMaterial(identityCertPath, identityKeyPath);
+    if (newIdentityMaterial != currentIdentityMaterial) {
+      KeyManagerUtils.swapKeyManager(keyManager, newIdentityMaterial);
+      currentIdentityMaterial = newIdentityMaterial;
+      SSLSessionUtils.invalidateCaches(sslFactory.getSslContext().getClientSessionContext());
+      LOGGER.info("Identity {} of the WebClient changed", identityCertPath);
+    }
+  }
+
+  private boolean hasIdentity() {
+    return identityCertPath != null;
+  }
+
+  /**
+   * Connections that are in use are left alone, they are closed at the latest when their time to live is over.
+   */
+  private int closeUntrustedIdleConnections() {
+    int closed = 0;
+    for (Destination destination : httpClient.getDestinations()) {
+      if (((HttpDestination) destination).getConnectionPool() instanceof AbstractConnectionPool connectionPool) {
+        for (Connection connection : new ArrayList<>(connectionPool.getIdleConnections())) {
+          SSLSession sslSession = sslSession(connection);
+          if (sslSession != null && !TrustedSessions.isTrusted(sslSession, trustManager)) {
+            connection.close();
+            closed++;
+          }
+        }
+      }
+    }
+
+    return closed;
+  }
+
+  private static SSLSession sslSession(Connection connection) {
+    if (connection instanceof AbstractConnection abstractConnection) {
+      EndPoint endPoint = abstractConnection.getEndPoint();
+      if (endPoint instanceof SslConnection.DecryptedEndPoint decryptedEndPoint) {
+        return decryptedEndPoint.getSslConnection().getSSLEngine().getSession();
+      }
+    }
+
+    return null;
+  }
+
+  @Override
+  public void destroy() throws Exception {
+    subscription.cancel();
+    httpClient.stop();
+  }
+
+  private HttpClient httpClient() {
+    HttpClientTransportOverHTTP transport = new HttpClientTransportOverHTTP();
+    transport.setConnectionPoolFactory(destination -> {
+      DuplexConnectionPool connectionPool = new DuplexConnectionPool(
+        destination,
+        destination.getHttpClient().getMaxConnectionsPerDestination(),
+        destination);
+      connectionPool.setMaxDuration(clientProperties.connectionTimeToLive().toMillis());
+      return connectionPool;
+    });
+
+    HttpClient client = new HttpClient(transport, JettySslUtils.forClient(sslFactory));
+    client.setName("dynamic-tls-web-client");
+    client.setMaxConnectionsPerDestination(clientProperties.maxConnectionsPerDestination());
+    client.setIdleTimeout(clientProperties.idleTimeout().toMillis());
+    client.setConnectTimeout(clientProperties.connectTimeout().toMillis());
+
+    return client;
+  }
+
+  private SSLFactory sslFactory() {
+    X509ExtendedTrustManager trustManager = tlsMaterialWatcher.trustMaterial(trustPath);
+
+    SSLFactory.Builder sslFactoryBuilder = jsseProvider.configure(SSLFactory.builder())
+      .withSwappableTrustMaterial()
+      .withTrustMaterial(trustManager);
+    if (hasIdentity()) {
+      currentIdentityMaterial = tlsMaterialWatcher.identityMaterial(identityCertPath, identityKeyPath);
+      sslFactoryBuilder
+        .withSwappableIdentityMaterial()
+        .withIdentityMaterial(currentIdentityMaterial);
+    }
+
+    return sslFactoryBuilder.build();
+  }
+}
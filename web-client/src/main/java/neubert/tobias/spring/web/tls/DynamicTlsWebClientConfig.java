@@ -0,0 +1,79 @@
+package neubert.tobias.spring.web.tls;
+
+import neubert.tobias.spring.tls.watcher.JsseProvider;
+import neubert.tobias.spring.tls.watcher.TlsMaterialWatcher;
+import neubert.tobias.spring.tls.watcher.TlsWatcherConfig;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.AnyNestedCondition;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Conditional;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.core.io.Resource;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import java.io.IOException;
+import java.time.Duration;
+
+
+/**
+ * Only set up if anything uses the {@code WebClient}: the application itself, the config client or the push of the
+ * TLS bundles.
+ */
+@Configuration
+@Conditional(DynamicTlsWebClientConfig.WebClientUsed.class)
+@Import(TlsWatcherConfig.class)
+public class DynamicTlsWebClientConfig {
+  @Bean
+  public TlsWebClientProperties tlsWebClientProperties(
+    @Value("${neubert.tobias.tls.web-client.max-connections-per-destination:64}") int maxConnectionsPerDestination,
+    @Value("${neubert.tobias.tls.web-client.connection-ttl:5m}") Duration connectionTimeToLive,
+    @Value("${neubert.tobias.tls.web-client.idle-timeout:30s}") Duration idleTimeout,
+    @Value("${neubert.tobias.tls.web-client.connect-timeout:5s}") Duration connectTimeout)
+  {
+    return new TlsWebClientProperties(maxConnectionsPerDestination, connectionTimeToLive, idleTimeout, connectTimeout);
+  }
+
+  /**
+   * The client identity is optional, it is needed to subscribe to the TLS bundles of the config server.
+   */
+  @Bean
+  public DynamicTlsClientHttpConnector dynamicTlsClientHttpConnector(
+    @Value("${neubert.tobias.tls.trust-resource}") Resource trustResource,
+    @Value("${neubert.tobias.tls.web-client.identity-cert-resource:#{null}}") Resource identityCertResource,
+    @Value("${neubert.tobias.tls.web-client.identity-key-resource:#{null}}") Resource identityKeyResource,
+    TlsWebClientProperties clientProperties,
+    TlsMaterialWatcher tlsMaterialWatcher,
+    JsseProvider jsseProvider) throws IOException
+  {
+    return new DynamicTlsClientHttpConnector(
+      trustResource,
+      identityCertResource,
+      identityKeyResource,
+      clientProperties,
+      tlsMaterialWatcher,
+      jsseProvider);
+  }
+
+  @Bean
+  public WebClient dynamicTlsWebClient(DynamicTlsClientHttpConnector connector) {
+    return WebClient.builder()
+      .clientConnector(connector)
+      .build();
+  }
+
+  static class WebClientUsed extends AnyNestedCondition {
+    WebClientUsed() {
+      super(ConfigurationPhase.PARSE_CONFIGURATION);
+    }
+
+    @ConditionalOnProperty(name = "neubert.tobias.tls.web-client.enabled", havingValue = "true")
+    static class Enabled {
+    }
+
+    @ConditionalOnProperty(name = "neubert.tobias.tls.push.enabled", havingValue = "true")
+    static class UsedByPush {
+    }
+  }
+}
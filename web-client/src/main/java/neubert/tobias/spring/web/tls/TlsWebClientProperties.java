@@ -0,0 +1,16 @@
+package neubert.tobias.spring.web.tls;
+
+import java.time.Duration;
+
+
+/**
+ * @param connectionTimeToLive connections older than this are closed when they are returned to the pool, so
+ *                             every connection picks up rotated trust material eventually
+ */
+public record TlsWebClientProperties(
+  int maxConnectionsPerDestination,
+  Duration connectionTimeToLive,
+  Duration idleTimeout,
+  Duration connectTimeout)
+{
+}
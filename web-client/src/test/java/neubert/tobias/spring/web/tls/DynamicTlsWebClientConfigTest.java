@@ -0,0 +1,21 @@
+package neubert.tobias.spring.web.tls;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+
+class DynamicTlsWebClientConfigTest {
+  private final ApplicationContextRunner contextRunner = new ApplicationContextRunner()
+    .withUserConfiguration(DynamicTlsWebClientConfig.class);
+
+  @Test
+  void createsNoWebClientThatNobodyUses() {
+    contextRunner.run(context -> assertThat(context)
+      .hasNotFailed()
+      .doesNotHaveBean(DynamicTlsClientHttpConnector.class)
+      .doesNotHaveBean(WebClient.class));
+  }
+}
@@ -0,0 +1,71 @@
+package neubert.tobias.spring.web.tls;
+
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import java.nio.file.Files;
+import java.time.Duration;
+
+import static java.lang.String.format;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static neubert.tobias.spring.web.tls.TlsExtension.mockServer;
+import static neubert.tobias.spring.web.tls.TlsExtension.mockServerPort;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockserver.model.HttpRequest.request;
+import static org.mockserver.model.HttpResponse.response;
+
+
+@SpringBootTest(
+  classes = {DynamicTlsWebClientConfig.class},
+  properties = {"neubert.tobias.tls.web-client.enabled=true"})
+@ExtendWith(TlsExtension.class)
+class DynamicTlsWebClientTest {
+  private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+  @Autowired
+  @Qualifier("dynamicTlsWebClient")
+  private WebClient webClient;
+
+  @Test
+  void switchingTruststores() throws Exception {
+    mockServer
+      .when(
+        request()
+          .withMethod("GET")
+          .withPath("/ping")
+      )
+      .respond(
+        response()
+          .withStatusCode(200)
+          .withBody("pong")
+      );
+
+    assertThat(ping()).isEqualTo("pong");
+
+    // change the truststore at runtime, wait a little for the web client to refresh the store
+    Files.copy(TlsExtension.flyingDesksTrustPath, TlsExtension.trustPath, REPLACE_EXISTING);
+    Thread.sleep(1000);
+
+    assertThatThrownBy(this::ping).hasStackTraceContaining("PKIX path building failed");
+
+    // change the truststore at runtime, wait a little for the web client to refresh the store
+    Files.copy(TlsExtension.tobiasTrustPath, TlsExtension.trustPath, REPLACE_EXISTING);
+    Thread.sleep(1000);
+
+    assertThat(ping()).isEqualTo("pong");
+  }
+
+  private String ping() {
+    return webClient.get()
+      .uri(format("https://localhost:%s/ping", mockServerPort))
+      .retrieve()
+      .bodyToMono(String.class)
+      .block(TIMEOUT);
+  }
+}